@@ -18,6 +18,7 @@ package org.seasar.tramina.recovery;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 import javax.transaction.xa.Xid;
 
@@ -40,13 +41,69 @@ public interface JdbcTransactionLogManagerDialect {
 
     String getSelectSql();
 
+    /**
+     * グローバルトランザクションIDを指定してトランザクションログを検索する SQL を返します．
+     * 
+     * @param count
+     *            <code>IN</code> 句に指定するグローバルトランザクションIDの数
+     * @return グローバルトランザクションIDで検索する SQL．サポートしない場合は<code>null</code>
+     */
+    String getSelectByGlobalIdSql(int count);
+
     String getInsertSql();
 
     String getDeleteSql();
 
+    /**
+     * 完了したトランザクションのトランザクションログを削除する SQL を返します．
+     * 
+     * @return 完了したトランザクションのトランザクションログを削除する SQL．サポートしない場合は<code>null</code>
+     */
+    String getDeleteByGlobalIdSql();
+
+    /**
+     * 完了したトランザクションのトランザクションログを削除する SQL にパラメータをバインドします．
+     * 
+     * @param ps
+     *            {@link #getDeleteByGlobalIdSql()} から作成された {@link PreparedStatement}
+     * @param xid
+     *            完了したトップレベルトランザクションの {@link Xid}
+     * @throws SQLException
+     *             バインドに失敗した場合
+     */
+    void bindParameterToDeleteByGlobalIdSql(PreparedStatement ps, Xid xid)
+            throws SQLException;
+
     void bindParameterToInsertSql(PreparedStatement ps,
             TwoPhaseCommitEvent event) throws SQLException;
 
+    /**
+     * コミットしたトランザクションの {@link Xid} を挿入する SQL にパラメータをバインドします．
+     * 
+     * @param ps
+     *            {@link #getInsertSql()} から作成された {@link PreparedStatement}
+     * @param xid
+     *            コミットしたトップレベルトランザクションの {@link Xid}
+     * @throws SQLException
+     *             バインドに失敗した場合
+     */
+    void bindParameterToInsertSql(PreparedStatement ps, Xid xid)
+            throws SQLException;
+
+    /**
+     * グローバルトランザクションIDで検索する SQL にパラメータをバインドします．
+     * 
+     * @param ps
+     *            {@link #getSelectByGlobalIdSql(int)} から作成された
+     *            {@link PreparedStatement}
+     * @param xids
+     *            検索するグローバルトランザクションIDを持つ {@link Xid} のリスト
+     * @throws SQLException
+     *             バインドに失敗した場合
+     */
+    void bindParameterToSelectByGlobalIdSql(PreparedStatement ps,
+            List<Xid> xids) throws SQLException;
+
     Xid createXid(ResultSet rs) throws SQLException;
 
 }
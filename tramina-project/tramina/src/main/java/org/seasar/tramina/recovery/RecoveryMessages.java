@@ -61,6 +61,8 @@ public enum RecoveryMessages implements EnumMessage {
             "トランザクションログを挿入するためのコネクションが取得できませんでした．transactionLogManager={0}"),
     TRANSACTION_LOG_INSERTED("",
             "トランザクションログレコードを挿入しました．transactionLogManager={0}, transaction={1}"),
+    TRANSACTION_LOG_GROUP_COMMITTED("",
+            "トランザクションログレコードを{1}件まとめて挿入しました．transactionLogManager={0}"),
     INSERT_TRANSACTION_LOG_FAILED("",
             "トランザクションログレコードを挿入できませんでした．transactionLogManager={0}, transaction={1}"),
     EXPIRED_TRANSACTION_LOG_DELETED("",
@@ -69,6 +71,24 @@ public enum RecoveryMessages implements EnumMessage {
             "期限を過ぎたトランザクションログレコードの削除ができませんでした．transactionLogManager={0}"),
     ACQUIRE_TRANSACTION_RESULT_FAILED("",
             "トランザクションログレコードを読み込めませんでした．transactionLogManager={0}"),
+    TRANSACTION_LOG_FILE_INITIALIZATION_FAILED("",
+            "トランザクションログファイルを初期化できませんでした．transactionLogManager={0}"),
+    TRANSACTION_LOG_SEGMENT_TRUNCATED("",
+            "トランザクションログセグメントの末尾に不完全なレコードがあったため読み飛ばしました．transactionLogManager={0}, file={1}"),
+    TRANSACTION_LOG_SEGMENT_DELETED("",
+            "トランザクションログセグメントを削除しました．transactionLogManager={0}, file={1}"),
+    DELETE_TRANSACTION_LOG_SEGMENT_FAILED("",
+            "トランザクションログセグメントを削除できませんでした．transactionLogManager={0}, file={1}"),
+    CLOSE_TRANSACTION_LOG_FILE_FAILED("",
+            "トランザクションログファイルをクローズできませんでした．transactionLogManager={0}"),
+    TRANSACTION_LOG_FORGOTTEN("",
+            "完了したトランザクションのトランザクションログレコードを{1}件削除しました．transactionLogManager={0}"),
+    FORGET_TRANSACTION_LOG_FAILED("",
+            "完了したトランザクションのトランザクションログレコードを削除できませんでした．期限切れの削除で削除されます．transactionLogManager={0}"),
+    TRANSACTION_LOG_UNAVAILABLE("",
+            "トランザクションログのデータソースが利用できなくなりました．transactionLogManager={0}"),
+    TRANSACTION_LOG_AVAILABLE("",
+            "トランザクションログのデータソースが利用できるようになりました．transactionLogManager={0}"),
     /* */
     ;
 
@@ -0,0 +1,729 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.recovery.impl;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import javax.transaction.SystemException;
+import javax.transaction.xa.Xid;
+
+import org.seasar.tramina.activity.Component;
+import org.seasar.tramina.activity.impl.AbstractActiveComponent;
+import org.seasar.tramina.logging.Logger;
+import org.seasar.tramina.logging.LoggerFactory;
+import org.seasar.tramina.recovery.TransacstionResultType;
+import org.seasar.tramina.recovery.TransactionLogManager;
+import org.seasar.tramina.recovery.exception.InsertTransactionLogFailedException;
+import org.seasar.tramina.recovery.exception.TransactionLogFileInitializationFailedException;
+import org.seasar.tramina.spi.TransactionStatusType;
+import org.seasar.tramina.spi.TwoPhaseCommitEvent;
+import org.seasar.tramina.spi.WorkManager;
+
+import static org.seasar.tramina.activity.impl.ActivityAssertions.*;
+import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
+import static org.seasar.tramina.recovery.RecoveryMessages.*;
+import static org.seasar.tramina.recovery.TransacstionResultType.*;
+
+/**
+ * コミットの決定をローカルファイルに追記する {@link TransactionLogManager} の実装です．
+ * <p>
+ * トランザクションログは {@link #directory} の下に作成されるセグメントファイルに追記されます．
+ * セグメントが {@link #segmentSize} を超えると新しいセグメントに切り替わり，
+ * 含まれるコミットの決定が全て完了 (または期限切れ) になったセグメントは削除されます．
+ * 同時にコミットの決定を書き込んだスレッドは一度の {@link FileChannel#force(boolean)} を共有します．
+ * </p>
+ * <p>
+ * 初期化時に全てのセグメントを順に読み込み，完了していないコミットの決定をメモリ上のインデックスに保持します．
+ * {@link #getTransactionResult(Xid[])} はこのインデックスをグローバルトランザクションIDで検索します．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class FileTransactionLogManager extends
+        AbstractActiveComponent<FileTransactionLogManager> implements
+        TransactionLogManager, Component {
+
+    // /////////////////////////////////////////////////////////////////
+    // static fields
+    //
+    /** ロガー */
+    private static final Logger logger =
+        LoggerFactory.getLogger(FileTransactionLogManager.class);
+
+    /** セグメントファイルの拡張子 */
+    protected static final String SEGMENT_SUFFIX = ".log";
+
+    /** コミットの決定を表すレコード種別 */
+    protected static final byte COMMIT_RECORD = 1;
+
+    /** コミットの完了を表すレコード種別 */
+    protected static final byte FORGET_RECORD = 2;
+
+    /** レコードヘッダ (本体の長さとCRC) のサイズ */
+    protected static final int HEADER_SIZE = 8;
+
+    /** 空のブランチ修飾子 */
+    protected static final byte[] EMPTY_BYTES = new byte[0];
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    protected WorkManager workManager;
+
+    protected File directory;
+
+    protected String prefix = "tranlog";
+
+    protected long segmentSize = 4 * 1024 * 1024;
+
+    protected long retentionSeconds = 30 * 60;
+
+    protected long intervalSeconds = 60;
+
+    protected ScheduledFuture<?> scheduledFuture;
+
+    /** セグメントとインデックスを保護するロック */
+    protected final ReentrantLock writeLock = new ReentrantLock();
+
+    /** {@link FileChannel#force(boolean)} を実行するスレッドを一つに限定するロック */
+    protected final ReentrantLock forceLock = new ReentrantLock();
+
+    /** 削除されていないセグメント (最後が書き込み中のセグメント) */
+    protected final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+    /** 完了していないコミットの決定 (キーはブランチ修飾子が空のXid) */
+    protected final Map<Xid, LogEntry> entries = new HashMap<Xid, LogEntry>();
+
+    /** 書き込み中のセグメント */
+    protected Segment currentSegment;
+
+    /** 書き込み中のセグメントのチャネル */
+    protected FileChannel channel;
+
+    /** 書き込んだレコードの通番 */
+    protected long writtenSequence;
+
+    /** ディスクへの書き込みが保証されたレコードの通番 */
+    protected final AtomicLong forcedSequence = new AtomicLong();
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from TransactionLogManager
+    //
+    @Override
+    public void open(final TwoPhaseCommitEvent event) throws SystemException {
+        assertInitialized(this);
+        assertParameterNotNull("event", event);
+    }
+
+    @Override
+    public void writeBeforeCommitLog(final TwoPhaseCommitEvent event)
+            throws SystemException {
+        assertInitialized(this);
+        assertParameterNotNull("event", event);
+        final Xid key = createKey(event.getXid());
+        final long timestamp = System.currentTimeMillis();
+        try {
+            final long sequence;
+            writeLock.lock();
+            try {
+                sequence = append(COMMIT_RECORD, key, timestamp);
+                addEntry(key, new LogEntry(currentSegment, timestamp));
+            } finally {
+                writeLock.unlock();
+            }
+            force(sequence);
+        } catch (final IOException e) {
+            throw new InsertTransactionLogFailedException(this, event
+                .getTransaction(), e);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(TRANSACTION_LOG_INSERTED.format(this, event
+                .getTransaction()));
+        }
+    }
+
+    @Override
+    public void writeAfterCommitLog(final TwoPhaseCommitEvent event)
+            throws SystemException {
+        assertInitialized(this);
+        assertParameterNotNull("event", event);
+        if (event.getStatus() != TransactionStatusType.COMMITTED
+            || event.isCommitRetryPending()) {
+            // コミットできなかったブランチのためにコミットの決定を残す
+            return;
+        }
+        final Xid key = createKey(event.getXid());
+        writeLock.lock();
+        try {
+            final LogEntry entry = entries.remove(key);
+            if (entry == null) {
+                return;
+            }
+            append(FORGET_RECORD, key, System.currentTimeMillis());
+            release(entry.segment);
+        } catch (final IOException e) {
+            throw new InsertTransactionLogFailedException(this, event
+                .getTransaction(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close(final TwoPhaseCommitEvent event) throws SystemException {
+    }
+
+    @Override
+    public TransacstionResultType[] getTransactionResult(final Xid[] indoubtXids)
+            throws SystemException {
+        assertInitialized(this);
+        final TransacstionResultType[] result =
+            new TransacstionResultType[indoubtXids.length];
+        writeLock.lock();
+        try {
+            for (int i = 0; i < indoubtXids.length; ++i) {
+                result[i] =
+                    entries.containsKey(createKey(indoubtXids[i]))
+                        ? COMMITTED : ROLLED_BACK;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return result;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from AbstractActiveComponent
+    //
+    @Override
+    protected void doInitialize() {
+        assertPropertyNotNull(this, "workManager", workManager);
+        assertPropertyNotNull(this, "directory", directory);
+        writeLock.lock();
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException(directory.getPath());
+            }
+            long lastNumber = 0;
+            for (final Segment segment : listSegments()) {
+                readSegment(segment);
+                segment.sealed = true;
+                segments.add(segment);
+                lastNumber = segment.number;
+            }
+            for (final Segment segment : new ArrayList<Segment>(segments)) {
+                if (segment.pendingCount == 0) {
+                    deleteSegment(segment);
+                }
+            }
+            openSegment(lastNumber + 1);
+        } catch (final IOException e) {
+            throw new TransactionLogFileInitializationFailedException(this, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    protected void doStart() {
+        scheduledFuture = workManager.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deleteExpiredRecord();
+                } catch (final Exception e) {
+                    logger.error(DELETE_EXPIRED_TRANSACTION_LOG_FAILED
+                        .format(this), e);
+                }
+            }
+        }, intervalSeconds, intervalSeconds);
+        if (logger.isDebugEnabled()) {
+            logger.debug(TRANSACTION_LOG_MANAGER_STARTED.format(this));
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        scheduledFuture.cancel(false);
+        if (logger.isDebugEnabled()) {
+            logger.debug(TRANSACTION_LOG_MANAGER_STOPPED.format(this));
+        }
+    }
+
+    @Override
+    protected void doDispose() {
+        writeLock.lock();
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (final IOException e) {
+            logger.warning(CLOSE_TRANSACTION_LOG_FILE_FAILED.format(this), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods
+    //
+    @Override
+    public String toString() {
+        return super.toString() + "[activityStatus : <" + activityStatus
+            + ">, directory : <" + directory + ">, prefix : <" + prefix
+            + ">, segmentSize : <" + segmentSize + ">, retentionSeconds : <"
+            + retentionSeconds + ">, intervalSeconds : <" + intervalSeconds
+            + ">]";
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods
+    //
+    /**
+     * 期限を過ぎたコミットの決定をインデックスから削除し，不要になったセグメントを削除します．
+     */
+    public void deleteExpiredRecord() {
+        assertInitialized(this);
+        final long expiration =
+            System.currentTimeMillis() - retentionSeconds * 1000L;
+        int rows = 0;
+        writeLock.lock();
+        try {
+            for (final Iterator<LogEntry> it = entries.values().iterator(); it
+                .hasNext();) {
+                final LogEntry entry = it.next();
+                if (entry.timestamp < expiration) {
+                    it.remove();
+                    release(entry.segment);
+                    ++rows;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (rows > 0 && logger.isDebugEnabled()) {
+            logger.debug(EXPIRED_TRANSACTION_LOG_DELETED.format(this, rows));
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for properties
+    //
+    /**
+     * @param workManager
+     *            the workManager to set
+     */
+    public FileTransactionLogManager setWorkManager(
+            final WorkManager workManager) {
+        assertBeforeInitialized(this);
+        assertParameterNotNull("workManager", workManager);
+        this.workManager = workManager;
+        return this;
+    }
+
+    /**
+     * @param directory
+     *            the directory to set
+     */
+    public FileTransactionLogManager setDirectory(final File directory) {
+        assertBeforeInitialized(this);
+        assertParameterNotNull("directory", directory);
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * @param prefix
+     *            the prefix to set
+     */
+    public FileTransactionLogManager setPrefix(final String prefix) {
+        assertBeforeInitialized(this);
+        assertParameterNotEmptyString("prefix", prefix);
+        this.prefix = prefix;
+        return this;
+    }
+
+    /**
+     * @param segmentSize
+     *            the segmentSize to set
+     */
+    public FileTransactionLogManager setSegmentSize(final long segmentSize) {
+        assertBeforeInitialized(this);
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * @param retentionSeconds
+     *            the retentionSeconds to set
+     */
+    public FileTransactionLogManager setRetentionSeconds(
+            final long retentionSeconds) {
+        assertBeforeInitialized(this);
+        this.retentionSeconds = retentionSeconds;
+        return this;
+    }
+
+    /**
+     * @param intervalSeconds
+     *            the intervalSeconds to set
+     */
+    public FileTransactionLogManager setIntervalSeconds(
+            final long intervalSeconds) {
+        assertBeforeInitialized(this);
+        this.intervalSeconds = intervalSeconds;
+        return this;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for internal
+    //
+    /**
+     * コミットの決定を検索するためのキーを作成します．
+     * <p>
+     * コミットの決定はグローバルトランザクション単位なので，ブランチ修飾子は無視します．
+     * </p>
+     * 
+     * @param xid
+     *            Xid
+     * @return ブランチ修飾子が空のXid
+     */
+    protected Xid createKey(final Xid xid) {
+        return new XidImpl(
+            xid.getFormatId(),
+            xid.getGlobalTransactionId(),
+            EMPTY_BYTES);
+    }
+
+    /**
+     * 書き込み中のセグメントにレコードを追記します．
+     * <p>
+     * {@link #writeLock} を獲得した状態で呼び出さなくてはなりません．
+     * </p>
+     * 
+     * @param type
+     *            レコード種別
+     * @param key
+     *            コミットの決定のキー
+     * @param timestamp
+     *            タイムスタンプ
+     * @return 追記したレコードの通番
+     * @throws IOException
+     *             書き込みに失敗した場合
+     */
+    protected long append(final byte type, final Xid key, final long timestamp)
+            throws IOException {
+        final byte[] gtrid = key.getGlobalTransactionId();
+        final int bodyLength = 1 + 8 + 4 + 1 + gtrid.length;
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        buffer.position(HEADER_SIZE);
+        buffer.put(type).putLong(timestamp).putInt(key.getFormatId()).put(
+            (byte) gtrid.length).put(gtrid);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, bodyLength);
+        buffer.putInt(0, bodyLength).putInt(4, (int) crc.getValue());
+        buffer.flip();
+
+        if (currentSegment.size > 0
+            && currentSegment.size + buffer.remaining() > segmentSize) {
+            rotate();
+        }
+        while (buffer.hasRemaining()) {
+            currentSegment.size += channel.write(buffer);
+        }
+        return ++writtenSequence;
+    }
+
+    /**
+     * 指定の通番までのレコードがディスクに書き込まれたことを保証します．
+     * <p>
+     * 最初に {@link #forceLock} を獲得したスレッドが，
+     * その時点までに追記された全てのレコードをまとめてディスクに書き込みます．
+     * </p>
+     * 
+     * @param sequence
+     *            レコードの通番
+     * @throws IOException
+     *             書き込みに失敗した場合
+     */
+    protected void force(final long sequence) throws IOException {
+        if (forcedSequence.get() >= sequence) {
+            return;
+        }
+        forceLock.lock();
+        try {
+            if (forcedSequence.get() >= sequence) {
+                return;
+            }
+            final long target;
+            final FileChannel forceChannel;
+            writeLock.lock();
+            try {
+                target = writtenSequence;
+                forceChannel = channel;
+            } finally {
+                writeLock.unlock();
+            }
+            try {
+                forceChannel.force(false);
+            } catch (final ClosedChannelException e) {
+                // セグメントの切り替えでディスクに書き込み済み
+                if (forcedSequence.get() < sequence) {
+                    throw e;
+                }
+            }
+            advanceForcedSequence(target);
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    protected void advanceForcedSequence(final long sequence) {
+        for (;;) {
+            final long current = forcedSequence.get();
+            if (current >= sequence
+                || forcedSequence.compareAndSet(current, sequence)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 書き込み中のセグメントを閉じ，新しいセグメントに切り替えます．
+     * 
+     * @throws IOException
+     *             セグメントの切り替えに失敗した場合
+     */
+    protected void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        advanceForcedSequence(writtenSequence);
+        final Segment sealed = currentSegment;
+        sealed.sealed = true;
+        openSegment(sealed.number + 1);
+        if (sealed.pendingCount == 0) {
+            deleteSegment(sealed);
+        }
+    }
+
+    protected void openSegment(final long number) throws IOException {
+        final Segment segment =
+            new Segment(number, new File(directory, prefix + "-" + number
+                + SEGMENT_SUFFIX));
+        channel = new RandomAccessFile(segment.file, "rw").getChannel();
+        segments.add(segment);
+        currentSegment = segment;
+    }
+
+    protected void deleteSegment(final Segment segment) {
+        segments.remove(segment);
+        if (segment.file.delete()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(TRANSACTION_LOG_SEGMENT_DELETED.format(
+                    this,
+                    segment.file));
+            }
+        } else {
+            logger.warning(DELETE_TRANSACTION_LOG_SEGMENT_FAILED.format(
+                this,
+                segment.file));
+        }
+    }
+
+    protected void addEntry(final Xid key, final LogEntry entry) {
+        final LogEntry old = entries.put(key, entry);
+        ++entry.segment.pendingCount;
+        if (old != null) {
+            release(old.segment);
+        }
+    }
+
+    protected void release(final Segment segment) {
+        --segment.pendingCount;
+        if (segment.sealed && segment.pendingCount == 0) {
+            deleteSegment(segment);
+        }
+    }
+
+    protected List<Segment> listSegments() {
+        final String segmentPrefix = prefix + "-";
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                final String name = file.getName();
+                return file.isFile() && name.startsWith(segmentPrefix)
+                    && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        final List<Segment> result = new ArrayList<Segment>();
+        for (final File file : files) {
+            final String name = file.getName();
+            try {
+                result.add(new Segment(Long.parseLong(name.substring(
+                    segmentPrefix.length(),
+                    name.length() - SEGMENT_SUFFIX.length())), file));
+            } catch (final NumberFormatException ignore) {
+            }
+        }
+        Collections.sort(result, new Comparator<Segment>() {
+            @Override
+            public int compare(final Segment o1, final Segment o2) {
+                return o1.number < o2.number ? -1 : o1.number == o2.number
+                    ? 0 : 1;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * セグメントを先頭から順に読み込み，インデックスに反映します．
+     * <p>
+     * 末尾の不完全なレコード (長さまたはCRCが不正なレコード) 以降は読み飛ばします．
+     * </p>
+     * 
+     * @param segment
+     *            セグメント
+     * @throws IOException
+     *             読み込みに失敗した場合
+     */
+    protected void readSegment(final Segment segment) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+        final ByteBuffer buffer;
+        try {
+            final FileChannel readChannel = file.getChannel();
+            buffer = ByteBuffer.allocate((int) readChannel.size());
+            while (buffer.hasRemaining()) {
+                if (readChannel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+        } finally {
+            file.close();
+        }
+        segment.size = buffer.limit();
+
+        final CRC32 crc = new CRC32();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            buffer.mark();
+            final int bodyLength = buffer.getInt();
+            final int checksum = buffer.getInt();
+            if (bodyLength <= 0 || bodyLength > buffer.remaining()) {
+                buffer.reset();
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                buffer.reset();
+                break;
+            }
+            final byte type = buffer.get();
+            final long timestamp = buffer.getLong();
+            final int formatId = buffer.getInt();
+            final byte[] gtrid = new byte[buffer.get() & 0xff];
+            buffer.get(gtrid);
+            final Xid key = new XidImpl(formatId, gtrid, EMPTY_BYTES);
+            if (type == COMMIT_RECORD) {
+                addEntry(key, new LogEntry(segment, timestamp));
+            } else {
+                final LogEntry entry = entries.remove(key);
+                if (entry != null) {
+                    --entry.segment.pendingCount;
+                }
+            }
+        }
+        if (buffer.hasRemaining()) {
+            logger.warning(TRANSACTION_LOG_SEGMENT_TRUNCATED.format(
+                this,
+                segment.file));
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // member types
+    //
+    /**
+     * トランザクションログのセグメントファイルです．
+     * 
+     * @author koichik
+     */
+    protected static class Segment {
+
+        protected final long number;
+
+        protected final File file;
+
+        /** セグメントに書き込んだバイト数 */
+        protected long size;
+
+        /** 完了していないコミットの決定の数 */
+        protected int pendingCount;
+
+        /** 書き込みが終了したセグメントは<code>true</code> */
+        protected boolean sealed;
+
+        /**
+         * @param number
+         * @param file
+         */
+        public Segment(final long number, final File file) {
+            this.number = number;
+            this.file = file;
+        }
+
+    }
+
+    /**
+     * 完了していないコミットの決定です．
+     * 
+     * @author koichik
+     */
+    protected static class LogEntry {
+
+        protected final Segment segment;
+
+        protected final long timestamp;
+
+        /**
+         * @param segment
+         * @param timestamp
+         */
+        public LogEntry(final Segment segment, final long timestamp) {
+            this.segment = segment;
+            this.timestamp = timestamp;
+        }
+
+    }
+
+}
@@ -20,7 +20,20 @@ import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.sql.DataSource;
 import javax.transaction.SystemException;
@@ -37,6 +50,7 @@ import org.seasar.tramina.recovery.exception.AcquireConnectionFailedException;
 import org.seasar.tramina.recovery.exception.AcquireTransactionResultFailedException;
 import org.seasar.tramina.recovery.exception.InsertTransactionLogFailedException;
 import org.seasar.tramina.recovery.exception.TransactionLogTableInitializationFailedException;
+import org.seasar.tramina.spi.TransactionStatusType;
 import org.seasar.tramina.spi.TwoPhaseCommitEvent;
 import org.seasar.tramina.spi.WorkManager;
 import org.seasar.tramina.util.JdbcUtil.ConnectionProcessor;
@@ -66,6 +80,9 @@ public class JdbcTransactionLogManager extends
     private static final Logger logger =
         LoggerFactory.getLogger(JdbcTransactionLogManager.class);
 
+    /** 空のブランチ修飾子 */
+    protected static final byte[] EMPTY_BYTES = new byte[0];
+
     // /////////////////////////////////////////////////////////////////
     // instance fields
     //
@@ -77,8 +94,58 @@ public class JdbcTransactionLogManager extends
 
     protected long intervalSeconds = 60;
 
+    /**
+     * インダウトトランザクションを検索する <code>IN</code> 句に一度に指定するグローバルトランザクションIDの最大数
+     * (0 以下の場合はトランザクションログテーブル全体を読み込みます)
+     */
+    protected int inListSize = 100;
+
     protected ScheduledFuture<?> scheduledFuture;
 
+    /** 複数のトランザクションログをまとめて挿入・コミットする場合は<code>true</code> */
+    protected boolean groupCommit;
+
+    /** グループコミットで一度に挿入するトランザクションログの最大件数 */
+    protected int maxBatchSize = 64;
+
+    /** グループコミットでバッチが埋まるのを待つ最大時間 (ミリ秒) */
+    protected long maxLingerMillis;
+
+    /** 完了したトランザクションのトランザクションログを期限切れを待たずに削除する場合は<code>true</code> */
+    protected boolean eagerForget;
+
+    /** 完了したトランザクションのトランザクションログを一度に削除する最大件数 */
+    protected int forgetBatchSize = 100;
+
+    /** 完了したトランザクションのトランザクションログを削除するまでの遅延時間 (ミリ秒) */
+    protected long forgetDelayMillis = 100;
+
+    /** 削除を待っている完了したトランザクションの {@link Xid} */
+    protected final ConcurrentLinkedQueue<Xid> pendingForgets =
+        new ConcurrentLinkedQueue<Xid>();
+
+    /** 完了したトランザクションのトランザクションログの削除を予約済みの場合は<code>true</code> */
+    protected final AtomicBoolean forgetScheduled = new AtomicBoolean();
+
+    /** グループコミットを待っているトランザクションログ */
+    protected final LinkedList<PendingRecord> pendingRecords =
+        new LinkedList<PendingRecord>();
+
+    /** {@link #pendingRecords} を保護するロック */
+    protected final ReentrantLock pendingLock = new ReentrantLock();
+
+    /** {@link #pendingRecords} が {@link #maxBatchSize} に達したことを通知する条件 */
+    protected final Condition batchFilled = pendingLock.newCondition();
+
+    /** グループコミットを実行するスレッドを一つに限定するロック */
+    protected final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * トランザクションログのデータソースが利用可能な場合は<code>true</code>
+     * (データソースへのアクセスの成否によって更新されます)
+     */
+    protected final AtomicBoolean available = new AtomicBoolean(true);
+
     // /////////////////////////////////////////////////////////////////
     // instance methods from TransactionLogManager
     //
@@ -86,9 +153,13 @@ public class JdbcTransactionLogManager extends
     public void open(final TwoPhaseCommitEvent event) throws SystemException {
         assertInitialized(this);
         assertParameterNotNull("event", event);
+        if (available.get()) {
+            return;
+        }
         try {
             final Connection con = dataSource.getConnection();
             con.close();
+            markAvailable();
         } catch (final SQLException e) {
             throw new AcquireConnectionFailedException(this, event
                 .getTransaction(), e);
@@ -100,6 +171,10 @@ public class JdbcTransactionLogManager extends
             throws SystemException {
         assertInitialized(this);
         assertParameterNotNull("event", event);
+        if (groupCommit) {
+            writeBeforeCommitLogInGroup(event);
+            return;
+        }
         try {
             process(
                 dataSource,
@@ -112,11 +187,13 @@ public class JdbcTransactionLogManager extends
                         return ps.executeUpdate();
                     }
                 });
+            markAvailable();
             if (logger.isDebugEnabled()) {
                 logger.debug(TRANSACTION_LOG_INSERTED.format(this, event
                     .getTransaction()));
             }
         } catch (final SQLException e) {
+            markUnavailable(e);
             throw new InsertTransactionLogFailedException(this, event
                 .getTransaction(), e);
         }
@@ -125,6 +202,14 @@ public class JdbcTransactionLogManager extends
     @Override
     public void writeAfterCommitLog(final TwoPhaseCommitEvent event)
             throws SystemException {
+        assertInitialized(this);
+        assertParameterNotNull("event", event);
+        if (!eagerForget || event.getStatus() != TransactionStatusType.COMMITTED
+            || event.isCommitRetryPending()) {
+            return;
+        }
+        pendingForgets.add(event.getXid());
+        scheduleForget();
     }
 
     @Override
@@ -138,27 +223,29 @@ public class JdbcTransactionLogManager extends
         final TransacstionResultType[] result =
             new TransacstionResultType[indoubtXids.length];
         fill(result, ROLLED_BACK);
+        final Set<Xid> indoubtKeys = new LinkedHashSet<Xid>();
+        for (final Xid xid : indoubtXids) {
+            indoubtKeys.add(createKey(xid));
+        }
+        final Set<Xid> committedKeys = new HashSet<Xid>();
         try {
-            process(
-                dataSource,
-                dialect.getSelectSql(),
-                new ResultSetProcessor<Void>() {
-                    @Override
-                    public Void process(final ResultSet rs) throws SQLException {
-                        while (rs.next()) {
-                            final Xid xid = dialect.createXid(rs);
-                            for (int i = 0; i < indoubtXids.length; ++i) {
-                                if (xid.equals(indoubtXids[i])) {
-                                    result[i] = COMMITTED;
-                                }
-                            }
-                        }
-                        return null;
-                    }
-                });
+            if (inListSize > 0 && dialect.getSelectByGlobalIdSql(1) != null) {
+                selectByGlobalId(
+                    new ArrayList<Xid>(indoubtKeys),
+                    indoubtKeys,
+                    committedKeys);
+            } else {
+                selectAll(indoubtKeys, committedKeys);
+            }
         } catch (final SQLException e) {
+            markUnavailable(e);
             throw new AcquireTransactionResultFailedException(this, e);
         }
+        for (int i = 0; i < indoubtXids.length; ++i) {
+            if (committedKeys.contains(createKey(indoubtXids[i]))) {
+                result[i] = COMMITTED;
+            }
+        }
         return result;
     }
 
@@ -170,6 +257,9 @@ public class JdbcTransactionLogManager extends
         assertPropertyNotNull(this, "workManager", workManager);
         assertPropertyNotNull(this, "dataSource", dataSource);
         assertPropertyNotNull(this, "dialect", dialect);
+        if (dialect.getDeleteByGlobalIdSql() == null) {
+            eagerForget = false;
+        }
         try {
             process(dataSource, new ConnectionProcessor<Void>() {
                 @Override
@@ -221,7 +311,13 @@ public class JdbcTransactionLogManager extends
     @Override
     public String toString() {
         return super.toString() + "[activityStatus : <" + activityStatus
-            + ">, intervalSeconds : <" + intervalSeconds + ">]";
+            + ">, intervalSeconds : <" + intervalSeconds + ">, inListSize : <"
+            + inListSize + ">, eagerForget : <" + eagerForget
+            + ">, forgetBatchSize : <" + forgetBatchSize
+            + ">, forgetDelayMillis : <" + forgetDelayMillis
+            + ">, groupCommit : <" + groupCommit + ">, maxBatchSize : <"
+            + maxBatchSize + ">, maxLingerMillis : <" + maxLingerMillis
+            + ">]";
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -229,22 +325,75 @@ public class JdbcTransactionLogManager extends
     //
     public void deleteExpiredRecord() throws SQLException {
         assertInitialized(this);
-        final int rows =
-            process(
-                dataSource,
-                dialect.getDeleteSql(),
-                new PreparedStatementProcessor<Integer>() {
-                    @Override
-                    public Integer process(final PreparedStatement ps)
-                            throws SQLException {
-                        return ps.executeUpdate();
-                    }
-                });
+        final int rows;
+        try {
+            rows =
+                process(
+                    dataSource,
+                    dialect.getDeleteSql(),
+                    new PreparedStatementProcessor<Integer>() {
+                        @Override
+                        public Integer process(final PreparedStatement ps)
+                                throws SQLException {
+                            return ps.executeUpdate();
+                        }
+                    });
+        } catch (final SQLException e) {
+            markUnavailable(e);
+            throw e;
+        }
+        markAvailable();
         if (rows > 0 && logger.isDebugEnabled()) {
             logger.debug(EXPIRED_TRANSACTION_LOG_DELETED.format(this, rows));
         }
     }
 
+    /**
+     * 削除を待っている完了したトランザクションのトランザクションログを最大
+     * {@link #forgetBatchSize} 件まとめて削除します．
+     * <p>
+     * 削除に失敗したトランザクションログは期限切れの削除によって削除されます．
+     * </p>
+     * 
+     * @return 削除したトランザクションログの件数
+     */
+    public int forgetCompletedRecords() {
+        assertInitialized(this);
+        forgetScheduled.set(false);
+        final List<Xid> batch = new ArrayList<Xid>();
+        for (Xid xid = pendingForgets.poll(); xid != null; xid =
+            pendingForgets.poll()) {
+            batch.add(xid);
+            if (batch.size() >= forgetBatchSize) {
+                break;
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int rows = 0;
+        try {
+            rows = process(dataSource, new ConnectionProcessor<Integer>() {
+                @Override
+                public Integer process(final Connection con)
+                        throws SQLException {
+                    return deleteBatch(con, batch);
+                }
+            });
+            if (logger.isDebugEnabled()) {
+                logger.debug(TRANSACTION_LOG_FORGOTTEN.format(this, rows));
+            }
+            markAvailable();
+        } catch (final SQLException e) {
+            markUnavailable(e);
+            logger.warning(FORGET_TRANSACTION_LOG_FAILED.format(this), e);
+        }
+        if (!pendingForgets.isEmpty()) {
+            scheduleForget();
+        }
+        return rows;
+    }
+
     // /////////////////////////////////////////////////////////////////
     // instance methods for properties
     //
@@ -295,9 +444,381 @@ public class JdbcTransactionLogManager extends
         return this;
     }
 
+    /**
+     * @param inListSize
+     *            the inListSize to set
+     */
+    public JdbcTransactionLogManager setInListSize(final int inListSize) {
+        assertBeforeInitialized(this);
+        this.inListSize = inListSize;
+        return this;
+    }
+
+    /**
+     * @param eagerForget
+     *            the eagerForget to set
+     */
+    public JdbcTransactionLogManager setEagerForget(final boolean eagerForget) {
+        assertBeforeInitialized(this);
+        this.eagerForget = eagerForget;
+        return this;
+    }
+
+    /**
+     * @param forgetBatchSize
+     *            the forgetBatchSize to set
+     */
+    public JdbcTransactionLogManager setForgetBatchSize(
+            final int forgetBatchSize) {
+        assertBeforeInitialized(this);
+        this.forgetBatchSize = forgetBatchSize;
+        return this;
+    }
+
+    /**
+     * @param forgetDelayMillis
+     *            the forgetDelayMillis to set
+     */
+    public JdbcTransactionLogManager setForgetDelayMillis(
+            final long forgetDelayMillis) {
+        assertBeforeInitialized(this);
+        this.forgetDelayMillis = forgetDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param groupCommit
+     *            the groupCommit to set
+     */
+    public JdbcTransactionLogManager setGroupCommit(final boolean groupCommit) {
+        assertBeforeInitialized(this);
+        this.groupCommit = groupCommit;
+        return this;
+    }
+
+    /**
+     * @param maxBatchSize
+     *            the maxBatchSize to set
+     */
+    public JdbcTransactionLogManager setMaxBatchSize(final int maxBatchSize) {
+        assertBeforeInitialized(this);
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * @param maxLingerMillis
+     *            the maxLingerMillis to set
+     */
+    public JdbcTransactionLogManager setMaxLingerMillis(
+            final long maxLingerMillis) {
+        assertBeforeInitialized(this);
+        this.maxLingerMillis = maxLingerMillis;
+        return this;
+    }
+
     // /////////////////////////////////////////////////////////////////
     // instance methods for internal
     //
+    /**
+     * トランザクションログのデータソースが利用可能になったことを記録します．
+     */
+    protected void markAvailable() {
+        if (available.compareAndSet(false, true)) {
+            logger.info(TRANSACTION_LOG_AVAILABLE.format(this));
+        }
+    }
+
+    /**
+     * トランザクションログのデータソースが利用できなくなったことを記録します．
+     * <p>
+     * 以降の {@link #open(TwoPhaseCommitEvent)} はデータソースへの接続を確認します．
+     * </p>
+     * 
+     * @param cause
+     *            データソースへのアクセスに失敗した原因
+     */
+    protected void markUnavailable(final Throwable cause) {
+        if (available.compareAndSet(true, false)) {
+            logger.warning(TRANSACTION_LOG_UNAVAILABLE.format(this), cause);
+        }
+    }
+
+    /**
+     * 完了したトランザクションのトランザクションログの削除を予約します．
+     * <p>
+     * 既に予約済みの場合は何もしません．
+     * {@link #forgetDelayMillis} の間に完了したトランザクションはまとめて削除されます．
+     * </p>
+     */
+    protected void scheduleForget() {
+        if (!forgetScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            workManager.schedule(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    forgetCompletedRecords();
+                    return null;
+                }
+            }, forgetDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            forgetScheduled.set(false);
+        }
+    }
+
+    protected int deleteBatch(final Connection con, final List<Xid> batch)
+            throws SQLException {
+        final boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            final PreparedStatement ps =
+                con.prepareStatement(dialect.getDeleteByGlobalIdSql());
+            int rows = 0;
+            try {
+                for (final Xid xid : batch) {
+                    dialect.bindParameterToDeleteByGlobalIdSql(ps, xid);
+                    ps.addBatch();
+                }
+                for (final int count : ps.executeBatch()) {
+                    if (count > 0) {
+                        rows += count;
+                    }
+                }
+            } finally {
+                ps.close();
+            }
+            con.commit();
+            return rows;
+        } catch (final SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * コミットの決定を照合するためのキーを作成します．
+     * <p>
+     * トランザクションログにはトップレベルトランザクションの {@link Xid} が記録されますが，
+     * インダウトトランザクションはブランチの {@link Xid} なので，ブランチ修飾子は無視します．
+     * </p>
+     * 
+     * @param xid
+     *            Xid
+     * @return ブランチ修飾子が空のXid
+     */
+    protected Xid createKey(final Xid xid) {
+        return new XidImpl(
+            xid.getFormatId(),
+            xid.getGlobalTransactionId(),
+            EMPTY_BYTES);
+    }
+
+    /**
+     * グローバルトランザクションIDのインデックスを使ってトランザクションログを検索します．
+     * 
+     * @param keys
+     *            検索するキーのリスト
+     * @param indoubtKeys
+     *            インダウトトランザクションのキー
+     * @param committedKeys
+     *            コミットが記録されていたキーを追加するセット
+     * @throws SQLException
+     *             検索に失敗した場合
+     */
+    protected void selectByGlobalId(final List<Xid> keys,
+            final Set<Xid> indoubtKeys, final Set<Xid> committedKeys)
+            throws SQLException {
+        for (int from = 0; from < keys.size(); from += inListSize) {
+            final List<Xid> chunk =
+                keys.subList(from, Math.min(from + inListSize, keys.size()));
+            process(
+                dataSource,
+                dialect.getSelectByGlobalIdSql(chunk.size()),
+                new PreparedStatementProcessor<Void>() {
+                    @Override
+                    public Void process(final PreparedStatement ps)
+                            throws SQLException {
+                        dialect.bindParameterToSelectByGlobalIdSql(ps, chunk);
+                        final ResultSet rs = ps.executeQuery();
+                        try {
+                            collectCommittedKeys(rs, indoubtKeys, committedKeys);
+                        } finally {
+                            rs.close();
+                        }
+                        return null;
+                    }
+                });
+        }
+    }
+
+    /**
+     * トランザクションログテーブル全体を読み込みます．
+     * 
+     * @param indoubtKeys
+     *            インダウトトランザクションのキー
+     * @param committedKeys
+     *            コミットが記録されていたキーを追加するセット
+     * @throws SQLException
+     *             検索に失敗した場合
+     */
+    protected void selectAll(final Set<Xid> indoubtKeys,
+            final Set<Xid> committedKeys) throws SQLException {
+        process(
+            dataSource,
+            dialect.getSelectSql(),
+            new ResultSetProcessor<Void>() {
+                @Override
+                public Void process(final ResultSet rs) throws SQLException {
+                    collectCommittedKeys(rs, indoubtKeys, committedKeys);
+                    return null;
+                }
+            });
+    }
+
+    protected void collectCommittedKeys(final ResultSet rs,
+            final Set<Xid> indoubtKeys, final Set<Xid> committedKeys)
+            throws SQLException {
+        while (rs.next()) {
+            final Xid key = createKey(dialect.createXid(rs));
+            if (indoubtKeys.contains(key)) {
+                committedKeys.add(key);
+            }
+        }
+    }
+
+    /**
+     * トランザクションログをグループコミットで挿入します．
+     * <p>
+     * 同時に呼び出されたスレッドのトランザクションログは，
+     * {@link #flushLock} を最初に獲得したスレッドによって一つのバッチとして挿入・コミットされます．
+     * 他のスレッドは自身のトランザクションログがコミットされるまで {@link #flushLock} で待機します．
+     * </p>
+     * 
+     * @param event
+     *            2フェーズコミットイベント
+     * @throws SystemException
+     *             トランザクションログを挿入できなかった場合
+     */
+    protected void writeBeforeCommitLogInGroup(final TwoPhaseCommitEvent event)
+            throws SystemException {
+        final PendingRecord record = new PendingRecord(event);
+        pendingLock.lock();
+        try {
+            pendingRecords.add(record);
+            if (pendingRecords.size() >= maxBatchSize) {
+                batchFilled.signal();
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+        flushLock.lock();
+        try {
+            while (!record.done) {
+                flush(takeBatch());
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        if (record.cause != null) {
+            throw new InsertTransactionLogFailedException(this, event
+                .getTransaction(), record.cause);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(TRANSACTION_LOG_INSERTED.format(this, event
+                .getTransaction()));
+        }
+    }
+
+    /**
+     * {@link #maxLingerMillis} を上限にバッチが埋まるのを待ち，
+     * 最大 {@link #maxBatchSize} 件のトランザクションログを取り出します．
+     * 
+     * @return 挿入するトランザクションログのリスト
+     */
+    protected List<PendingRecord> takeBatch() {
+        final int limit = Math.max(maxBatchSize, 1);
+        pendingLock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+            while (pendingRecords.size() < limit && nanos > 0) {
+                try {
+                    nanos = batchFilled.awaitNanos(nanos);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            final int size = Math.min(pendingRecords.size(), limit);
+            final List<PendingRecord> batch = new ArrayList<PendingRecord>(size);
+            for (int i = 0; i < size; ++i) {
+                batch.add(pendingRecords.removeFirst());
+            }
+            return batch;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * トランザクションログのバッチを一つのトランザクションで挿入・コミットします．
+     * 
+     * @param batch
+     *            挿入するトランザクションログのリスト
+     */
+    protected void flush(final List<PendingRecord> batch) {
+        Throwable cause = null;
+        try {
+            process(dataSource, new ConnectionProcessor<Void>() {
+                @Override
+                public Void process(final Connection con) throws SQLException {
+                    insertBatch(con, batch);
+                    return null;
+                }
+            });
+            if (logger.isDebugEnabled()) {
+                logger.debug(TRANSACTION_LOG_GROUP_COMMITTED.format(this, batch
+                    .size()));
+            }
+            markAvailable();
+        } catch (final Throwable e) {
+            markUnavailable(e);
+            cause = e;
+        }
+        for (final PendingRecord record : batch) {
+            record.cause = cause;
+            record.done = true;
+        }
+    }
+
+    protected void insertBatch(final Connection con,
+            final List<PendingRecord> batch) throws SQLException {
+        final boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            final PreparedStatement ps =
+                con.prepareStatement(dialect.getInsertSql());
+            try {
+                for (final PendingRecord record : batch) {
+                    dialect.bindParameterToInsertSql(ps, record.event);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.close();
+            }
+            con.commit();
+        } catch (final SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
     protected boolean isLogTableExist(final Connection con) throws SQLException {
         final DatabaseMetaData dbmd = con.getMetaData();
         final ResultSet rs =
@@ -330,4 +851,34 @@ public class JdbcTransactionLogManager extends
         }
     }
 
+    // /////////////////////////////////////////////////////////////////
+    // member types
+    //
+    /**
+     * グループコミットを待っているトランザクションログです．
+     * <p>
+     * フィールドは {@link JdbcTransactionLogManager#flushLock} を獲得したスレッドによって更新されます．
+     * </p>
+     * 
+     * @author koichik
+     */
+    protected static class PendingRecord {
+
+        protected final TwoPhaseCommitEvent event;
+
+        /** コミットが完了または失敗した場合は<code>true</code> */
+        protected boolean done;
+
+        /** 挿入に失敗した原因 */
+        protected Throwable cause;
+
+        /**
+         * @param event
+         */
+        public PendingRecord(final TwoPhaseCommitEvent event) {
+            this.event = event;
+        }
+
+    }
+
 }
@@ -100,6 +100,9 @@ public class RecoveryManagerImpl extends AbstractComponent<RecoveryManagerImpl>
             throws SystemException {
         assertInitialized(this);
         assertParameterNotNull("event", event);
+        if (event.isLoggedByLastResource()) {
+            return;
+        }
         transactionLogManager.open(event);
     }
 
@@ -108,6 +111,9 @@ public class RecoveryManagerImpl extends AbstractComponent<RecoveryManagerImpl>
             throws SystemException {
         assertInitialized(this);
         assertParameterNotNull("event", event);
+        if (event.isReadOnly() || event.isLoggedByLastResource()) {
+            return;
+        }
         transactionLogManager.writeBeforeCommitLog(event);
     }
 
@@ -116,6 +122,9 @@ public class RecoveryManagerImpl extends AbstractComponent<RecoveryManagerImpl>
             throws SystemException {
         assertInitialized(this);
         assertParameterNotNull("event", event);
+        if (event.isReadOnly() || event.isLoggedByLastResource()) {
+            return;
+        }
         transactionLogManager.writeAfterCommitLog(event);
     }
 
@@ -124,6 +133,9 @@ public class RecoveryManagerImpl extends AbstractComponent<RecoveryManagerImpl>
             throws SystemException {
         assertInitialized(this);
         assertParameterNotNull("event", event);
+        if (event.isLoggedByLastResource()) {
+            return;
+        }
         transactionLogManager.close(event);
     }
 
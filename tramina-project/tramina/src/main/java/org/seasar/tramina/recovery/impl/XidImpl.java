@@ -35,6 +35,9 @@ public class XidImpl implements Xid {
 
     protected final byte[] branchQualifier;
 
+    /** ハッシュコード (最初に計算されるまで 0) */
+    protected int hashCode;
+
     // /////////////////////////////////////////////////////////////////
     // constructors
     //
@@ -73,8 +76,14 @@ public class XidImpl implements Xid {
     //
     @Override
     public int hashCode() {
-        return formatId + Arrays.hashCode(globalTransactionId)
-            + Arrays.hashCode(branchQualifier);
+        int result = hashCode;
+        if (result == 0) {
+            result =
+                formatId + Arrays.hashCode(globalTransactionId)
+                    + Arrays.hashCode(branchQualifier);
+            hashCode = result;
+        }
+        return result;
     }
 
     @Override
@@ -86,6 +95,9 @@ public class XidImpl implements Xid {
             return false;
         }
         final Xid other = (Xid) obj;
+        if (other instanceof XidImpl && other.hashCode() != hashCode()) {
+            return false;
+        }
         if (other.getFormatId() != formatId) {
             return false;
         }
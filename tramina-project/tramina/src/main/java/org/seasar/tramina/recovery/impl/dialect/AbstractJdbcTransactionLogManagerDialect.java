@@ -18,6 +18,7 @@ package org.seasar.tramina.recovery.impl.dialect;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 import javax.transaction.xa.Xid;
 
@@ -46,10 +47,15 @@ public abstract class AbstractJdbcTransactionLogManagerDialect implements
 
     protected String selectSql;
 
+    /** <code>IN</code> 句を除いたグローバルトランザクションIDで検索する SQL */
+    protected String selectByGlobalIdSql;
+
     protected String insertSql;
 
     protected String deleteSql;
 
+    protected String deleteByGlobalIdSql;
+
     // /////////////////////////////////////////////////////////////////
     // instance methods from JdbcTransactionLogManagerDialect
     //
@@ -78,6 +84,23 @@ public abstract class AbstractJdbcTransactionLogManagerDialect implements
         return selectSql;
     }
 
+    @Override
+    public String getSelectByGlobalIdSql(final int count) {
+        if (selectByGlobalIdSql == null) {
+            return null;
+        }
+        final StringBuilder buf =
+            new StringBuilder(selectByGlobalIdSql.length() + count * 3 + 8);
+        buf.append(selectByGlobalIdSql).append(" IN (");
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append('?');
+        }
+        return buf.append(')').toString();
+    }
+
     @Override
     public String getInsertSql() {
         return insertSql;
@@ -88,15 +111,41 @@ public abstract class AbstractJdbcTransactionLogManagerDialect implements
         return deleteSql;
     }
 
+    @Override
+    public String getDeleteByGlobalIdSql() {
+        return deleteByGlobalIdSql;
+    }
+
     @Override
     public void bindParameterToInsertSql(final PreparedStatement ps,
             final TwoPhaseCommitEvent event) throws SQLException {
-        final Xid xid = event.getXid();
+        bindParameterToInsertSql(ps, event.getXid());
+    }
+
+    @Override
+    public void bindParameterToInsertSql(final PreparedStatement ps,
+            final Xid xid) throws SQLException {
         ps.setInt(1, xid.getFormatId());
         ps.setBytes(2, xid.getGlobalTransactionId());
         ps.setBytes(3, xid.getBranchQualifier());
     }
 
+    @Override
+    public void bindParameterToSelectByGlobalIdSql(final PreparedStatement ps,
+            final List<Xid> xids) throws SQLException {
+        int index = 1;
+        for (final Xid xid : xids) {
+            ps.setBytes(index++, xid.getGlobalTransactionId());
+        }
+    }
+
+    @Override
+    public void bindParameterToDeleteByGlobalIdSql(final PreparedStatement ps,
+            final Xid xid) throws SQLException {
+        ps.setBytes(1, xid.getGlobalTransactionId());
+        ps.setInt(2, xid.getFormatId());
+    }
+
     @Override
     public Xid createXid(final ResultSet rs) throws SQLException {
         return new XidImpl(rs.getInt(1), rs.getBytes(2), rs.getBytes(3));
@@ -32,10 +32,14 @@ public class H2Dialect extends AbstractJdbcTransactionLogManagerDialect {
                 + "FORMAT_ID INTEGER NOT NULL, "
                 + "GLOBAL_ID BINARY(64) NOT NULL, "
                 + "BRANCH_ID BINARY(64) NOT NULL, "
-                + "COMMIT_TIMESTAMP TIMESTAMP NOT NULL)" };
+                + "COMMIT_TIMESTAMP TIMESTAMP NOT NULL)",
+                "CREATE INDEX TRAN_LOG_GLOBAL_ID_IDX ON TRAN_LOG (GLOBAL_ID)" };
 
         selectSql = "SELECT FORMAT_ID, GLOBAL_ID, BRANCH_ID FROM TRAN_LOG";
 
+        selectByGlobalIdSql =
+            "SELECT FORMAT_ID, GLOBAL_ID, BRANCH_ID FROM TRAN_LOG WHERE GLOBAL_ID";
+
         insertSql =
             "INSERT INTO TRAN_LOG "
                 + "(FORMAT_ID, GLOBAL_ID, BRANCH_ID, COMMIT_TIMESTAMP) "
@@ -43,6 +47,9 @@ public class H2Dialect extends AbstractJdbcTransactionLogManagerDialect {
 
         deleteSql =
             "DELETE FROM TRAN_LOG WHERE DATEADD('MINUTE', 30, COMMIT_TIMESTAMP) < CURRENT_TIMESTAMP";
+
+        deleteByGlobalIdSql =
+            "DELETE FROM TRAN_LOG WHERE GLOBAL_ID = ? AND FORMAT_ID = ?";
     }
 
 }
@@ -15,6 +15,8 @@
  */
 package org.seasar.tramina.resource;
 
+import org.seasar.tramina.work.ListenableFuture;
+
 /**
  * 
  * 
@@ -28,12 +30,16 @@ public interface ConnectionManager<C, E extends Exception> {
 
     ManagedConnection<C, E> getManagedConnection() throws E;
 
+    ListenableFuture<ManagedConnection<C, E>> getManagedConnectionAsync();
+
     void logicalConnectionClosed(ManagedConnection<C, E> managedConnection)
             throws E;
 
     void physicalConnectionErrorOccurred(
             ManagedConnection<C, E> managedConnection, E cause) throws E;
 
+    void warmUp() throws E;
+
     void destroy() throws E;
 
 }
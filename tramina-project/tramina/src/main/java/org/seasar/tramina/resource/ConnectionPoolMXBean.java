@@ -0,0 +1,134 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.resource;
+
+/**
+ * コネクションプールの統計情報を JMX で公開するための MXBean インタフェースです．
+ * <p>
+ * 所要時間はマイクロ秒単位で公開されます．
+ * </p>
+ * 
+ * @author koichik
+ * @see ConnectionPoolMetrics
+ */
+public interface ConnectionPoolMXBean {
+
+    /**
+     * @return 使用中の物理コネクションの数
+     */
+    int getActiveConnections();
+
+    /**
+     * @return アイドル状態の物理コネクションの数
+     */
+    int getIdleConnections();
+
+    /**
+     * @return 作成中の物理コネクションの数
+     */
+    int getAwaitingConnections();
+
+    /**
+     * @return 空きコネクションを待機している要求の数
+     */
+    int getPendingRequests();
+
+    /**
+     * @return 使用中のコネクションの現在の上限
+     */
+    int getActiveConnectionLimit();
+
+    /**
+     * @return 作成された物理コネクションの累計
+     */
+    long getCreatedConnections();
+
+    /**
+     * @return 検証に失敗した物理コネクションの累計
+     */
+    long getValidationFailures();
+
+    /**
+     * @return 空きコネクションの待機がタイムアウトした要求の累計
+     */
+    long getTimeouts();
+
+    /**
+     * @return 破棄された物理コネクションの累計
+     */
+    long getEvictions();
+
+    /**
+     * @return リークとして報告されたコネクションの累計
+     */
+    long getDetectedLeaks();
+
+    /**
+     * @return リークしたために回収されたコネクションの累計
+     */
+    long getReclaimedLeaks();
+
+    /**
+     * @return コネクションを取得した回数
+     */
+    long getBorrowCount();
+
+    /**
+     * @return コネクションの取得に要した時間の平均 (マイクロ秒単位)
+     */
+    long getBorrowWaitMeanMicros();
+
+    /**
+     * @return コネクションの取得に要した時間の 99 パーセンタイル (マイクロ秒単位)
+     */
+    long getBorrowWait99thPercentileMicros();
+
+    /**
+     * @return コネクションの取得に要した時間の最大値 (マイクロ秒単位)
+     */
+    long getBorrowWaitMaxMicros();
+
+    /**
+     * @return 物理コネクションの作成に要した時間の平均 (マイクロ秒単位)
+     */
+    long getCreationTimeMeanMicros();
+
+    /**
+     * @return 物理コネクションの作成に要した時間の 99 パーセンタイル (マイクロ秒単位)
+     */
+    long getCreationTime99thPercentileMicros();
+
+    /**
+     * @return 物理コネクションの作成に要した時間の最大値 (マイクロ秒単位)
+     */
+    long getCreationTimeMaxMicros();
+
+    /**
+     * @return コネクションの使用時間の平均 (マイクロ秒単位)
+     */
+    long getHoldTimeMeanMicros();
+
+    /**
+     * @return 物理コネクションの検証に要した時間の平均 (マイクロ秒単位)
+     */
+    long getValidationTimeMeanMicros();
+
+    /**
+     * @return 物理コネクションの検証に要した時間の 99 パーセンタイル (マイクロ秒単位)
+     */
+    long getValidationTime99thPercentileMicros();
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.resource;
+
+import org.seasar.tramina.util.LatencyHistogram;
+
+/**
+ * コネクションプールの統計情報を公開するインタフェースです．
+ * <p>
+ * このインタフェースのメソッドはロックを取得せずに呼び出すことができます．
+ * そのため，複数の値を続けて取得した場合，それらが同一時点の値であるとは限りません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface ConnectionPoolMetrics {
+
+    /**
+     * 使用中の物理コネクションの数を返します．
+     * 
+     * @return 使用中の物理コネクションの数
+     */
+    int getActiveConnections();
+
+    /**
+     * アイドル状態の物理コネクションの数を返します．
+     * 
+     * @return アイドル状態の物理コネクションの数
+     */
+    int getIdleConnections();
+
+    /**
+     * 作成中の物理コネクションの数を返します．
+     * 
+     * @return 作成中の物理コネクションの数
+     */
+    int getAwaitingConnections();
+
+    /**
+     * 空きコネクションを待機している要求の数を返します．
+     * 
+     * @return 空きコネクションを待機している要求の数
+     */
+    int getPendingRequests();
+
+    /**
+     * 使用中のコネクションの現在の上限を返します．
+     * 
+     * @return 使用中のコネクションの現在の上限
+     */
+    int getActiveConnectionLimit();
+
+    /**
+     * 作成された物理コネクションの累計を返します．
+     * 
+     * @return 作成された物理コネクションの累計
+     */
+    long getCreatedConnections();
+
+    /**
+     * 検証に失敗した物理コネクションの累計を返します．
+     * 
+     * @return 検証に失敗した物理コネクションの累計
+     */
+    long getValidationFailures();
+
+    /**
+     * 空きコネクションの待機がタイムアウトした要求の累計を返します．
+     * 
+     * @return 空きコネクションの待機がタイムアウトした要求の累計
+     */
+    long getTimeouts();
+
+    /**
+     * 最大アイドル時間または最大存続時間を過ぎたために破棄された物理コネクションの累計を返します．
+     * 
+     * @return 破棄された物理コネクションの累計
+     */
+    long getEvictions();
+
+    /**
+     * リークとして報告されたコネクションの累計を返します．
+     * 
+     * @return リークとして報告されたコネクションの累計
+     */
+    long getDetectedLeaks();
+
+    /**
+     * リークしたために回収されたコネクションの累計を返します．
+     * 
+     * @return リークしたために回収されたコネクションの累計
+     */
+    long getReclaimedLeaks();
+
+    /**
+     * コネクションの取得に要した時間のヒストグラムを返します．
+     * 
+     * @return コネクションの取得に要した時間のヒストグラム
+     */
+    LatencyHistogram getBorrowWaitHistogram();
+
+    /**
+     * 物理コネクションの作成に要した時間のヒストグラムを返します．
+     * 
+     * @return 物理コネクションの作成に要した時間のヒストグラム
+     */
+    LatencyHistogram getCreationTimeHistogram();
+
+    /**
+     * コネクションが取得されてから返却されるまでの時間のヒストグラムを返します．
+     * <p>
+     * 使用時間はリークの検出または適応的なサイズ調整が有効な場合だけ記録されます．
+     * </p>
+     * 
+     * @return コネクションの使用時間のヒストグラム
+     */
+    LatencyHistogram getHoldTimeHistogram();
+
+    /**
+     * 物理コネクションの検証に要した時間のヒストグラムを返します．
+     * 
+     * @return 物理コネクションの検証に要した時間のヒストグラム
+     */
+    LatencyHistogram getValidationTimeHistogram();
+
+}
@@ -42,6 +42,8 @@ public enum ResourceMessages implements EnumMessage {
             "物理コネクションの破棄で例外が発生しました．managedConnection={0}, resourceManager={1}"),
     RECOVERY_INDOUBT_TRANSACTION_FAILED("",
             "インダウトトランザクションを回復できませんでした．resourceManager={0}"),
+    WARM_UP_FAILED("",
+            "コネクションの事前作成で例外が発生しました．resourceManager={0}"),
 
     MANAGED_CONNECTION_EVENT_LISTENER_RAISED_EXCEPTION("",
             "マネージドコネクションのイベントリスナが例外をスローしました．managedConnection={0}, listener={1}"),
@@ -56,11 +58,39 @@ public enum ResourceMessages implements EnumMessage {
     INTERRUPTED("", "空きコネクションを待機中に割り込みが発生しました．"),
     SCHEDULE_MANAGED_CONNECTION_FAILED("",
             "コネクションのタイムアウト監視で例外が発生しました．managedConnection={0}"),
+    SCHEDULE_HOUSEKEEPING_TASK_FAILED("",
+            "コネクションプールの定期保守をスケジュールできませんでした．connectionPool={0}"),
+    HOUSEKEEPING_FAILED("",
+            "コネクションプールの定期保守で例外が発生しました．connectionPool={0}"),
+    POOL_TASK_FAILED("",
+            "コネクションプールのタスクで例外が発生しました．task={0}, connectionPool={1}"),
+    CREATE_MANAGED_CONNECTION_FAILED("",
+            "コネクションプールに追加する物理コネクションを作成できませんでした．connectionPool={0}"),
+    SCHEDULE_METRICS_EXPORT_TASK_FAILED("",
+            "コネクションプールの統計情報の送出をスケジュールできませんでした．connectionPool={0}"),
+    EXPORT_METRICS_FAILED("",
+            "コネクションプールの統計情報の送出で例外が発生しました．metricsExporter={0}, connectionPool={1}"),
+    RESIZE_CONNECTION_POOL("",
+            "使用中のコネクションの上限を {0} から {1} に変更しました．connectionPool={2}"),
+    CONNECTION_LEAK_DETECTED("",
+            "コネクションが {2} 秒以上返却されていません．リークの可能性があります．managedConnection={0}, thread={1}, connectionPool={3}"),
+    RECLAIM_LEAKED_CONNECTION("",
+            "リークしたコネクションを回収します．managedConnection={0}, thread={1}, connectionPool={2}"),
+    DESTROYED_CONNECTION_CLOSED("",
+            "破棄済みのコネクションが返却されたため無視します．リークしたコネクションとして回収された可能性があります．managedConnection={0}, connectionPool={1}"),
+    REGISTER_MBEAN_FAILED("",
+            "コネクションプールの MBean を登録できませんでした．connectionPool={0}"),
+    UNREGISTER_MBEAN_FAILED("",
+            "コネクションプールの MBean を登録解除できませんでした．objectName={0}, connectionPool={1}"),
 
     VALIDATING_MANAGED_CONNECTION("",
             "物理コネクションを検証します．managedConnection={0}, connectionPool={1}"),
     INVALID_MANAGED_CONNECTION("",
             "物理コネクションが無効なので破棄します．managedConnection={0}, connectionPool={1}"),
+    RETIRE_MANAGED_CONNECTION("",
+            "物理コネクションが最大存続時間を過ぎたので破棄します．managedConnection={0}, connectionPool={1}"),
+    VALIDATE_MANAGED_CONNECTION_FAILED("",
+            "物理コネクションの検証で例外が発生しました．managedConnection={0}, connectionPool={1}"),
 
     MANAGED_CONNECTION_BOUND_TRANSACTION("",
             "コネクションをトランザクションに関連づけました．managedConnection={0}, transaction={1}"),
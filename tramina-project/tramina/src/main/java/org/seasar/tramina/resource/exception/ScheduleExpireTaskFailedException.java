@@ -15,6 +15,7 @@
  */
 package org.seasar.tramina.resource.exception;
 
+import org.seasar.tramina.resource.ConnectionManager;
 import org.seasar.tramina.resource.ManagedConnection;
 
 import static org.seasar.tramina.resource.ResourceMessages.*;
@@ -37,4 +38,14 @@ public class ScheduleExpireTaskFailedException extends RuntimeException {
             cause);
     }
 
+    /**
+     * @param connectionPool
+     * @param cause
+     */
+    public ScheduleExpireTaskFailedException(
+            final ConnectionManager<?, ?> connectionPool,
+            final Exception cause) {
+        super(SCHEDULE_HOUSEKEEPING_TASK_FAILED.format(connectionPool), cause);
+    }
+
 }
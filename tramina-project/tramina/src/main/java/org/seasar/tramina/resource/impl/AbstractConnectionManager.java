@@ -21,6 +21,7 @@ import org.seasar.tramina.logging.LoggerFactory;
 import org.seasar.tramina.resource.ConnectionManager;
 import org.seasar.tramina.resource.ManagedConnection;
 import org.seasar.tramina.resource.ResourceManager;
+import org.seasar.tramina.work.ListenableFuture;
 
 import static org.seasar.tramina.activity.impl.ActivityAssertions.*;
 import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
@@ -70,6 +71,12 @@ public abstract class AbstractConnectionManager<CM extends AbstractConnectionMan
         return next.getManagedConnection();
     }
 
+    @Override
+    public ListenableFuture<ManagedConnection<C, E>> getManagedConnectionAsync() {
+        assertInitialized(this);
+        return next.getManagedConnectionAsync();
+    }
+
     @Override
     public void logicalConnectionClosed(
             final ManagedConnection<C, E> managedConnection) throws E {
@@ -88,6 +95,12 @@ public abstract class AbstractConnectionManager<CM extends AbstractConnectionMan
         next.physicalConnectionErrorOccurred(managedConnection, cause);
     }
 
+    @Override
+    public void warmUp() throws E {
+        assertInitialized(this);
+        next.warmUp();
+    }
+
     @Override
     public void destroy() throws E {
         dispose();
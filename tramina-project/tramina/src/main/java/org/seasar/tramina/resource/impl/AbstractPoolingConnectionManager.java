@@ -15,25 +15,52 @@
  */
 package org.seasar.tramina.resource.impl;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
 
 import org.seasar.tramina.logging.Logger;
 import org.seasar.tramina.logging.LoggerFactory;
+import org.seasar.tramina.resource.ConnectionPoolMetrics;
 import org.seasar.tramina.resource.ManagedConnection;
 import org.seasar.tramina.resource.exception.InterruptedRuntimeException;
 import org.seasar.tramina.resource.exception.ScheduleExpireTaskFailedException;
+import org.seasar.tramina.resource.impl.ConcurrentBag.Entry;
+import org.seasar.tramina.spi.ConnectionPoolMetricsExporter;
+import org.seasar.tramina.spi.TraminaTransactionManager;
 import org.seasar.tramina.spi.WorkManager;
+import org.seasar.tramina.util.LatencyHistogram;
+import org.seasar.tramina.work.ListenableFuture;
+import org.seasar.tramina.work.impl.SettableFuture;
 
 import static org.seasar.tramina.activity.impl.ActivityAssertions.*;
 import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
@@ -45,7 +72,8 @@ import static org.seasar.tramina.resource.ResourceMessages.*;
  * @author koichik
  */
 public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolingConnectionManager<CM, C, E>, C, E extends Exception>
-        extends AbstractConnectionManager<CM, C, E> {
+        extends AbstractConnectionManager<CM, C, E> implements
+        ConnectionPoolMetrics {
 
     // /////////////////////////////////////////////////////////////////
     // static fields
@@ -57,27 +85,93 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
     // /////////////////////////////////////////////////////////////////
     // instance fields
     //
+    /**
+     * プールの状態を保護するロック
+     * <p>
+     * ロックを保持したままコネクションのクリーンアップや検証を行うことがあるため，
+     * モニタではなく {@link ReentrantLock} を使用して，仮想スレッドがキャリアスレッドを占有しないようにしています．
+     * </p>
+     */
+    protected final ReentrantLock poolLock = new ReentrantLock();
+
     protected final Deque<AllocationRequest> allocationRequests =
-        new LinkedList<AllocationRequest>();
+        new ArrayDeque<AllocationRequest>();
 
     protected final Deque<IdleConnection> idleConnections =
-        new LinkedList<IdleConnection>();
+        new ArrayDeque<IdleConnection>();
+
+    protected final Deque<IdleConnection> freeIdleConnections =
+        new ArrayDeque<IdleConnection>();
 
     protected final Set<ManagedConnection<C, E>> activeConnections =
-        new HashSet<ManagedConnection<C, E>>();
+        Collections
+            .newSetFromMap(new IdentityHashMap<ManagedConnection<C, E>, Boolean>());
+
+    protected final Map<ManagedConnection<C, E>, Long> retireTimes =
+        new WeakHashMap<ManagedConnection<C, E>, Long>();
 
     protected int awaitingConnections;
 
+    protected boolean closed;
+
+    protected volatile int activeConnectionCount;
+
+    protected volatile int idleConnectionCount;
+
+    protected volatile int awaitingConnectionCount;
+
+    protected volatile int pendingRequestCount;
+
+    protected final ConcurrentBag<PoolEntry> bag = new ConcurrentBag<PoolEntry>();
+
+    protected final ConcurrentMap<ManagedConnection<C, E>, PoolEntry> poolEntries =
+        new ConcurrentHashMap<ManagedConnection<C, E>, PoolEntry>();
+
+    protected final AtomicInteger totalConnections = new AtomicInteger();
+
+    protected final Queue<AsyncAllocationRequest> asyncRequests =
+        new ConcurrentLinkedQueue<AsyncAllocationRequest>();
+
+    /** {@link #poolLock} を保持している間に割り当てられ，ロックの解放後に完了させる非同期の要求 */
+    protected final Queue<AsyncAllocationRequest> readyAsyncRequests =
+        new ConcurrentLinkedQueue<AsyncAllocationRequest>();
+
+    protected ScheduledFuture<Void> asyncTimeoutTask;
+
+    protected long asyncTimeoutDeadline;
+
     protected WorkManager workManager;
 
+    protected TraminaTransactionManager transactionManager;
+
     protected int maxActiveConnections = 10;
 
+    protected int minActiveConnections = 1;
+
+    protected volatile int activeConnectionLimit;
+
+    protected boolean adaptiveSizing = false;
+
+    protected long targetBorrowWaitMillis = 10;
+
+    protected PoolSizeController poolSizeController;
+
     protected int maxIdleConnections = 10;
 
     protected int minIdleConnections = 0;
 
     protected long maxIdleSeconds = 600;
 
+    protected long maxLifetimeSeconds = 0;
+
+    protected long maxLifetimeJitterSeconds = -1;
+
+    protected final Random random = new Random();
+
+    protected long housekeepingIntervalSeconds = 30;
+
+    protected ScheduledFuture<?> housekeeping;
+
     protected long maxWaitMillis = -1;
 
     protected boolean testOnBorrow = true;
@@ -88,39 +182,135 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
 
     protected int validationTimeoutSeconds;
 
+    protected boolean backgroundValidation = false;
+
+    protected int validationBatchSize = 8;
+
+    protected final LatencyHistogram validationLatency =
+        new LatencyHistogram();
+
+    protected int replenishConcurrency = 1;
+
+    protected final AtomicInteger replenishTasks = new AtomicInteger();
+
+    protected boolean concurrentBag = false;
+
+    protected String name;
+
+    protected boolean jmxEnabled = false;
+
+    protected ObjectName objectName;
+
+    protected final List<ConnectionPoolMetricsExporter> metricsExporters =
+        new ArrayList<ConnectionPoolMetricsExporter>();
+
+    protected long metricsExportIntervalSeconds = 60;
+
+    protected ScheduledFuture<?> metricsExport;
+
+    protected final AtomicLong createdConnections = new AtomicLong();
+
+    protected final AtomicLong validationFailures = new AtomicLong();
+
+    protected final AtomicLong timeouts = new AtomicLong();
+
+    protected final AtomicLong evictions = new AtomicLong();
+
+    protected final LatencyHistogram borrowWaitHistogram =
+        new LatencyHistogram();
+
+    protected final LatencyHistogram creationTimeHistogram =
+        new LatencyHistogram();
+
+    protected final LatencyHistogram holdTimeHistogram =
+        new LatencyHistogram();
+
+    protected long leakDetectionThresholdSeconds = 0;
+
+    protected long leakReclaimThresholdSeconds = 0;
+
+    protected int leakStackTraceSamplingInterval = 0;
+
+    protected final AtomicLong borrowSequence = new AtomicLong();
+
+    protected final ConcurrentMap<ManagedConnection<C, E>, BorrowRecord> borrowRecords =
+        new ConcurrentHashMap<ManagedConnection<C, E>, BorrowRecord>();
+
+    protected final AtomicLong detectedLeaks = new AtomicLong();
+
+    protected final AtomicLong reclaimedLeaks = new AtomicLong();
+
     // /////////////////////////////////////////////////////////////////
     // instance methods from ConnectionManager
     //
     @Override
     public ManagedConnection<C, E> getManagedConnection() throws E {
         assertInitialized(this);
-        ManagedConnection<C, E> managedConnection =
-            getManagedConnectionFromPool();
-        if (managedConnection != null) {
+        final long start = System.nanoTime();
+        if (concurrentBag) {
+            final ManagedConnection<C, E> managedConnection =
+                getManagedConnectionFromBag();
+            borrowWaitHistogram.record(System.nanoTime() - start);
+            recordBorrow(managedConnection, getBorrowingTransaction());
             return managedConnection;
         }
-        try {
-            managedConnection = super.getManagedConnection();
-            return managedConnection;
-        } finally {
-            synchronized (this) {
-                --awaitingConnections;
-                if (managedConnection != null) {
-                    activeConnections.add(managedConnection);
-                } else {
-                    allocate();
-                }
-            }
+        ManagedConnection<C, E> managedConnection =
+            getManagedConnectionFromPool();
+        if (managedConnection == null) {
+            managedConnection = createManagedConnection();
         }
+        borrowWaitHistogram.record(System.nanoTime() - start);
+        recordBorrow(managedConnection, getBorrowingTransaction());
+        return managedConnection;
+    }
+
+    /**
+     * マネージドコネクションを非同期に取得します．
+     * <p>
+     * プールに空きがない場合，呼び出し元のスレッドをブロックせずに要求を待ち行列に入れます．
+     * 待ち行列に入れられた要求は他のスレッドがコネクションを返却した時点で {@link WorkManager}
+     * のスレッドによって完了されます． {@link #setMaxWaitMillis(long) 最大待機時間}
+     * を過ぎた要求は，要求ごとにタイマーを設定するのではなく，プールごとに一つだけスケジュールされるタスクによってタイムアウトします．
+     * </p>
+     */
+    @Override
+    public ListenableFuture<ManagedConnection<C, E>> getManagedConnectionAsync() {
+        assertInitialized(this);
+        final AsyncAllocationRequest request =
+            new AsyncAllocationRequest(System.currentTimeMillis()
+                + Math.max(maxWaitMillis, 0L), getBorrowingTransaction());
+        allocateAsync(request);
+        return request.getFuture();
     }
 
     @Override
     public void logicalConnectionClosed(
             final ManagedConnection<C, E> managedConnection) throws E {
         assertInitialized(this);
-        synchronized (this) {
+        recordReturn(managedConnection);
+        if (managedConnection.isDestroyed()) {
+            logger.warning(DESTROYED_CONNECTION_CLOSED.format(
+                managedConnection,
+                this));
+            return;
+        }
+        if (concurrentBag) {
+            returnToBag(managedConnection);
+            return;
+        }
+        poolLock.lock();
+        try {
             if (activeConnections.remove(managedConnection)) {
-                if (idleConnections.size() < maxIdleConnections) {
+                if (isRetired(managedConnection, System.currentTimeMillis())) {
+                    retireTimes.remove(managedConnection);
+                    evictions.incrementAndGet();
+                    allocate();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(RETIRE_MANAGED_CONNECTION.format(
+                            managedConnection,
+                            this));
+                    }
+                } else if (idleConnections.size() < maxIdleConnections) {
                     try {
                         managedConnection.cleanup();
                         if (testOnReturn) {
@@ -128,14 +318,16 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
                                 logger.debug(VALIDATING_MANAGED_CONNECTION
                                     .format(managedConnection, this));
                             }
-                            if (!validate(managedConnection)) {
+                            if (!timedValidate(managedConnection)) {
+                                validationFailures.incrementAndGet();
                                 if (logger.isDebugEnabled()) {
                                     logger.debug(INVALID_MANAGED_CONNECTION
                                         .format(managedConnection, this));
                                 }
                             }
                         }
-                        if (!allocationRequests.isEmpty()) {
+                        if (!allocationRequests.isEmpty()
+                            && activeConnections.size() + awaitingConnections < activeConnectionLimit) {
                             allocate(managedConnection);
                             return;
                         }
@@ -149,6 +341,9 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
                     }
                 }
             }
+            updateGauges();
+        } finally {
+            unlockPool();
         }
         super.logicalConnectionClosed(managedConnection);
     }
@@ -158,20 +353,59 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
             final ManagedConnection<C, E> managedConnection, final E cause)
             throws E {
         assertInitialized(this);
-        synchronized (this) {
+        recordReturn(managedConnection);
+        if (concurrentBag) {
+            removeFromBag(managedConnection);
+            super.physicalConnectionErrorOccurred(managedConnection, cause);
+            fillPool();
+            return;
+        }
+        poolLock.lock();
+        try {
             for (final Iterator<IdleConnection> it = idleConnections.iterator(); it
                 .hasNext();) {
                 final IdleConnection idleConnection = it.next();
                 if (idleConnection.getManagedConnection() == managedConnection) {
                     it.remove();
+                    recycle(idleConnection);
                     break;
                 }
             }
             if (activeConnections.remove(managedConnection)) {
                 allocate();
             }
+            updateGauges();
+        } finally {
+            unlockPool();
         }
         super.physicalConnectionErrorOccurred(managedConnection, cause);
+        fillPool();
+    }
+
+    /**
+     * アイドル状態のコネクションが {@link #setMinIdleConnections(int) 最小数}
+     * に達するまで物理コネクションを作成します．
+     * <p>
+     * 物理コネクションは {@link WorkManager} 上で {@link #setReplenishConcurrency(int)
+     * 並行数} のタスクによって並行に作成され，このメソッドはそれらの完了を待機します．
+     * 以後も定期保守のタスクや物理コネクションのエラーを契機として，アイドル状態のコネクションは最小数まで補充されます．
+     * </p>
+     */
+    @Override
+    public void warmUp() throws E {
+        assertInitialized(this);
+        for (final Future<Void> future : fillPool()) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (final ExecutionException e) {
+                logger.error(CREATE_MANAGED_CONNECTION_FAILED.format(this), e
+                    .getCause());
+            }
+        }
+        super.warmUp();
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -180,13 +414,71 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
     @Override
     protected void doInitialize() {
         assertPropertyNotNull(this, "workManager", workManager);
+        activeConnectionLimit = maxActiveConnections;
+        if (adaptiveSizing) {
+            poolSizeController = new PoolSizeController();
+        }
+        scheduleHousekeepingTask();
+        scheduleMetricsExportTask();
+        if (jmxEnabled) {
+            registerMBean();
+        }
     }
 
     @Override
     protected void doDispose() {
-        synchronized (this) {
+        if (housekeeping != null) {
+            housekeeping.cancel(false);
+            housekeeping = null;
+        }
+        if (metricsExport != null) {
+            metricsExport.cancel(false);
+            metricsExport = null;
+        }
+        if (objectName != null) {
+            unregisterMBean();
+        }
+        final List<AsyncAllocationRequest> pendingRequests =
+            new ArrayList<AsyncAllocationRequest>();
+        poolLock.lock();
+        try {
+            if (asyncTimeoutTask != null) {
+                asyncTimeoutTask.cancel(false);
+                asyncTimeoutTask = null;
+            }
+            for (final Iterator<AllocationRequest> it =
+                allocationRequests.iterator(); it.hasNext();) {
+                final AllocationRequest allocationRequest = it.next();
+                if (allocationRequest instanceof AbstractPoolingConnectionManager.AsyncAllocationRequest) {
+                    it.remove();
+                    pendingRequests.add((AsyncAllocationRequest) allocationRequest);
+                }
+            }
+            updateGauges();
+        } finally {
+            poolLock.unlock();
+        }
+        for (AsyncAllocationRequest request; (request = asyncRequests.poll()) != null;) {
+            pendingRequests.add(request);
+        }
+        for (final AsyncAllocationRequest request : pendingRequests) {
+            request.timeout();
+        }
+        if (concurrentBag) {
+            bag.close();
+            for (final PoolEntry entry : bag.values(Entry.STATE_NOT_IN_USE)) {
+                if (bag.reserve(entry)) {
+                    destroyPoolEntry(entry);
+                }
+            }
+            return;
+        }
+        poolLock.lock();
+        try {
             for (final IdleConnection idleConnection : idleConnections) {
-                idleConnection.cancel();
+                if (idleConnection.isValidating()) {
+                    continue;
+                }
                 final ManagedConnection<C, E> managedConnection =
                     idleConnection.getManagedConnection();
                 try {
@@ -197,6 +489,11 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
                 }
             }
             idleConnections.clear();
+            freeIdleConnections.clear();
+            closed = true;
+            updateGauges();
+        } finally {
+            poolLock.unlock();
         }
     }
 
@@ -205,22 +502,45 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
     //
     @Override
     public String toString() {
-        synchronized (this) {
-            return super.toString() + "[idleConnections : <"
-                + idleConnections.size() + ">, activeConnections : <"
-                + activeConnections.size() + ">, activatingConnections : <"
-                + awaitingConnections + ">, maxActiveConnections : <"
-                + maxActiveConnections + ">, maxIdleConnections : <"
-                + maxIdleConnections + ">, minIdleConnections : <"
-                + minIdleConnections + ">, maxIdleSeconds : <" + maxIdleSeconds
-                + ">, maxWaitMillis : <" + maxWaitMillis
-                + ">, testOnBorrow : <" + testOnBorrow
+        if (concurrentBag) {
+            return super.toString() + "[name : <" + getName() + ">, bag : <"
+                + bag + ">, totalConnections : <" + totalConnections
+                + ">, maxActiveConnections : <" + maxActiveConnections
+                + ">, activeConnectionLimit : <" + activeConnectionLimit
+                + ">, maxIdleConnections : <" + maxIdleConnections
+                + ">, minIdleConnections : <" + minIdleConnections
+                + ">, maxIdleSeconds : <" + maxIdleSeconds
+                + ">, maxLifetimeSeconds : <" + maxLifetimeSeconds
+                + ">, housekeepingIntervalSeconds : <"
+                + housekeepingIntervalSeconds + ">, maxWaitMillis : <"
+                + maxWaitMillis + ">, testOnBorrow : <" + testOnBorrow
                 + ">, minTestOnBorrowIdleSeconds : <"
                 + minTestOnBorrowIdleSeconds + ">, testOnReturn : <"
                 + testOnReturn + ">, validationTimeoutSeconds : <"
-                + validationTimeoutSeconds + ">, resourceManager : <"
+                + validationTimeoutSeconds + ">, backgroundValidation : <"
+                + backgroundValidation + ">, validationLatency : <"
+                + validationLatency + ">, resourceManager : <"
                 + resourceManager + ">]";
         }
+        return super.toString() + "[name : <" + getName()
+            + ">, idleConnections : <" + idleConnectionCount
+            + ">, activeConnections : <" + activeConnectionCount
+            + ">, activatingConnections : <" + awaitingConnectionCount
+            + ">, maxActiveConnections : <" + maxActiveConnections
+            + ">, activeConnectionLimit : <" + activeConnectionLimit
+            + ">, maxIdleConnections : <" + maxIdleConnections
+            + ">, minIdleConnections : <" + minIdleConnections
+            + ">, maxIdleSeconds : <" + maxIdleSeconds
+            + ">, maxLifetimeSeconds : <" + maxLifetimeSeconds
+            + ">, housekeepingIntervalSeconds : <"
+            + housekeepingIntervalSeconds + ">, maxWaitMillis : <"
+            + maxWaitMillis + ">, testOnBorrow : <" + testOnBorrow
+            + ">, minTestOnBorrowIdleSeconds : <" + minTestOnBorrowIdleSeconds
+            + ">, testOnReturn : <" + testOnReturn
+            + ">, validationTimeoutSeconds : <" + validationTimeoutSeconds
+            + ">, backgroundValidation : <" + backgroundValidation
+            + ">, validationLatency : <" + validationLatency
+            + ">, resourceManager : <" + resourceManager + ">]";
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -239,6 +559,24 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
         return self;
     }
 
+    /**
+     * リークしたコネクションを回収する際に，コネクションを取得したトランザクションを調べるトランザクションマネージャを設定します．
+     * 
+     * @param transactionManager
+     *            トランザクションマネージャ
+     * @return このインスタンス自身
+     * @see #setLeakReclaimThresholdSeconds(long)
+     */
+    public CM setTransactionManager(
+            final TraminaTransactionManager transactionManager) {
+        assertBeforeInitialized(this);
+        assertParameterNotNull("transactionManager", transactionManager);
+        this.transactionManager = transactionManager;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
     /**
      * @param maxActiveConnections
      *            the maxPoolSize to set
@@ -252,6 +590,70 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
     }
 
     /**
+     * {@link #setAdaptiveSizing(boolean) 適応的なサイズ調整} で使用中のコネクションの上限を縮小する際の下限を設定します．
+     * 
+     * @param minActiveConnections
+     *            使用中のコネクションの上限の下限
+     * @return このインスタンス自身
+     */
+    public CM setMinActiveConnections(final int minActiveConnections) {
+        assertBeforeInitialized(this);
+        this.minActiveConnections = minActiveConnections;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * 使用中のコネクションの上限を負荷に応じて調整するかどうかを設定します．
+     * <p>
+     * {@literal true} の場合，使用中のコネクションの上限は {@link #setMaxActiveConnections(int)
+     * 最大数} から始まり，定期保守のタスクによって {@link #setMinActiveConnections(int) 下限}
+     * と最大数の間で調整されます． 上限は次のように調整されます．
+     * </p>
+     * <ul>
+     * <li>コネクションの取得がタイムアウトしたか，取得の待機時間の平均が {@link #setTargetBorrowWaitMillis(long)
+     * 目標値} を超えた場合は上限を一つ増やします． Little の法則 (取得頻度 × 平均使用時間)
+     * で見積もった必要数がそれより大きい場合は必要数まで増やします．</li>
+     * <li>物理コネクションの作成に要する時間がそれまでの最小値の 2 倍を超えた場合はデータベースが過負荷であるとみなし，上限を 4
+     * 分の 3 に減らします．</li>
+     * <li>それ以外で必要数が上限を下回っている場合は上限を一つ減らします．</li>
+     * </ul>
+     * 
+     * @param adaptiveSizing
+     *            上限を負荷に応じて調整する場合は {@literal true}
+     * @return このインスタンス自身
+     */
+    public CM setAdaptiveSizing(final boolean adaptiveSizing) {
+        assertBeforeInitialized(this);
+        this.adaptiveSizing = adaptiveSizing;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * {@link #setAdaptiveSizing(boolean) 適応的なサイズ調整} で目標とするコネクションの取得の待機時間
+     * (ミリ秒単位) を設定します．
+     * 
+     * @param targetBorrowWaitMillis
+     *            目標とするコネクションの取得の待機時間 (ミリ秒単位)
+     * @return このインスタンス自身
+     */
+    public CM setTargetBorrowWaitMillis(final long targetBorrowWaitMillis) {
+        assertBeforeInitialized(this);
+        this.targetBorrowWaitMillis = targetBorrowWaitMillis;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * <p>
+     * {@link ConcurrentBag} によるプーリングでは返却時にアイドル数を数えないため，
+     * 上限を超えたアイドル状態のコネクションはハウスキーピングで破棄されます．
+     * </p>
+     * 
      * @param maxIdleConnections
      *            the maxPoolSize to set
      */
@@ -287,6 +689,67 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
         return self;
     }
 
+    /**
+     * 物理コネクションの最大存続時間 (秒単位) を設定します．
+     * <p>
+     * 作成されてからこの時間を過ぎた物理コネクションは，プールに返却された時点または定期保守のタスクによって破棄されます．
+     * トランザクションに関連づけられている間はプールに返却されないため，トランザクションへの参加中に破棄されることはありません．
+     * 多数のコネクションが同時に破棄されないよう，コネクションごとの最大存続時間は
+     * {@link #setMaxLifetimeJitterSeconds(long)} の範囲でランダムに短縮されます．
+     * {@literal 0} 以下の場合，物理コネクションは最大存続時間によって破棄されません．
+     * </p>
+     * 
+     * @param maxLifetimeSeconds
+     *            物理コネクションの最大存続時間 (秒単位)
+     * @return このインスタンス自身
+     */
+    public CM setMaxLifetimeSeconds(final long maxLifetimeSeconds) {
+        assertBeforeInitialized(this);
+        this.maxLifetimeSeconds = maxLifetimeSeconds;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * 物理コネクションの最大存続時間をランダムに短縮する幅 (秒単位) を設定します．
+     * <p>
+     * 負の場合は最大存続時間の 2.5% が使われます．
+     * </p>
+     * 
+     * @param maxLifetimeJitterSeconds
+     *            物理コネクションの最大存続時間をランダムに短縮する幅 (秒単位)
+     * @return このインスタンス自身
+     */
+    public CM setMaxLifetimeJitterSeconds(final long maxLifetimeJitterSeconds) {
+        assertBeforeInitialized(this);
+        this.maxLifetimeJitterSeconds = maxLifetimeJitterSeconds;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * アイドル状態のコネクションを破棄する定期保守の間隔 (秒単位) を設定します．
+     * <p>
+     * アイドル状態のコネクションは返却ごとにタイマーを設定するのではなく，この間隔で動作する単一のタスクによって破棄されます．
+     * そのため，コネクションが実際に破棄されるのは {@link #setMaxIdleSeconds(long) 最大アイドル時間}
+     * が経過してから最大でこの間隔だけ遅れることがあります． 最大アイドル時間の方が短い場合はそちらの間隔で動作します．
+     * </p>
+     * 
+     * @param housekeepingIntervalSeconds
+     *            定期保守の間隔 (秒単位)
+     * @return このインスタンス自身
+     */
+    public CM setHousekeepingIntervalSeconds(
+            final long housekeepingIntervalSeconds) {
+        assertBeforeInitialized(this);
+        this.housekeepingIntervalSeconds = housekeepingIntervalSeconds;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
     /**
      * @param maxWaitMillis
      *            the timeoutSeconds to set
@@ -347,271 +810,2455 @@ public abstract class AbstractPoolingConnectionManager<CM extends AbstractPoolin
         return self;
     }
 
-    // /////////////////////////////////////////////////////////////////
-    // instance methods for subclasses
-    //
-    protected abstract boolean validate(
-            ManagedConnection<C, E> managedConnection) throws E;
-
-    protected abstract E newTimeoutException();
-
-    // /////////////////////////////////////////////////////////////////
-    // instance methods for internal
-    //
-    protected ManagedConnection<C, E> getManagedConnectionFromPool() throws E {
-        for (;;) {
-            final AllocationRequest allocationRequest = new AllocationRequest();
-            synchronized (this) {
-                allocationRequests.addLast(allocationRequest);
-                allocate();
-            }
+    /**
+     * アイドル状態のコネクションをバックグラウンドで検証するかどうかを設定します．
+     * <p>
+     * {@literal true} の場合，定期保守のタスクがアイドル状態のコネクションを {@link WorkManager}
+     * 上でバッチごとに検証し，検証した時刻を記録します． 検証の間隔は
+     * {@link #setMinTestOnBorrowIdleSeconds(int)} の半分を超えないように調整されるため，
+     * 通常はコネクションの取得時に検証が行われることはありません．
+     * 最後の検証からの経過時間がそれを超えている場合だけ，取得時に検証が行われます．
+     * </p>
+     * 
+     * @param backgroundValidation
+     *            バックグラウンドで検証する場合は {@literal true}
+     * @return このインスタンス自身
+     */
+    public CM setBackgroundValidation(final boolean backgroundValidation) {
+        assertBeforeInitialized(this);
+        this.backgroundValidation = backgroundValidation;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
 
-            if (allocationRequest.await()) {
-                final ManagedConnection<C, E> managedConnection =
-                    allocationRequest.getManagedConnection();
-                if (logger.isDebugEnabled()) {
-                    logger.debug(OBTAIN_MANAGED_CONNECTION_FROM_POOL.format(
-                        managedConnection,
-                        this));
-                }
-                if (testOnBorrow
-                    && allocationRequest.getIdleTimeMillis() > minTestOnBorrowIdleSeconds * 1000) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug(VALIDATING_MANAGED_CONNECTION.format(
-                            managedConnection,
-                            this));
-                    }
-                    if (!validate(managedConnection)) {
-                        logger.debug(INVALID_MANAGED_CONNECTION.format(
-                            managedConnection,
-                            this));
-                        super.logicalConnectionClosed(managedConnection);
-                        continue;
-                    }
-                }
-                return managedConnection;
-            }
-            return null;
-        }
+    /**
+     * バックグラウンドで検証する際に一つのタスクで検証するコネクションの数を設定します．
+     * 
+     * @param validationBatchSize
+     *            一つのタスクで検証するコネクションの数
+     * @return このインスタンス自身
+     */
+    public CM setValidationBatchSize(final int validationBatchSize) {
+        assertBeforeInitialized(this);
+        this.validationBatchSize = validationBatchSize;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
     }
 
-    protected synchronized void allocate() {
-        while (!idleConnections.isEmpty() && !allocationRequests.isEmpty()) {
-            final IdleConnection idleConnection = idleConnections.removeLast();
-            idleConnection.cancel();
-            final AllocationRequest allocationRequest =
-                allocationRequests.removeFirst();
-            final ManagedConnection<C, E> managedConnection =
-                idleConnection.getManagedConnection();
-            activeConnections.add(managedConnection);
-            allocationRequest.setIdleTimeMillis(System.currentTimeMillis()
-                - idleConnection.getIdledTime());
-            allocationRequest.notify(managedConnection);
-        }
+    /**
+     * アイドル状態のコネクションを最小数まで補充する際に並行して物理コネクションを作成するタスクの数を設定します．
+     * <p>
+     * 実際の並行度は {@link WorkManager} のスレッド数によっても制限されます．
+     * </p>
+     * 
+     * @param replenishConcurrency
+     *            並行して物理コネクションを作成するタスクの数
+     * @return このインスタンス自身
+     */
+    public CM setReplenishConcurrency(final int replenishConcurrency) {
+        assertBeforeInitialized(this);
+        this.replenishConcurrency = replenishConcurrency;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
 
-        while (activeConnections.size() + awaitingConnections < maxActiveConnections
-            && !allocationRequests.isEmpty()) {
-            final AllocationRequest allocationRequest =
-                allocationRequests.removeFirst();
-            allocationRequest.notify(null);
-            ++awaitingConnections;
-        }
+    /**
+     * ロックを使わない {@link ConcurrentBag} によるプーリングを使用するかどうかを設定します．
+     * <p>
+     * {@literal false} の場合は {@link #poolLock} で保護された {@link #allocate()} によるプーリングを使用します．
+     * </p>
+     * <p>
+     * スレッドが最後に返却したコネクションを優先して貸し出すのは {@link ConcurrentBag} によるプーリングだけです．
+     * {@link #poolLock} によるプーリングはアイドル状態のコネクションを LIFO で貸し出すため，
+     * 最後に返却されたコネクションがどのスレッドのものかは区別しません．
+     * </p>
+     * 
+     * @param concurrentBag
+     *            {@link ConcurrentBag} によるプーリングを使用する場合は {@literal true}
+     * @return このインスタンス自身
+     */
+    public CM setConcurrentBag(final boolean concurrentBag) {
+        assertBeforeInitialized(this);
+        this.concurrentBag = concurrentBag;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
     }
 
     /**
-     * @param managedConnection
+     * コネクションプールの名前を返します．
+     * <p>
+     * 名前が設定されていない場合はクラス名とハッシュコードから作られた名前を返します．
+     * </p>
+     * 
+     * @return コネクションプールの名前
      */
-    protected synchronized void allocate(
-            final ManagedConnection<C, E> managedConnection) {
-        if (logger.isDebugEnabled()) {
-            logger.debug(RETURN_MANAGED_CONNECTION_TO_POOL.format(
-                managedConnection,
-                this));
+    public String getName() {
+        if (name != null) {
+            return name;
         }
-        activeConnections.add(managedConnection);
-        final AllocationRequest allocationRequest =
-            allocationRequests.removeFirst();
-        allocationRequest.notify(managedConnection);
+        return getClass().getSimpleName() + "@"
+            + Integer.toHexString(System.identityHashCode(this));
     }
 
     /**
-     * @param managedConnection
+     * コネクションプールの名前を設定します．
+     * <p>
+     * 名前は JMX のオブジェクト名や {@link ConnectionPoolMetricsExporter} に渡されます．
+     * </p>
+     * 
+     * @param name
+     *            コネクションプールの名前
+     * @return このインスタンス自身
      */
-    protected synchronized void idle(
-            final ManagedConnection<C, E> managedConnection) {
-        final IdleConnection idleConnection =
-            new IdleConnection(managedConnection);
-        if (maxIdleSeconds > 0) {
-            idleConnection
-                .setScheduledFuture(scheduleExpireTask(managedConnection));
+    public CM setName(final String name) {
+        assertBeforeInitialized(this);
+        assertParameterNotEmptyString("name", name);
+        this.name = name;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * 統計情報をプラットフォームの MBean サーバに登録するかどうかを設定します．
+     * <p>
+     * {@literal true} の場合，初期化時に
+     * {@link org.seasar.tramina.resource.ConnectionPoolMXBean} が
+     * {@literal org.seasar.tramina:type=ConnectionPool,name=}<i>名前</i>
+     * というオブジェクト名で登録され，破棄時に登録解除されます．
+     * </p>
+     * 
+     * @param jmxEnabled
+     *            MBean サーバに登録する場合は {@literal true}
+     * @return このインスタンス自身
+     */
+    public CM setJmxEnabled(final boolean jmxEnabled) {
+        assertBeforeInitialized(this);
+        this.jmxEnabled = jmxEnabled;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * 統計情報を定期的に送出する {@link ConnectionPoolMetricsExporter} を追加します．
+     * 
+     * @param metricsExporter
+     *            統計情報を送出するコンポーネント
+     * @return このインスタンス自身
+     */
+    public CM addMetricsExporter(
+            final ConnectionPoolMetricsExporter metricsExporter) {
+        assertBeforeInitialized(this);
+        assertParameterNotNull("metricsExporter", metricsExporter);
+        metricsExporters.add(metricsExporter);
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * 統計情報を {@link ConnectionPoolMetricsExporter} に送出する間隔 (秒単位) を設定します．
+     * 
+     * @param metricsExportIntervalSeconds
+     *            統計情報を送出する間隔 (秒単位)
+     * @return このインスタンス自身
+     */
+    public CM setMetricsExportIntervalSeconds(
+            final long metricsExportIntervalSeconds) {
+        assertBeforeInitialized(this);
+        this.metricsExportIntervalSeconds = metricsExportIntervalSeconds;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * コネクションのリークを検出する時間 (秒単位) を設定します．
+     * <p>
+     * 正の値が設定されると，取得されてからこの時間を過ぎても返却されないコネクションが定期保守のタスクによって警告として報告されます．
+     * {@literal 0} の場合 (デフォルト) はリークを検出しません．
+     * </p>
+     * 
+     * @param leakDetectionThresholdSeconds
+     *            コネクションのリークを検出する時間 (秒単位)
+     * @return このインスタンス自身
+     */
+    public CM setLeakDetectionThresholdSeconds(
+            final long leakDetectionThresholdSeconds) {
+        assertBeforeInitialized(this);
+        this.leakDetectionThresholdSeconds = leakDetectionThresholdSeconds;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * リークしたコネクションを回収する時間 (秒単位) を設定します．
+     * <p>
+     * 正の値が設定されると，取得されてからこの時間を過ぎても返却されないコネクションは物理コネクションのエラーと同様に破棄され，
+     * コネクションプールの空きに戻されます． リークの検出が有効な場合だけ使われます．
+     * {@literal 0} の場合 (デフォルト) は回収しません．
+     * 回収された後でアプリケーションが論理コネクションをクローズしても，破棄済みのコネクションは警告を出力して無視されます．
+     * </p>
+     * <p>
+     * {@link AbstractTxBoundConnectionManager} を経由したコネクションはトランザクションが完了するまで返却されないため，
+     * 長いトランザクションや準備済みの XA ブランチのコネクションも回収の対象に見えてしまいます．
+     * {@link #setTransactionManager(TraminaTransactionManager) トランザクションマネージャ}
+     * が設定されている場合，取得時のトランザクションがまだ完了していないコネクションは回収せず，リークとして報告するだけにします．
+     * トランザクションマネージャを設定せずにトランザクションと関連づけられるコネクションを回収すると，
+     * 2フェーズコミットの途中で物理コネクションが破棄される可能性があります．
+     * </p>
+     * 
+     * @param leakReclaimThresholdSeconds
+     *            リークしたコネクションを回収する時間 (秒単位)
+     * @return このインスタンス自身
+     */
+    public CM setLeakReclaimThresholdSeconds(
+            final long leakReclaimThresholdSeconds) {
+        assertBeforeInitialized(this);
+        this.leakReclaimThresholdSeconds = leakReclaimThresholdSeconds;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    /**
+     * コネクションを取得したスタックトレースを記録する間隔を設定します．
+     * <p>
+     * {@literal n} が設定されると {@literal n} 回の取得ごとに一回だけスタックトレースが記録され，
+     * リークを報告する際に出力されます． {@literal 1} の場合は毎回記録します． {@literal 0} の場合 (デフォルト)
+     * は記録しません．
+     * </p>
+     * 
+     * @param leakStackTraceSamplingInterval
+     *            スタックトレースを記録する間隔
+     * @return このインスタンス自身
+     */
+    public CM setLeakStackTraceSamplingInterval(
+            final int leakStackTraceSamplingInterval) {
+        assertBeforeInitialized(this);
+        this.leakStackTraceSamplingInterval = leakStackTraceSamplingInterval;
+        @SuppressWarnings("unchecked")
+        final CM self = (CM) this;
+        return self;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from ConnectionPoolMetrics
+    //
+    @Override
+    public int getActiveConnections() {
+        if (concurrentBag) {
+            return bag.getCount(Entry.STATE_IN_USE);
+        }
+        return activeConnectionCount;
+    }
+
+    @Override
+    public int getIdleConnections() {
+        if (concurrentBag) {
+            return bag.getCount(Entry.STATE_NOT_IN_USE);
+        }
+        return idleConnectionCount;
+    }
+
+    @Override
+    public int getAwaitingConnections() {
+        if (concurrentBag) {
+            return Math.max(totalConnections.get() - bag.size(), 0);
+        }
+        return awaitingConnectionCount;
+    }
+
+    @Override
+    public int getPendingRequests() {
+        if (concurrentBag) {
+            return bag.getWaitingThreadCount() + asyncRequests.size();
+        }
+        return pendingRequestCount;
+    }
+
+    @Override
+    public long getCreatedConnections() {
+        return createdConnections.get();
+    }
+
+    @Override
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public int getActiveConnectionLimit() {
+        return activeConnectionLimit;
+    }
+
+    @Override
+    public long getDetectedLeaks() {
+        return detectedLeaks.get();
+    }
+
+    @Override
+    public long getReclaimedLeaks() {
+        return reclaimedLeaks.get();
+    }
+
+    @Override
+    public LatencyHistogram getBorrowWaitHistogram() {
+        return borrowWaitHistogram;
+    }
+
+    @Override
+    public LatencyHistogram getCreationTimeHistogram() {
+        return creationTimeHistogram;
+    }
+
+    @Override
+    public LatencyHistogram getHoldTimeHistogram() {
+        return holdTimeHistogram;
+    }
+
+    @Override
+    public LatencyHistogram getValidationTimeHistogram() {
+        return validationLatency;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for subclasses
+    //
+    protected abstract boolean validate(
+            ManagedConnection<C, E> managedConnection) throws E;
+
+    protected abstract E newTimeoutException();
+
+    protected abstract E newLeakReclaimedException(
+            ManagedConnection<C, E> managedConnection);
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for internal
+    //
+    protected ManagedConnection<C, E> getManagedConnectionFromPool() throws E {
+        for (;;) {
+            final AllocationRequest allocationRequest = new AllocationRequest();
+            poolLock.lock();
+            try {
+                allocationRequests.addLast(allocationRequest);
+                allocate();
+            } finally {
+                unlockPool();
+            }
+
+            if (allocationRequest.await()) {
+                final ManagedConnection<C, E> managedConnection =
+                    allocationRequest.getManagedConnection();
+                if (logger.isDebugEnabled()) {
+                    logger.debug(OBTAIN_MANAGED_CONNECTION_FROM_POOL.format(
+                        managedConnection,
+                        this));
+                }
+                if (!validateOnBorrow(
+                    managedConnection,
+                    allocationRequest.getIdleTimeMillis())) {
+                    super.logicalConnectionClosed(managedConnection);
+                    continue;
+                }
+                return managedConnection;
+            }
+            return null;
+        }
+    }
+
+    protected ManagedConnection<C, E> createManagedConnection() throws E {
+        ManagedConnection<C, E> managedConnection = null;
+        try {
+            managedConnection = newManagedConnection();
+            return managedConnection;
+        } finally {
+            poolLock.lock();
+            try {
+                --awaitingConnections;
+                if (managedConnection != null) {
+                    retireTimes.put(managedConnection, Long
+                        .valueOf(newRetireTime(System.currentTimeMillis())));
+                    activeConnections.add(managedConnection);
+                    updateGauges();
+                } else {
+                    allocate();
+                }
+            } finally {
+                unlockPool();
+            }
+        }
+    }
+
+    protected ManagedConnection<C, E> newManagedConnection() throws E {
+        final long start = System.nanoTime();
+        final ManagedConnection<C, E> managedConnection =
+            super.getManagedConnection();
+        creationTimeHistogram.record(System.nanoTime() - start);
+        createdConnections.incrementAndGet();
+        return managedConnection;
+    }
+
+    protected long newRetireTime(final long createdTime) {
+        if (maxLifetimeSeconds <= 0) {
+            return Long.MAX_VALUE;
         }
-        idleConnections.addLast(idleConnection);
+        final long jitterMillis =
+            (maxLifetimeJitterSeconds < 0 ? maxLifetimeSeconds / 40
+                : maxLifetimeJitterSeconds) * 1000;
+        final long lifetimeMillis = maxLifetimeSeconds * 1000;
+        if (jitterMillis <= 0) {
+            return createdTime + lifetimeMillis;
+        }
+        final long jitter =
+            (long) (random.nextDouble() * Math.min(jitterMillis, lifetimeMillis));
+        return createdTime + lifetimeMillis - jitter;
+    }
+
+    protected boolean isRetired(
+            final ManagedConnection<C, E> managedConnection, final long now) {
+        poolLock.lock();
+        try {
+            final Long retireTime = retireTimes.get(managedConnection);
+            return retireTime != null && retireTime.longValue() <= now;
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    protected boolean validateOnBorrow(
+            final ManagedConnection<C, E> managedConnection,
+            final long idleTimeMillis) throws E {
+        if (!testOnBorrow || idleTimeMillis <= minTestOnBorrowIdleSeconds * 1000) {
+            return true;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(VALIDATING_MANAGED_CONNECTION.format(
+                managedConnection,
+                this));
+        }
+        if (timedValidate(managedConnection)) {
+            return true;
+        }
+        validationFailures.incrementAndGet();
         if (logger.isDebugEnabled()) {
-            logger.debug(RETURN_MANAGED_CONNECTION_TO_POOL.format(
+            logger.debug(INVALID_MANAGED_CONNECTION.format(
                 managedConnection,
                 this));
         }
-    }
+        return false;
+    }
+
+    protected boolean timedValidate(
+            final ManagedConnection<C, E> managedConnection) throws E {
+        final long start = System.nanoTime();
+        try {
+            return validate(managedConnection);
+        } finally {
+            validationLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    protected void allocate() {
+        poolLock.lock();
+        try {
+            while (!allocationRequests.isEmpty()
+                && activeConnections.size() + awaitingConnections < activeConnectionLimit) {
+                final IdleConnection idleConnection = pollIdleConnection();
+                if (idleConnection == null) {
+                    break;
+                }
+                final AllocationRequest allocationRequest =
+                    allocationRequests.removeFirst();
+                final ManagedConnection<C, E> managedConnection =
+                    idleConnection.getManagedConnection();
+                activeConnections.add(managedConnection);
+                allocationRequest.setIdleTimeMillis(System.currentTimeMillis()
+                    - idleConnection.getCheckedTime());
+                recycle(idleConnection);
+                allocationRequest.notify(managedConnection);
+            }
+
+            while (activeConnections.size() + awaitingConnections < activeConnectionLimit
+                && !allocationRequests.isEmpty()) {
+                final AllocationRequest allocationRequest =
+                    allocationRequests.removeFirst();
+                allocationRequest.notify(null);
+                ++awaitingConnections;
+            }
+            updateGauges();
+        } finally {
+            unlockPool();
+        }
+    }
+
+    /**
+     * 最後にアイドル状態になったコネクションのうち，バックグラウンドで検証中でないものをアイドルリストから取り出します．
+     * <p>
+     * 検証の対象になるのは長くアイドル状態だったリストの先頭側のコネクションなので，通常は末尾の要素がそのまま返されます．
+     * </p>
+     * 
+     * @return アイドル状態のコネクション，または貸し出せるコネクションがない場合は {@literal null}
+     */
+    protected IdleConnection pollIdleConnection() {
+        for (final Iterator<IdleConnection> it =
+            idleConnections.descendingIterator(); it.hasNext();) {
+            final IdleConnection idleConnection = it.next();
+            if (!idleConnection.isValidating()) {
+                it.remove();
+                return idleConnection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param managedConnection
+     */
+    protected void allocate(
+            final ManagedConnection<C, E> managedConnection) {
+        poolLock.lock();
+        try {
+            if (logger.isDebugEnabled()) {
+                logger.debug(RETURN_MANAGED_CONNECTION_TO_POOL.format(
+                    managedConnection,
+                    this));
+            }
+            activeConnections.add(managedConnection);
+            final AllocationRequest allocationRequest =
+                allocationRequests.removeFirst();
+            allocationRequest.notify(managedConnection);
+            updateGauges();
+        } finally {
+            unlockPool();
+        }
+    }
+
+    /**
+     * @param managedConnection
+     */
+    protected void idle(
+            final ManagedConnection<C, E> managedConnection) {
+        poolLock.lock();
+        try {
+            IdleConnection idleConnection = freeIdleConnections.pollLast();
+            if (idleConnection == null) {
+                idleConnection = new IdleConnection();
+            }
+            idleConnection.set(managedConnection, System.currentTimeMillis());
+            idleConnection.setValidatedTime(0L);
+            idleConnection.setValidating(false);
+            idleConnections.addLast(idleConnection);
+            updateGauges();
+            if (logger.isDebugEnabled()) {
+                logger.debug(RETURN_MANAGED_CONNECTION_TO_POOL.format(
+                    managedConnection,
+                    this));
+            }
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    /**
+     * @param idleConnection
+     */
+    protected void recycle(final IdleConnection idleConnection) {
+        poolLock.lock();
+        try {
+            idleConnection.set(null, 0L);
+            idleConnection.setValidating(false);
+            freeIdleConnections.addLast(idleConnection);
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    /**
+     * リーク検出と使用時間の計測のため，コネクションを貸し出したことを記録します．
+     * 
+     * @param managedConnection
+     *            貸し出したマネージドコネクション
+     * @param transaction
+     *            コネクションを取得したトランザクション，またはトランザクションを調べない場合は {@literal null}
+     */
+    protected void recordBorrow(
+            final ManagedConnection<C, E> managedConnection,
+            final Transaction transaction) {
+        if (leakDetectionThresholdSeconds <= 0 && !adaptiveSizing) {
+            return;
+        }
+        final boolean sampled =
+            leakStackTraceSamplingInterval > 0
+                && borrowSequence.getAndIncrement()
+                    % leakStackTraceSamplingInterval == 0;
+        borrowRecords.put(managedConnection, new BorrowRecord(sampled
+            ? new BorrowSite() : null, transaction));
+    }
+
+    /**
+     * コネクションを取得しようとしているスレッドに関連づけられたトランザクションを返します．
+     * <p>
+     * リークしたコネクションを回収しない場合や，トランザクションマネージャが設定されていない場合は {@literal null} を返します．
+     * </p>
+     * 
+     * @return コネクションを取得しようとしているトランザクション
+     */
+    protected Transaction getBorrowingTransaction() {
+        if (leakReclaimThresholdSeconds <= 0 || transactionManager == null) {
+            return null;
+        }
+        try {
+            return transactionManager.getTransaction();
+        } catch (final SystemException e) {
+            logger.error(TRANSACTION_UNAVAILABLE.format(transactionManager), e);
+            return null;
+        }
+    }
+
+    /**
+     * コネクションが返却されたことを記録し，使用時間をヒストグラムに加えます．
+     * 
+     * @param managedConnection
+     *            返却されたマネージドコネクション
+     */
+    protected void recordReturn(final ManagedConnection<C, E> managedConnection) {
+        final BorrowRecord record = borrowRecords.remove(managedConnection);
+        if (record != null) {
+            holdTimeHistogram.record(System.nanoTime()
+                - record.getBorrowedNanos());
+        }
+    }
+
+    /**
+     * 使用中のコネクションの上限を変更します．
+     * <p>
+     * 上限が増えた場合は待機している要求に空きを割り当てます．
+     * 上限が減った場合，超過分のコネクションは返却された時点で破棄されるかアイドル状態になります．
+     * </p>
+     * 
+     * @param limit
+     *            使用中のコネクションの上限
+     */
+    protected void setActiveConnectionLimit(final int limit) {
+        final int oldLimit = activeConnectionLimit;
+        if (limit == oldLimit) {
+            return;
+        }
+        activeConnectionLimit = limit;
+        if (logger.isDebugEnabled()) {
+            logger.debug(RESIZE_CONNECTION_POOL.format(oldLimit, limit, this));
+        }
+        if (limit < oldLimit) {
+            return;
+        }
+        if (!concurrentBag) {
+            allocate();
+            return;
+        }
+        final int waiting = bag.getWaitingThreadCount() + asyncRequests.size();
+        for (int i = 0; i < Math.min(limit - oldLimit, waiting); ++i) {
+            submit(new AddConnectionTask());
+        }
+    }
+
+    /**
+     * {@link #poolLock} で保護された状態を {@link ConnectionPoolMetrics} のためにロックなしで読み出せるフィールドへ反映します．
+     */
+    protected void updateGauges() {
+        poolLock.lock();
+        try {
+            activeConnectionCount = activeConnections.size();
+            idleConnectionCount = idleConnections.size();
+            awaitingConnectionCount = awaitingConnections;
+            pendingRequestCount = allocationRequests.size();
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    protected ManagedConnection<C, E> getManagedConnectionFromBag() throws E {
+        final long waitMillis = maxWaitMillis > 0 ? maxWaitMillis : 0L;
+        final long deadline = System.currentTimeMillis() + waitMillis;
+        for (;;) {
+            PoolEntry entry = borrowFromBag(0L);
+            if (entry == null) {
+                if (reserveCapacity()) {
+                    return createPoolEntry().getManagedConnection();
+                }
+                entry =
+                    borrowFromBag(Math.max(deadline
+                        - System.currentTimeMillis(), 0L));
+                if (entry == null) {
+                    timeouts.incrementAndGet();
+                    throw newTimeoutException();
+                }
+            }
+            final ManagedConnection<C, E> managedConnection =
+                entry.getManagedConnection();
+            if (logger.isDebugEnabled()) {
+                logger.debug(OBTAIN_MANAGED_CONNECTION_FROM_POOL.format(
+                    managedConnection,
+                    this));
+            }
+            if (!validateOnBorrow(managedConnection, System.currentTimeMillis()
+                - entry.getCheckedTime())) {
+                bag.remove(entry);
+                destroyPoolEntry(entry);
+                continue;
+            }
+            return managedConnection;
+        }
+    }
+
+    protected PoolEntry borrowFromBag(final long timeoutMillis) {
+        try {
+            return bag.borrow(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        }
+    }
+
+    protected void returnToBag(final ManagedConnection<C, E> managedConnection)
+            throws E {
+        final PoolEntry entry = poolEntries.get(managedConnection);
+        if (entry == null || entry.getState() != Entry.STATE_IN_USE) {
+            super.logicalConnectionClosed(managedConnection);
+            return;
+        }
+        try {
+            managedConnection.cleanup();
+            if (testOnReturn) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(VALIDATING_MANAGED_CONNECTION.format(
+                        managedConnection,
+                        this));
+                }
+                if (!timedValidate(managedConnection)) {
+                    validationFailures.incrementAndGet();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(INVALID_MANAGED_CONNECTION.format(
+                            managedConnection,
+                            this));
+                    }
+                    bag.remove(entry);
+                    destroyPoolEntry(entry);
+                    return;
+                }
+            }
+            if (entry.isRetired(System.currentTimeMillis())) {
+                evictions.incrementAndGet();
+                if (logger.isDebugEnabled()) {
+                    logger.debug(RETIRE_MANAGED_CONNECTION.format(
+                        managedConnection,
+                        this));
+                }
+                bag.remove(entry);
+                destroyPoolEntry(entry);
+                return;
+            }
+            if (totalConnections.get() > activeConnectionLimit) {
+                bag.remove(entry);
+                destroyPoolEntry(entry);
+                return;
+            }
+            entry.setIdledTime(System.currentTimeMillis());
+            entry.setValidatedTime(0L);
+            requiteToBag(entry);
+            if (logger.isDebugEnabled()) {
+                logger.debug(RETURN_MANAGED_CONNECTION_TO_POOL.format(
+                    managedConnection,
+                    this));
+            }
+        } catch (final Exception e) {
+            logger.error(CLOSE_LOGICAL_CONNECTION_FAILED
+                .format(managedConnection), e);
+            bag.remove(entry);
+            destroyPoolEntry(entry);
+        }
+    }
+
+    protected void requiteToBag(final PoolEntry returnedEntry) {
+        PoolEntry entry = returnedEntry;
+        for (;;) {
+            for (AsyncAllocationRequest request; (request =
+                asyncRequests.poll()) != null;) {
+                if (!request.getFuture().isDone()) {
+                    request.assign(entry);
+                    return;
+                }
+            }
+            bag.requite(entry);
+            if (asyncRequests.isEmpty()) {
+                return;
+            }
+            entry = bag.scan();
+            if (entry == null) {
+                return;
+            }
+        }
+    }
+
+    protected void unreserveToBag(final PoolEntry entry) {
+        bag.unreserve(entry);
+        if (!asyncRequests.isEmpty()) {
+            final PoolEntry idleEntry = bag.scan();
+            if (idleEntry != null) {
+                requiteToBag(idleEntry);
+            }
+        }
+        if (bag.isClosed() && bag.reserve(entry)) {
+            bag.remove(entry);
+            destroyPoolEntry(entry);
+        }
+    }
+
+    protected void removeFromBag(final ManagedConnection<C, E> managedConnection) {
+        final PoolEntry entry = poolEntries.remove(managedConnection);
+        if (entry == null) {
+            return;
+        }
+        bag.reserve(entry);
+        bag.remove(entry);
+        entry.setState(Entry.STATE_REMOVED);
+        releaseCapacity();
+    }
+
+    protected boolean reserveCapacity() {
+        for (;;) {
+            final int total = totalConnections.get();
+            if (total >= activeConnectionLimit) {
+                return false;
+            }
+            if (totalConnections.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    protected void releaseCapacity() {
+        totalConnections.decrementAndGet();
+        if ((bag.getWaitingThreadCount() > 0 || !asyncRequests.isEmpty())
+            && !bag.isClosed()) {
+            try {
+                workManager.schedule(new AddConnectionTask(), 0L);
+            } catch (final RuntimeException e) {
+                logger.error(CREATE_MANAGED_CONNECTION_FAILED.format(this), e);
+            }
+        }
+    }
+
+    protected PoolEntry createPoolEntry() throws E {
+        boolean created = false;
+        try {
+            final PoolEntry entry = new PoolEntry(newManagedConnection());
+            entry.setState(Entry.STATE_IN_USE);
+            poolEntries.put(entry.getManagedConnection(), entry);
+            bag.add(entry);
+            created = true;
+            return entry;
+        } finally {
+            if (!created) {
+                releaseCapacity();
+            }
+        }
+    }
+
+    protected void destroyPoolEntry(final PoolEntry entry) {
+        final ManagedConnection<C, E> managedConnection =
+            entry.getManagedConnection();
+        if (poolEntries.remove(managedConnection) != null) {
+            releaseCapacity();
+        }
+        try {
+            super.logicalConnectionClosed(managedConnection);
+        } catch (final Exception e) {
+            logger.error(CLOSE_LOGICAL_CONNECTION_FAILED
+                .format(managedConnection), e);
+        }
+    }
+
+    protected void allocateAsync(final AsyncAllocationRequest request) {
+        if (concurrentBag) {
+            allocateAsyncFromBag(request);
+            return;
+        }
+        boolean timedOut = false;
+        poolLock.lock();
+        try {
+            allocationRequests.addLast(request);
+            allocate();
+            if (!request.isNotified()) {
+                if (request.getDeadline() <= System.currentTimeMillis()) {
+                    allocationRequests.remove(request);
+                    timedOut = true;
+                } else {
+                    scheduleAsyncTimeoutTask(request.getDeadline());
+                }
+            }
+            updateGauges();
+        } finally {
+            unlockPool();
+        }
+        if (timedOut) {
+            request.timeout();
+        }
+    }
+
+    protected void allocateAsyncFromBag(final AsyncAllocationRequest request) {
+        PoolEntry entry = bag.scan();
+        if (entry != null) {
+            request.assign(entry);
+            return;
+        }
+        if (reserveCapacity()) {
+            request.assign(null);
+            return;
+        }
+        if (request.getDeadline() <= System.currentTimeMillis()) {
+            request.timeout();
+            return;
+        }
+        asyncRequests.add(request);
+        poolLock.lock();
+        try {
+            scheduleAsyncTimeoutTask(request.getDeadline());
+        } finally {
+            poolLock.unlock();
+        }
+        entry = bag.scan();
+        if (entry != null) {
+            if (asyncRequests.remove(request)) {
+                request.assign(entry);
+            } else {
+                requiteToBag(entry);
+            }
+        } else if (reserveCapacity()) {
+            if (asyncRequests.remove(request)) {
+                request.assign(null);
+            } else {
+                releaseCapacity();
+            }
+        }
+    }
+
+    protected void completeAsyncRequest(final AsyncAllocationRequest request) {
+        final SettableFuture<ManagedConnection<C, E>> future =
+            request.getFuture();
+        final ManagedConnection<C, E> managedConnection;
+        try {
+            managedConnection =
+                concurrentBag ? obtainFromBag(request)
+                    : obtainFromPool(request);
+        } catch (final Exception e) {
+            future.setException(e);
+            return;
+        }
+        if (managedConnection == null) {
+            return;
+        }
+        if (future.set(managedConnection)) {
+            borrowWaitHistogram.record(System.nanoTime()
+                - request.getRequestedNanos());
+            recordBorrow(managedConnection, request.getTransaction());
+        } else {
+            try {
+                logicalConnectionClosed(managedConnection);
+            } catch (final Exception e) {
+                logger.error(CLOSE_LOGICAL_CONNECTION_FAILED
+                    .format(managedConnection), e);
+            }
+        }
+    }
+
+    protected ManagedConnection<C, E> obtainFromPool(
+            final AsyncAllocationRequest request) throws E {
+        final ManagedConnection<C, E> managedConnection =
+            request.getManagedConnection();
+        if (managedConnection == null) {
+            return createManagedConnection();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(OBTAIN_MANAGED_CONNECTION_FROM_POOL.format(
+                managedConnection,
+                this));
+        }
+        if (validateOnBorrow(managedConnection, request.getIdleTimeMillis())) {
+            return managedConnection;
+        }
+        poolLock.lock();
+        try {
+            activeConnections.remove(managedConnection);
+            allocate();
+        } finally {
+            unlockPool();
+        }
+        super.logicalConnectionClosed(managedConnection);
+        request.reset();
+        allocateAsync(request);
+        return null;
+    }
+
+    protected ManagedConnection<C, E> obtainFromBag(
+            final AsyncAllocationRequest request) throws E {
+        final PoolEntry entry = request.getEntry();
+        if (entry == null) {
+            return createPoolEntry().getManagedConnection();
+        }
+        final ManagedConnection<C, E> managedConnection =
+            entry.getManagedConnection();
+        if (logger.isDebugEnabled()) {
+            logger.debug(OBTAIN_MANAGED_CONNECTION_FROM_POOL.format(
+                managedConnection,
+                this));
+        }
+        if (validateOnBorrow(managedConnection, System.currentTimeMillis()
+            - entry.getCheckedTime())) {
+            return managedConnection;
+        }
+        bag.remove(entry);
+        destroyPoolEntry(entry);
+        request.reset();
+        allocateAsync(request);
+        return null;
+    }
+
+    protected boolean validateInBackground(
+            final ManagedConnection<C, E> managedConnection) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(VALIDATING_MANAGED_CONNECTION.format(
+                managedConnection,
+                this));
+        }
+        try {
+            if (timedValidate(managedConnection)) {
+                return true;
+            }
+        } catch (final Exception e) {
+            logger.error(VALIDATE_MANAGED_CONNECTION_FAILED.format(
+                managedConnection,
+                this), e);
+            validationFailures.incrementAndGet();
+            return false;
+        }
+        validationFailures.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+            logger.debug(INVALID_MANAGED_CONNECTION.format(
+                managedConnection,
+                this));
+        }
+        return false;
+    }
+
+    protected void scheduleAsyncTimeoutTask(final long deadline) {
+        poolLock.lock();
+        try {
+            if (asyncTimeoutTask != null) {
+                if (asyncTimeoutDeadline <= deadline) {
+                    return;
+                }
+                asyncTimeoutTask.cancel(false);
+            }
+            try {
+                asyncTimeoutTask =
+                    workManager.schedule(new AsyncTimeoutTask(), Math.max(deadline
+                        - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS);
+                asyncTimeoutDeadline = deadline;
+            } catch (final RejectedExecutionException e) {
+                asyncTimeoutTask = null;
+                logger.error(SCHEDULE_HOUSEKEEPING_TASK_FAILED.format(this), e);
+            }
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    protected List<Future<Void>> fillPool() {
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        if (minIdleConnections <= 0) {
+            return futures;
+        }
+        for (;;) {
+            final int tasks = replenishTasks.get();
+            if (tasks >= replenishConcurrency || isClosed()
+                || getIdleCount() + tasks >= minIdleConnections) {
+                return futures;
+            }
+            if (replenishTasks.compareAndSet(tasks, tasks + 1)) {
+                final Future<Void> future = submit(new ReplenishTask());
+                if (future != null) {
+                    futures.add(future);
+                }
+            }
+        }
+    }
+
+    protected boolean addIdleConnection() {
+        if (concurrentBag) {
+            if (!reserveCapacity()) {
+                return false;
+            }
+            try {
+                final PoolEntry entry = createPoolEntry();
+                entry.setIdledTime(System.currentTimeMillis());
+                requiteToBag(entry);
+                return true;
+            } catch (final Exception e) {
+                logger.error(CREATE_MANAGED_CONNECTION_FAILED.format(this), e);
+                return false;
+            }
+        }
+        poolLock.lock();
+        try {
+            if (closed
+                || activeConnections.size() + awaitingConnections
+                    + idleConnections.size() >= activeConnectionLimit
+                || idleConnections.size() >= maxIdleConnections) {
+                return false;
+            }
+            ++awaitingConnections;
+            updateGauges();
+        } finally {
+            poolLock.unlock();
+        }
+        ManagedConnection<C, E> managedConnection = null;
+        try {
+            managedConnection = newManagedConnection();
+            return true;
+        } catch (final Exception e) {
+            logger.error(CREATE_MANAGED_CONNECTION_FAILED.format(this), e);
+            return false;
+        } finally {
+            poolLock.lock();
+            try {
+                --awaitingConnections;
+                if (managedConnection != null) {
+                    retireTimes.put(managedConnection, Long
+                        .valueOf(newRetireTime(System.currentTimeMillis())));
+                    idle(managedConnection);
+                }
+                allocate();
+            } finally {
+                unlockPool();
+            }
+        }
+    }
+
+    protected int getIdleCount() {
+        if (concurrentBag) {
+            return bag.getCount(Entry.STATE_NOT_IN_USE);
+        }
+        poolLock.lock();
+        try {
+            return idleConnections.size();
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    protected boolean isClosed() {
+        if (concurrentBag) {
+            return bag.isClosed();
+        }
+        poolLock.lock();
+        try {
+            return closed;
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    /**
+     * {@link #poolLock} を解放します．
+     * <p>
+     * ロックを保持している間に割り当てられた非同期の要求は，最も外側のロックを解放した時点で完了させます．
+     * 要求の完了は物理コネクションの作成や検証，{@link ListenableFuture} のコールバックを伴うため，ロックを保持したまま実行してはいけません．
+     * </p>
+     */
+    protected void unlockPool() {
+        poolLock.unlock();
+        if (poolLock.isHeldByCurrentThread()) {
+            return;
+        }
+        AsyncAllocationRequest request;
+        while ((request = readyAsyncRequests.poll()) != null) {
+            request.dispatch();
+        }
+    }
+
+    /**
+     * タスクを {@link WorkManager} で実行します．
+     * <p>
+     * {@link WorkManager} がタスクを受け付けなかった場合は呼び出し元のスレッドで実行します．
+     * タスクは物理コネクションの作成や検証を行うため，{@link #poolLock} を保持したまま呼び出してはいけません．
+     * </p>
+     * 
+     * @param task
+     *            タスク
+     * @return タスクの完了を待機する {@link Future}，呼び出し元のスレッドで実行した場合は {@literal null}
+     */
+    protected ScheduledFuture<Void> submit(final Callable<Void> task) {
+        try {
+            return workManager.schedule(task, 0L, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            try {
+                task.call();
+            } catch (final Exception ex) {
+                logger.error(POOL_TASK_FAILED.format(task, this), ex);
+            }
+            return null;
+        }
+    }
+
+    protected long getHousekeepingPeriodSeconds() {
+        long period = housekeepingIntervalSeconds;
+        if (leakDetectionThresholdSeconds > 0) {
+            period = Math.min(period, leakDetectionThresholdSeconds);
+        }
+        if (maxIdleSeconds > 0) {
+            period = Math.min(period, maxIdleSeconds);
+        }
+        if (maxLifetimeSeconds > 0) {
+            period = Math.min(period, maxLifetimeSeconds);
+        }
+        if (backgroundValidation) {
+            period = Math.min(period, Math.max(minTestOnBorrowIdleSeconds / 2, 1));
+        }
+        return period;
+    }
+
+    protected void scheduleHousekeepingTask() {
+        final long period = getHousekeepingPeriodSeconds();
+        if (period <= 0) {
+            return;
+        }
+        try {
+            housekeeping =
+                workManager.scheduleAtFixedRate(
+                    new HousekeepingTask(),
+                    period,
+                    period);
+        } catch (final RejectedExecutionException e) {
+            throw new ScheduleExpireTaskFailedException(this, e);
+        }
+    }
+
+    protected void scheduleMetricsExportTask() {
+        if (metricsExporters.isEmpty() || metricsExportIntervalSeconds <= 0) {
+            return;
+        }
+        try {
+            metricsExport =
+                workManager.scheduleAtFixedRate(
+                    new MetricsExportTask(),
+                    metricsExportIntervalSeconds,
+                    metricsExportIntervalSeconds);
+        } catch (final RejectedExecutionException e) {
+            logger.error(SCHEDULE_METRICS_EXPORT_TASK_FAILED.format(this), e);
+        }
+    }
+
+    protected void exportMetrics() {
+        final String poolName = getName();
+        for (final ConnectionPoolMetricsExporter metricsExporter : metricsExporters) {
+            try {
+                metricsExporter.export(poolName, this);
+            } catch (final RuntimeException e) {
+                logger.error(EXPORT_METRICS_FAILED.format(
+                    metricsExporter,
+                    this), e);
+            }
+        }
+    }
+
+    protected void registerMBean() {
+        try {
+            final ObjectName objectName =
+                new ObjectName("org.seasar.tramina:type=ConnectionPool,name="
+                    + ObjectName.quote(getName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new ConnectionPoolMXBeanImpl(this),
+                objectName);
+            this.objectName = objectName;
+        } catch (final Exception e) {
+            logger.error(REGISTER_MBEAN_FAILED.format(this), e);
+        }
+    }
+
+    protected void unregisterMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (final Exception e) {
+            logger.error(UNREGISTER_MBEAN_FAILED.format(objectName, this), e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // member types
+    //
+    protected class AllocationRequest {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final CountDownLatch latch = new CountDownLatch(1);
+
+        protected ManagedConnection<C, E> managedConnection;
+
+        protected long idleTimeMillis;
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods
+        //
+        public boolean await() throws E {
+            try {
+                if (maxWaitMillis != 0L
+                    && latch.await(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                    return managedConnection != null;
+                }
+            } catch (final InterruptedException e) {
+                if (cancel()) {
+                    throw new InterruptedRuntimeException(e);
+                }
+                Thread.currentThread().interrupt();
+            }
+            if (!cancel()) {
+                return managedConnection != null;
+            }
+            timeouts.incrementAndGet();
+            throw newTimeoutException();
+        }
+
+        /**
+         * 待ち行列からこの要求を取り除きます．
+         * 
+         * @return 待ち行列から取り除かれた場合は {@literal true}，既に割り当てられていた場合は
+         *         {@literal false}
+         */
+        protected boolean cancel() {
+            poolLock.lock();
+            try {
+                if (latch.getCount() == 0L) {
+                    return false;
+                }
+                allocationRequests.remove(this);
+                updateGauges();
+                return true;
+            } finally {
+                poolLock.unlock();
+            }
+        }
+
+        public void notify(final ManagedConnection<C, E> managedConnection) {
+            this.managedConnection = managedConnection;
+            latch.countDown();
+        }
+
+        /**
+         * @return the managedConnection
+         */
+        public ManagedConnection<C, E> getManagedConnection() {
+            return managedConnection;
+        }
+
+        /**
+         * @return the idleTimeMillis
+         */
+        public long getIdleTimeMillis() {
+            return idleTimeMillis;
+        }
+
+        /**
+         * @param idleTimeMillis
+         *            the idleTimeMillis to set
+         */
+        public void setIdleTimeMillis(final long idleTimeMillis) {
+            this.idleTimeMillis = idleTimeMillis;
+        }
+
+    }
+
+    protected class AsyncAllocationRequest extends AllocationRequest implements
+            Callable<Void> {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final SettableFuture<ManagedConnection<C, E>> future =
+            new SettableFuture<ManagedConnection<C, E>>();
+
+        protected final long deadline;
+
+        protected final long requestedNanos = System.nanoTime();
+
+        protected final Transaction transaction;
+
+        protected PoolEntry entry;
+
+        protected boolean notified;
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param deadline
+         * @param transaction
+         *            コネクションを要求したトランザクション
+         */
+        public AsyncAllocationRequest(final long deadline,
+                final Transaction transaction) {
+            this.deadline = deadline;
+            this.transaction = transaction;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from AllocationRequest
+        //
+        /**
+         * {@link #poolLock} を保持したまま呼び出されるため，要求は {@link #unlockPool()} で完了させます．
+         */
+        @Override
+        public void notify(final ManagedConnection<C, E> managedConnection) {
+            this.managedConnection = managedConnection;
+            notified = true;
+            readyAsyncRequests.add(this);
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Callable
+        //
+        @Override
+        public Void call() throws Exception {
+            completeAsyncRequest(this);
+            return null;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods
+        //
+        /**
+         * @param entry
+         *            the entry to assign, or {@literal null} if a new
+         *            connection should be created
+         */
+        public void assign(final PoolEntry entry) {
+            this.entry = entry;
+            notified = true;
+            dispatch();
+        }
+
+        public void timeout() {
+            if (future.setException(newTimeoutException())) {
+                timeouts.incrementAndGet();
+            }
+        }
+
+        public void reset() {
+            managedConnection = null;
+            entry = null;
+            idleTimeMillis = 0L;
+            notified = false;
+        }
+
+        protected void dispatch() {
+            try {
+                workManager.schedule(this, 0L, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                completeAsyncRequest(this);
+            }
+        }
+
+        /**
+         * @return the future
+         */
+        public SettableFuture<ManagedConnection<C, E>> getFuture() {
+            return future;
+        }
+
+        /**
+         * @return the deadline
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * @return the requestedNanos
+         */
+        public long getRequestedNanos() {
+            return requestedNanos;
+        }
+
+        /**
+         * @return the transaction
+         */
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * @return the entry
+         */
+        public PoolEntry getEntry() {
+            return entry;
+        }
+
+        /**
+         * @return the notified
+         */
+        public boolean isNotified() {
+            return notified;
+        }
+
+    }
+
+    protected class IdleConnection {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected ManagedConnection<C, E> managedConnection;
+
+        protected long idledTime;
+
+        protected long validatedTime;
+
+        /**
+         * バックグラウンドで検証中であることを示します．
+         * <p>
+         * 検証中のコネクションはアイドルリストに残したまま貸し出しや破棄の対象から外すことで，
+         * アイドル状態のコネクションの上限と下限の計算に含まれるようにしています．
+         * </p>
+         */
+        protected boolean validating;
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods
+        //
+        /**
+         * @param managedConnection
+         *            the managedConnection to set
+         * @param idledTime
+         *            the idledTime to set
+         */
+        public void set(final ManagedConnection<C, E> managedConnection,
+                final long idledTime) {
+            this.managedConnection = managedConnection;
+            this.idledTime = idledTime;
+        }
+
+        public boolean isExpired(final long now) {
+            return idledTime + maxIdleSeconds * 1000 < now;
+        }
+
+        /**
+         * @return the managedConnection
+         */
+        public ManagedConnection<C, E> getManagedConnection() {
+            return managedConnection;
+        }
+
+        /**
+         * @return the idledTime
+         */
+        public long getIdledTime() {
+            return idledTime;
+        }
+
+        /**
+         * @param validatedTime
+         *            the validatedTime to set
+         */
+        public void setValidatedTime(final long validatedTime) {
+            this.validatedTime = validatedTime;
+        }
+
+        /**
+         * @return the time the connection was last known to be valid
+         */
+        public long getCheckedTime() {
+            return Math.max(idledTime, validatedTime);
+        }
+
+        /**
+         * @return the validating
+         */
+        public boolean isValidating() {
+            return validating;
+        }
+
+        /**
+         * @param validating
+         *            the validating to set
+         */
+        public void setValidating(final boolean validating) {
+            this.validating = validating;
+        }
+
+    }
+
+    protected class PoolEntry extends ConcurrentBag.Entry {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final ManagedConnection<C, E> managedConnection;
+
+        protected final long createdTime = System.currentTimeMillis();
+
+        protected final long retireTime = newRetireTime(createdTime);
+
+        protected volatile long idledTime = createdTime;
+
+        protected volatile long validatedTime;
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param managedConnection
+         */
+        public PoolEntry(final ManagedConnection<C, E> managedConnection) {
+            this.managedConnection = managedConnection;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods
+        //
+        public boolean isExpired(final long now) {
+            return idledTime + maxIdleSeconds * 1000 < now;
+        }
+
+        public boolean isRetired(final long now) {
+            return retireTime <= now;
+        }
+
+        /**
+         * @return the managedConnection
+         */
+        public ManagedConnection<C, E> getManagedConnection() {
+            return managedConnection;
+        }
+
+        /**
+         * @return the retireTime
+         */
+        public long getRetireTime() {
+            return retireTime;
+        }
+
+        /**
+         * @return the createdTime
+         */
+        public long getCreatedTime() {
+            return createdTime;
+        }
+
+        /**
+         * @return the idledTime
+         */
+        public long getIdledTime() {
+            return idledTime;
+        }
+
+        /**
+         * @param idledTime
+         *            the idledTime to set
+         */
+        public void setIdledTime(final long idledTime) {
+            this.idledTime = idledTime;
+        }
+
+        /**
+         * @param validatedTime
+         *            the validatedTime to set
+         */
+        public void setValidatedTime(final long validatedTime) {
+            this.validatedTime = validatedTime;
+        }
+
+        /**
+         * @return the time the connection was last known to be valid
+         */
+        public long getCheckedTime() {
+            return Math.max(idledTime, validatedTime);
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Object
+        //
+        @Override
+        public String toString() {
+            return super.toString() + "[state : <" + getState()
+                + ">, managedConnection : <" + managedConnection + ">]";
+        }
+
+    }
+
+    protected class AddConnectionTask implements Callable<Void> {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Callable
+        //
+        @Override
+        public Void call() throws Exception {
+            if (bag.getWaitingThreadCount() == 0 && asyncRequests.isEmpty()
+                || bag.isClosed() || !reserveCapacity()) {
+                return null;
+            }
+            try {
+                final PoolEntry entry = createPoolEntry();
+                entry.setIdledTime(System.currentTimeMillis());
+                requiteToBag(entry);
+            } catch (final Exception e) {
+                logger.error(CREATE_MANAGED_CONNECTION_FAILED.format(
+                    AbstractPoolingConnectionManager.this), e);
+            }
+            return null;
+        }
+
+    }
+
+    protected class ReplenishTask implements Callable<Void> {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Callable
+        //
+        @Override
+        public Void call() throws Exception {
+            try {
+                while (!isClosed() && getIdleCount() < minIdleConnections) {
+                    if (!addIdleConnection()) {
+                        break;
+                    }
+                }
+            } finally {
+                replenishTasks.decrementAndGet();
+            }
+            return null;
+        }
+
+    }
+
+    protected class AsyncTimeoutTask implements Callable<Void> {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Callable
+        //
+        @Override
+        public Void call() throws Exception {
+            final long now = System.currentTimeMillis();
+            final List<AsyncAllocationRequest> expiredRequests =
+                new ArrayList<AsyncAllocationRequest>();
+            long nextDeadline = Long.MAX_VALUE;
+            poolLock.lock();
+            try {
+                asyncTimeoutTask = null;
+                if (concurrentBag) {
+                    for (final AsyncAllocationRequest request : asyncRequests) {
+                        if (request.getDeadline() > now
+                            && !request.getFuture().isDone()) {
+                            nextDeadline =
+                                Math.min(nextDeadline, request.getDeadline());
+                        } else if (asyncRequests.remove(request)) {
+                            expiredRequests.add(request);
+                        }
+                    }
+                } else {
+                    for (final Iterator<AllocationRequest> it =
+                        allocationRequests.iterator(); it.hasNext();) {
+                        final AllocationRequest allocationRequest = it.next();
+                        if (!(allocationRequest instanceof AbstractPoolingConnectionManager.AsyncAllocationRequest)) {
+                            continue;
+                        }
+                        final AsyncAllocationRequest request =
+                            (AsyncAllocationRequest) allocationRequest;
+                        if (request.getDeadline() > now
+                            && !request.getFuture().isDone()) {
+                            nextDeadline =
+                                Math.min(nextDeadline, request.getDeadline());
+                        } else {
+                            it.remove();
+                            expiredRequests.add(request);
+                        }
+                    }
+                    updateGauges();
+                }
+                if (nextDeadline != Long.MAX_VALUE) {
+                    scheduleAsyncTimeoutTask(nextDeadline);
+                }
+            } finally {
+                poolLock.unlock();
+            }
+            for (final AsyncAllocationRequest request : expiredRequests) {
+                request.timeout();
+            }
+            return null;
+        }
 
-    protected ScheduledFuture<Void> scheduleExpireTask(
-            final ManagedConnection<C, E> managedConnection) {
-        try {
-            final ExpireTask expireTask = new ExpireTask();
-            return workManager.schedule(expireTask, maxIdleSeconds);
-        } catch (final RejectedExecutionException e) {
-            throw new ScheduleExpireTaskFailedException(managedConnection, e);
-        }
     }
 
-    // /////////////////////////////////////////////////////////////////
-    // member types
-    //
-    protected class AllocationRequest {
+    protected class HousekeepingTask implements Runnable {
 
         // /////////////////////////////////////////////////////////////////
-        // instance fields
+        // instance methods from Runnable
         //
-        protected final CountDownLatch latch = new CountDownLatch(1);
+        @Override
+        public void run() {
+            try {
+                if (leakDetectionThresholdSeconds > 0) {
+                    detectLeaks();
+                }
+                if (poolSizeController != null) {
+                    poolSizeController.adjust();
+                }
+                if (maxLifetimeSeconds > 0) {
+                    if (concurrentBag) {
+                        retireBag();
+                    } else {
+                        retireIdleConnections();
+                    }
+                }
+                if (concurrentBag) {
+                    trimBag();
+                }
+                if (maxIdleSeconds > 0) {
+                    if (concurrentBag) {
+                        expireBag();
+                    } else {
+                        expireIdleConnections();
+                    }
+                }
+                if (backgroundValidation) {
+                    if (concurrentBag) {
+                        validateBag();
+                    } else {
+                        validateIdleConnections();
+                    }
+                }
+                fillPool();
+            } catch (final RuntimeException e) {
+                logger.error(HOUSEKEEPING_FAILED
+                    .format(AbstractPoolingConnectionManager.this), e);
+            }
+        }
 
-        protected ManagedConnection<C, E> managedConnection;
+        protected void detectLeaks() {
+            final long now = System.currentTimeMillis();
+            for (final Map.Entry<ManagedConnection<C, E>, BorrowRecord> entry : borrowRecords
+                .entrySet()) {
+                final ManagedConnection<C, E> managedConnection =
+                    entry.getKey();
+                final BorrowRecord record = entry.getValue();
+                final long heldMillis = now - record.getBorrowedTime();
+                if (leakReclaimThresholdSeconds > 0
+                    && heldMillis >= leakReclaimThresholdSeconds * 1000
+                    && !record.isTransactionActive()) {
+                    if (borrowRecords.remove(managedConnection, record)) {
+                        reclaimLeakedConnection(managedConnection, record);
+                    }
+                } else if (heldMillis >= leakDetectionThresholdSeconds * 1000
+                    && !record.isReported()) {
+                    record.setReported(true);
+                    detectedLeaks.incrementAndGet();
+                    logger.warning(CONNECTION_LEAK_DETECTED.format(
+                        managedConnection,
+                        record.getThreadName(),
+                        heldMillis / 1000,
+                        AbstractPoolingConnectionManager.this), record
+                        .getBorrowSite());
+                }
+            }
+        }
 
-        protected long idleTimeMillis;
+        protected void reclaimLeakedConnection(
+                final ManagedConnection<C, E> managedConnection,
+                final BorrowRecord record) {
+            logger.warning(RECLAIM_LEAKED_CONNECTION.format(
+                managedConnection,
+                record.getThreadName(),
+                AbstractPoolingConnectionManager.this), record.getBorrowSite());
+            try {
+                physicalConnectionErrorOccurred(
+                    managedConnection,
+                    newLeakReclaimedException(managedConnection));
+            } catch (final Exception e) {
+                logger.error(DESTROY_MANAGED_CONNECTION_FAILED.format(
+                    managedConnection,
+                    AbstractPoolingConnectionManager.this), e);
+            }
+            if (!record.isReported()) {
+                detectedLeaks.incrementAndGet();
+            }
+            reclaimedLeaks.incrementAndGet();
+        }
 
-        // /////////////////////////////////////////////////////////////////
-        // instance methods
-        //
-        public boolean await() throws E {
-            if (maxWaitMillis == 0L) {
-                throw newTimeoutException();
+        protected void expireIdleConnections() {
+            final long now = System.currentTimeMillis();
+            final List<ManagedConnection<C, E>> expiredConnections =
+                new ArrayList<ManagedConnection<C, E>>();
+            poolLock.lock();
+            try {
+                for (final Iterator<IdleConnection> it =
+                    idleConnections.iterator(); it.hasNext()
+                    && idleConnections.size() > minIdleConnections;) {
+                    final IdleConnection idleConnection = it.next();
+                    if (idleConnection.isExpired(now)
+                        && !idleConnection.isValidating()) {
+                        it.remove();
+                        expiredConnections.add(idleConnection
+                            .getManagedConnection());
+                        recycle(idleConnection);
+                    }
+                }
+                updateGauges();
+            } finally {
+                poolLock.unlock();
+            }
+            evictions.addAndGet(expiredConnections.size());
+            for (final ManagedConnection<C, E> managedConnection : expiredConnections) {
+                try {
+                    AbstractPoolingConnectionManager.super
+                        .logicalConnectionClosed(managedConnection);
+                } catch (final Exception e) {
+                    logger.error(CLOSE_LOGICAL_CONNECTION_FAILED
+                        .format(managedConnection), e);
+                }
             }
+        }
+
+        protected void trimBag() {
+            int idle = bag.getCount(Entry.STATE_NOT_IN_USE);
+            for (final PoolEntry entry : bag.values(Entry.STATE_NOT_IN_USE)) {
+                if (idle <= maxIdleConnections) {
+                    break;
+                }
+                if (bag.reserve(entry)) {
+                    bag.remove(entry);
+                    destroyPoolEntry(entry);
+                    --idle;
+                }
+            }
+        }
+
+        protected void expireBag() {
+            final long now = System.currentTimeMillis();
+            int idle = bag.getCount(Entry.STATE_NOT_IN_USE);
+            for (final PoolEntry entry : bag.values(Entry.STATE_NOT_IN_USE)) {
+                if (idle <= minIdleConnections) {
+                    break;
+                }
+                if (entry.isExpired(now) && bag.reserve(entry)) {
+                    evictions.incrementAndGet();
+                    bag.remove(entry);
+                    destroyPoolEntry(entry);
+                    --idle;
+                }
+            }
+        }
+
+        protected void retireIdleConnections() {
+            final long now = System.currentTimeMillis();
+            final List<ManagedConnection<C, E>> retiredConnections =
+                new ArrayList<ManagedConnection<C, E>>();
+            poolLock.lock();
             try {
-                if (latch.await(maxWaitMillis, TimeUnit.MILLISECONDS)) {
-                    return managedConnection != null;
+                for (final Iterator<IdleConnection> it =
+                    idleConnections.iterator(); it.hasNext();) {
+                    final IdleConnection idleConnection = it.next();
+                    final ManagedConnection<C, E> managedConnection =
+                        idleConnection.getManagedConnection();
+                    if (isRetired(managedConnection, now)
+                        && !idleConnection.isValidating()) {
+                        it.remove();
+                        retireTimes.remove(managedConnection);
+                        retiredConnections.add(managedConnection);
+                        recycle(idleConnection);
+                    }
+                }
+                updateGauges();
+            } finally {
+                poolLock.unlock();
+            }
+            evictions.addAndGet(retiredConnections.size());
+            for (final ManagedConnection<C, E> managedConnection : retiredConnections) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(RETIRE_MANAGED_CONNECTION.format(
+                        managedConnection,
+                        AbstractPoolingConnectionManager.this));
+                }
+                try {
+                    AbstractPoolingConnectionManager.super
+                        .logicalConnectionClosed(managedConnection);
+                } catch (final Exception e) {
+                    logger.error(CLOSE_LOGICAL_CONNECTION_FAILED
+                        .format(managedConnection), e);
                 }
-                throw newTimeoutException();
-            } catch (final InterruptedException e) {
-                throw new InterruptedRuntimeException(e);
             }
         }
 
-        public void notify(final ManagedConnection<C, E> managedConnection) {
-            this.managedConnection = managedConnection;
-            latch.countDown();
+        protected void retireBag() {
+            final long now = System.currentTimeMillis();
+            for (final PoolEntry entry : bag.values(Entry.STATE_NOT_IN_USE)) {
+                if (entry.isRetired(now) && bag.reserve(entry)) {
+                    evictions.incrementAndGet();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(RETIRE_MANAGED_CONNECTION.format(
+                            entry.getManagedConnection(),
+                            AbstractPoolingConnectionManager.this));
+                    }
+                    bag.remove(entry);
+                    destroyPoolEntry(entry);
+                }
+            }
         }
 
-        /**
-         * @return the managedConnection
-         */
-        public ManagedConnection<C, E> getManagedConnection() {
-            return managedConnection;
+        protected long getValidationThresholdMillis() {
+            return (minTestOnBorrowIdleSeconds - getHousekeepingPeriodSeconds()) * 1000;
         }
 
-        /**
-         * @return the idleTimeMillis
-         */
-        public long getIdleTimeMillis() {
-            return idleTimeMillis;
+        protected void validateIdleConnections() {
+            final long threshold =
+                System.currentTimeMillis() - getValidationThresholdMillis();
+            final List<List<IdleConnection>> batches =
+                new ArrayList<List<IdleConnection>>();
+            List<IdleConnection> batch =
+                new ArrayList<IdleConnection>(validationBatchSize);
+            poolLock.lock();
+            try {
+                for (final Iterator<IdleConnection> it =
+                    idleConnections.iterator(); it.hasNext();) {
+                    final IdleConnection idleConnection = it.next();
+                    if (idleConnection.getCheckedTime() < threshold
+                        && !idleConnection.isValidating()) {
+                        idleConnection.setValidating(true);
+                        batch.add(idleConnection);
+                        if (batch.size() >= validationBatchSize) {
+                            batches.add(batch);
+                            batch =
+                                new ArrayList<IdleConnection>(validationBatchSize);
+                        }
+                    }
+                }
+            } finally {
+                poolLock.unlock();
+            }
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+            }
+            for (final List<IdleConnection> each : batches) {
+                submit(new IdleConnectionValidationTask(each));
+            }
         }
 
-        /**
-         * @param idleTimeMillis
-         *            the idleTimeMillis to set
-         */
-        public void setIdleTimeMillis(final long idleTimeMillis) {
-            this.idleTimeMillis = idleTimeMillis;
+        protected void validateBag() {
+            final long threshold =
+                System.currentTimeMillis() - getValidationThresholdMillis();
+            List<PoolEntry> batch =
+                new ArrayList<PoolEntry>(validationBatchSize);
+            for (final PoolEntry entry : bag.values(Entry.STATE_NOT_IN_USE)) {
+                if (entry.getCheckedTime() < threshold && bag.reserve(entry)) {
+                    batch.add(entry);
+                    if (batch.size() >= validationBatchSize) {
+                        submit(new PoolEntryValidationTask(batch));
+                        batch = new ArrayList<PoolEntry>(validationBatchSize);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(new PoolEntryValidationTask(batch));
+            }
         }
 
     }
 
-    protected class IdleConnection {
+    protected class BorrowRecord {
 
         // /////////////////////////////////////////////////////////////////
         // instance fields
         //
-        protected final ManagedConnection<C, E> managedConnection;
+        protected final long borrowedTime = System.currentTimeMillis();
+
+        protected final long borrowedNanos = System.nanoTime();
+
+        protected final String threadName = Thread.currentThread().getName();
 
-        protected final long idledTime = System.currentTimeMillis();
+        protected final BorrowSite borrowSite;
 
-        protected ScheduledFuture<Void> scheduledFuture;
+        protected final Transaction transaction;
+
+        protected volatile boolean reported;
 
         // /////////////////////////////////////////////////////////////////
         // constructors
         //
         /**
-         * @param managedConnection
+         * @param borrowSite
+         *            the borrowSite, or {@literal null} if not sampled
+         * @param transaction
+         *            the transaction, or {@literal null} if not known
          */
-        public IdleConnection(final ManagedConnection<C, E> managedConnection) {
-            this.managedConnection = managedConnection;
+        public BorrowRecord(final BorrowSite borrowSite,
+                final Transaction transaction) {
+            this.borrowSite = borrowSite;
+            this.transaction = transaction;
         }
 
         // /////////////////////////////////////////////////////////////////
         // instance methods
         //
         /**
-         * @param scheduledFuture
-         *            the scheduledFuture to set
+         * @return the borrowedTime
+         */
+        public long getBorrowedTime() {
+            return borrowedTime;
+        }
+
+        /**
+         * @return the borrowedNanos
+         */
+        public long getBorrowedNanos() {
+            return borrowedNanos;
+        }
+
+        /**
+         * @return the threadName
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+
+        /**
+         * @return the borrowSite
          */
-        public void setScheduledFuture(
-                final ScheduledFuture<Void> scheduledFuture) {
-            this.scheduledFuture = scheduledFuture;
+        public BorrowSite getBorrowSite() {
+            return borrowSite;
         }
 
-        public boolean cancel() {
-            if (scheduledFuture != null) {
-                return scheduledFuture.cancel(false);
+        /**
+         * コネクションを取得したトランザクションがまだ完了していなければ {@literal true} を返します．
+         * <p>
+         * トランザクションの状態を取得できない場合も，回収しないよう {@literal true} を返します．
+         * </p>
+         * 
+         * @return コネクションを取得したトランザクションがまだ完了していなければ {@literal true}
+         */
+        public boolean isTransactionActive() {
+            if (transaction == null) {
+                return false;
+            }
+            try {
+                final int status = transaction.getStatus();
+                return status != Status.STATUS_COMMITTED
+                    && status != Status.STATUS_ROLLEDBACK
+                    && status != Status.STATUS_NO_TRANSACTION;
+            } catch (final SystemException e) {
+                return true;
             }
-            return true;
         }
 
-        public boolean isExpired() {
-            return idledTime + maxIdleSeconds * 1000 < System
-                .currentTimeMillis();
+        /**
+         * @return the reported
+         */
+        public boolean isReported() {
+            return reported;
         }
 
         /**
-         * @return the managedConnection
+         * @param reported
+         *            the reported to set
          */
-        public ManagedConnection<C, E> getManagedConnection() {
-            return managedConnection;
+        public void setReported(final boolean reported) {
+            this.reported = reported;
+        }
+
+    }
+
+    /**
+     * コネクションを取得した場所のスタックトレースを保持します．
+     */
+    protected static class BorrowSite extends Throwable {
+
+        // /////////////////////////////////////////////////////////////////
+        // constants
+        //
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    /**
+     * 使用中のコネクションの上限を負荷に応じて調整します．
+     * <p>
+     * このクラスのインスタンスは定期保守のタスクからだけ呼び出されるため，前回の観測値を同期せずに保持します．
+     * </p>
+     */
+    protected class PoolSizeController {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected long lastNanos = System.nanoTime();
+
+        protected long lastBorrowCount;
+
+        protected long lastBorrowWaitNanos;
+
+        protected long lastHoldCount;
+
+        protected long lastHoldNanos;
+
+        protected long lastCreationCount;
+
+        protected long lastCreationNanos;
+
+        protected long lastTimeouts;
+
+        protected long baselineCreationNanos;
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods
+        //
+        public void adjust() {
+            final long now = System.nanoTime();
+            final long elapsedNanos = now - lastNanos;
+            final long borrowCount = borrowWaitHistogram.getCount();
+            final long borrowWaitNanos =
+                borrowWaitHistogram.getTotal(TimeUnit.NANOSECONDS);
+            final long holdCount = holdTimeHistogram.getCount();
+            final long holdNanos =
+                holdTimeHistogram.getTotal(TimeUnit.NANOSECONDS);
+            final long creationCount = creationTimeHistogram.getCount();
+            final long creationNanos =
+                creationTimeHistogram.getTotal(TimeUnit.NANOSECONDS);
+            final long timeoutCount = timeouts.get();
+
+            final long borrows = borrowCount - lastBorrowCount;
+            final long waitNanos = borrowWaitNanos - lastBorrowWaitNanos;
+            final long holds = holdCount - lastHoldCount;
+            final long heldNanos = holdNanos - lastHoldNanos;
+            final long creations = creationCount - lastCreationCount;
+            final long createdNanos = creationNanos - lastCreationNanos;
+            final long timedOut = timeoutCount - lastTimeouts;
+
+            lastNanos = now;
+            lastBorrowCount = borrowCount;
+            lastBorrowWaitNanos = borrowWaitNanos;
+            lastHoldCount = holdCount;
+            lastHoldNanos = holdNanos;
+            lastCreationCount = creationCount;
+            lastCreationNanos = creationNanos;
+            lastTimeouts = timeoutCount;
+            if (elapsedNanos <= 0L) {
+                return;
+            }
+
+            final int limit = activeConnectionLimit;
+            final int required = getRequiredConnections(
+                borrows,
+                holds,
+                heldNanos,
+                elapsedNanos);
+            int newLimit;
+            if (isCongested(creations, createdNanos)) {
+                newLimit = limit - Math.max(limit / 4, 1);
+            } else if (timedOut > 0
+                || borrows > 0
+                && waitNanos / borrows > TimeUnit.MILLISECONDS
+                    .toNanos(targetBorrowWaitMillis)) {
+                newLimit = Math.max(limit + 1, required);
+            } else if (required < limit) {
+                newLimit = limit - 1;
+            } else {
+                newLimit = limit;
+            }
+            setActiveConnectionLimit(Math.max(Math.min(
+                newLimit,
+                maxActiveConnections), Math.min(
+                minActiveConnections,
+                maxActiveConnections)));
         }
 
         /**
-         * @return the idledTime
+         * Little の法則によって必要なコネクションの数を見積もります．
+         * 
+         * @param borrows
+         *            観測期間中の取得回数
+         * @param holds
+         *            観測期間中の返却回数
+         * @param heldNanos
+         *            観測期間中に返却されたコネクションの使用時間の合計 (ナノ秒単位)
+         * @param elapsedNanos
+         *            観測期間 (ナノ秒単位)
+         * @return 必要なコネクションの数
          */
-        public long getIdledTime() {
-            return idledTime;
+        protected int getRequiredConnections(final long borrows,
+                final long holds, final long heldNanos, final long elapsedNanos) {
+            if (holds <= 0) {
+                return minActiveConnections;
+            }
+            final double arrivalRate = (double) borrows / elapsedNanos;
+            final double meanHoldNanos = (double) heldNanos / holds;
+            return (int) Math.min(
+                Math.ceil(arrivalRate * meanHoldNanos),
+                Integer.MAX_VALUE);
+        }
+
+        /**
+         * 物理コネクションの作成に要する時間からデータベースが過負荷かどうかを判定します．
+         * <p>
+         * 基準値はそれまでの平均の最小値ですが，データベースの性能が恒久的に変化した場合に追従できるよう，観測ごとに少しずつ引き上げられます．
+         * </p>
+         * 
+         * @param creations
+         *            観測期間中に作成された物理コネクションの数
+         * @param createdNanos
+         *            観測期間中の物理コネクションの作成に要した時間の合計 (ナノ秒単位)
+         * @return データベースが過負荷とみなされる場合は {@literal true}
+         */
+        protected boolean isCongested(final long creations,
+                final long createdNanos) {
+            if (creations <= 0) {
+                return false;
+            }
+            final long meanNanos = createdNanos / creations;
+            if (baselineCreationNanos <= 0L) {
+                baselineCreationNanos = meanNanos;
+                return false;
+            }
+            final boolean congested = meanNanos > baselineCreationNanos * 2;
+            baselineCreationNanos =
+                Math.min(meanNanos, baselineCreationNanos
+                    + baselineCreationNanos / 8);
+            return congested;
+        }
+
+    }
+
+    protected class MetricsExportTask implements Runnable {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Runnable
+        //
+        @Override
+        public void run() {
+            exportMetrics();
         }
 
     }
 
-    protected class ExpireTask implements Callable<Void> {
+    protected class IdleConnectionValidationTask implements Callable<Void> {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final List<IdleConnection> batch;
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param batch
+         */
+        public IdleConnectionValidationTask(final List<IdleConnection> batch) {
+            this.batch = batch;
+        }
 
         // /////////////////////////////////////////////////////////////////
         // instance methods from Callable
         //
         @Override
         public Void call() throws Exception {
-            final List<ManagedConnection<C, E>> expiredConnections =
-                new ArrayList<ManagedConnection<C, E>>(maxIdleConnections);
-            synchronized (AbstractPoolingConnectionManager.this) {
-                while (idleConnections.size() > minIdleConnections) {
-                    final IdleConnection idleConnection =
-                        idleConnections.getFirst();
-                    if (idleConnection.isExpired()) {
-                        expiredConnections.add(idleConnections
-                            .removeFirst()
-                            .getManagedConnection());
-                    } else {
-                        break;
+            for (final IdleConnection idleConnection : batch) {
+                final ManagedConnection<C, E> managedConnection =
+                    idleConnection.getManagedConnection();
+                final boolean valid = validateInBackground(managedConnection);
+                poolLock.lock();
+                try {
+                    if (!idleConnection.isValidating()
+                        || idleConnection.getManagedConnection() != managedConnection) {
+                        continue;
+                    }
+                    idleConnection.setValidating(false);
+                    if (valid && !closed) {
+                        idleConnection.setValidatedTime(System
+                            .currentTimeMillis());
+                        allocate();
+                        continue;
                     }
+                    idleConnections.remove(idleConnection);
+                    recycle(idleConnection);
+                    updateGauges();
+                } finally {
+                    unlockPool();
+                }
+                try {
+                    AbstractPoolingConnectionManager.super
+                        .logicalConnectionClosed(managedConnection);
+                } catch (final Exception e) {
+                    logger.error(CLOSE_LOGICAL_CONNECTION_FAILED
+                        .format(managedConnection), e);
                 }
             }
-            for (final ManagedConnection<C, E> managedConnection : expiredConnections) {
-                AbstractPoolingConnectionManager.super
-                    .logicalConnectionClosed(managedConnection);
+            return null;
+        }
+
+    }
+
+    protected class PoolEntryValidationTask implements Callable<Void> {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final List<PoolEntry> batch;
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param batch
+         */
+        public PoolEntryValidationTask(final List<PoolEntry> batch) {
+            this.batch = batch;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Callable
+        //
+        @Override
+        public Void call() throws Exception {
+            for (final PoolEntry entry : batch) {
+                if (validateInBackground(entry.getManagedConnection())) {
+                    entry.setValidatedTime(System.currentTimeMillis());
+                    unreserveToBag(entry);
+                } else {
+                    bag.remove(entry);
+                    destroyPoolEntry(entry);
+                }
             }
             return null;
         }
+
     }
 
 }
@@ -31,6 +31,9 @@ import org.seasar.tramina.resource.ManagedConnectionFactory;
 import org.seasar.tramina.resource.ResourceManager;
 import org.seasar.tramina.resource.exception.RecoveryIndoubtTransactionFailedException;
 import org.seasar.tramina.spi.RecoveryManager;
+import org.seasar.tramina.work.FutureCallback;
+import org.seasar.tramina.work.ListenableFuture;
+import org.seasar.tramina.work.impl.SettableFuture;
 
 import static org.seasar.tramina.activity.impl.ActivityAssertions.*;
 import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
@@ -100,6 +103,11 @@ public abstract class AbstractResourceManager<RM extends AbstractResourceManager
                 throw new RecoveryIndoubtTransactionFailedException(this, e);
             }
         }
+        try {
+            firstConnectionManager.warmUp();
+        } catch (final Exception e) {
+            logger.error(WARM_UP_FAILED.format(this), e);
+        }
     }
 
     @Override
@@ -176,6 +184,36 @@ public abstract class AbstractResourceManager<RM extends AbstractResourceManager
             .getLogicalConnection();
     }
 
+    protected ListenableFuture<C> getLogicalConnectionAsync() {
+        assertInitialized(this);
+        final SettableFuture<C> future = new SettableFuture<C>();
+        firstConnectionManager.getManagedConnectionAsync().addCallback(
+            new FutureCallback<ManagedConnection<C, E>>() {
+
+                @Override
+                public void onSuccess(
+                        final ManagedConnection<C, E> managedConnection) {
+                    try {
+                        if (future.isDone()) {
+                            firstConnectionManager
+                                .logicalConnectionClosed(managedConnection);
+                            return;
+                        }
+                        future.set(managedConnection.getLogicalConnection());
+                    } catch (final Exception e) {
+                        future.setException(e);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    future.setException(cause);
+                }
+
+            });
+        return future;
+    }
+
     // /////////////////////////////////////////////////////////////////
     // member types
     //
@@ -226,6 +264,18 @@ public abstract class AbstractResourceManager<RM extends AbstractResourceManager
             return managedConnection;
         }
 
+        @Override
+        public ListenableFuture<ManagedConnection<C, E>> getManagedConnectionAsync() {
+            final SettableFuture<ManagedConnection<C, E>> future =
+                new SettableFuture<ManagedConnection<C, E>>();
+            try {
+                future.set(getManagedConnection());
+            } catch (final Exception e) {
+                future.setException(e);
+            }
+            return future;
+        }
+
         @Override
         public void logicalConnectionClosed(
                 final ManagedConnection<C, E> managedConnection) throws E {
@@ -263,6 +313,10 @@ public abstract class AbstractResourceManager<RM extends AbstractResourceManager
             }
         }
 
+        @Override
+        public void warmUp() throws E {
+        }
+
         @Override
         public void destroy() throws E {
             managedConnectionFactory.destroy();
@@ -19,16 +19,20 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
-import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
+import javax.transaction.xa.XAResource;
 
 import org.seasar.tramina.logging.Logger;
 import org.seasar.tramina.logging.LoggerFactory;
 import org.seasar.tramina.resource.ManagedConnection;
+import org.seasar.tramina.spi.ReadOnlyAwareSynchronization;
 import org.seasar.tramina.spi.ToplevelTransaction;
 import org.seasar.tramina.spi.TraminaTransaction;
 import org.seasar.tramina.spi.TraminaTransactionManager;
+import org.seasar.tramina.work.FutureCallback;
+import org.seasar.tramina.work.ListenableFuture;
+import org.seasar.tramina.work.impl.SettableFuture;
 
 import static org.seasar.tramina.activity.impl.ActivityAssertions.*;
 import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
@@ -88,6 +92,51 @@ public abstract class AbstractTxBoundConnectionManager<CM extends AbstractTxBoun
         return managedConnection;
     }
 
+    @Override
+    public ListenableFuture<ManagedConnection<C, E>> getManagedConnectionAsync() {
+        assertInitialized(this);
+        final SettableFuture<ManagedConnection<C, E>> future =
+            new SettableFuture<ManagedConnection<C, E>>();
+        final TraminaTransaction currentTransaction;
+        try {
+            currentTransaction = getTransaction();
+        } catch (final Exception e) {
+            future.setException(e);
+            return future;
+        }
+        if (currentTransaction == null) {
+            return super.getManagedConnectionAsync();
+        }
+        final ToplevelTransaction toplevelTransaction =
+            currentTransaction.getToplevelTransaction();
+        final ManagedConnection<C, E> boundConnection =
+            managedConnections.get(toplevelTransaction);
+        if (boundConnection != null) {
+            future.set(boundConnection);
+            return future;
+        }
+        super.getManagedConnectionAsync().addCallback(
+            new FutureCallback<ManagedConnection<C, E>>() {
+
+                @Override
+                public void onSuccess(
+                        final ManagedConnection<C, E> managedConnection) {
+                    bind(
+                        managedConnection,
+                        currentTransaction,
+                        toplevelTransaction,
+                        future);
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    future.setException(cause);
+                }
+
+            });
+        return future;
+    }
+
     @Override
     public void logicalConnectionClosed(
             final ManagedConnection<C, E> managedConnection) throws E {
@@ -211,6 +260,7 @@ public abstract class AbstractTxBoundConnectionManager<CM extends AbstractTxBoun
             final ToplevelTransaction toplevelTransaction) throws E {
         try {
             currentTransaction.registerSynchronization(new SynchronizationImpl(
+                managedConnection,
                 toplevelTransaction));
         } catch (final Exception e) {
             throw newRegisterSynchronizationFailedException(
@@ -220,6 +270,47 @@ public abstract class AbstractTxBoundConnectionManager<CM extends AbstractTxBoun
         }
     }
 
+    protected void bind(final ManagedConnection<C, E> managedConnection,
+            final TraminaTransaction currentTransaction,
+            final ToplevelTransaction toplevelTransaction,
+            final SettableFuture<ManagedConnection<C, E>> future) {
+        final ManagedConnection<C, E> boundConnection =
+            managedConnections.get(toplevelTransaction);
+        if (boundConnection != null) {
+            closeLogicalConnection(managedConnection);
+            future.set(boundConnection);
+            return;
+        }
+        try {
+            enlistResource(managedConnection, currentTransaction);
+            registerSynchronization(
+                managedConnection,
+                currentTransaction,
+                toplevelTransaction);
+        } catch (final Exception e) {
+            closeLogicalConnection(managedConnection);
+            future.setException(e);
+            return;
+        }
+        managedConnections.put(toplevelTransaction, managedConnection);
+        if (logger.isDebugEnabled()) {
+            logger.debug(MANAGED_CONNECTION_BOUND_TRANSACTION.format(
+                managedConnection,
+                currentTransaction));
+        }
+        future.set(managedConnection);
+    }
+
+    protected void closeLogicalConnection(
+            final ManagedConnection<C, E> managedConnection) {
+        try {
+            super.logicalConnectionClosed(managedConnection);
+        } catch (final Exception e) {
+            logger.error(CLOSE_LOGICAL_CONNECTION_FAILED
+                .format(managedConnection), e);
+        }
+    }
+
     protected void unbound(final ToplevelTransaction toplevelTransaction) {
         final ManagedConnection<C, E> managedConnection =
             managedConnections.remove(toplevelTransaction);
@@ -247,15 +338,21 @@ public abstract class AbstractTxBoundConnectionManager<CM extends AbstractTxBoun
      * 
      * @author koichik
      */
-    protected class SynchronizationImpl implements Synchronization {
+    protected class SynchronizationImpl implements
+            ReadOnlyAwareSynchronization {
+
+        protected final ManagedConnection<C, E> managedConnection;
 
         protected final ToplevelTransaction toplevelTransaction;
 
         /**
+         * @param managedConnection
          * @param toplevelTransaction
          */
         private SynchronizationImpl(
+                final ManagedConnection<C, E> managedConnection,
                 final ToplevelTransaction toplevelTransaction) {
+            this.managedConnection = managedConnection;
             this.toplevelTransaction = toplevelTransaction;
         }
 
@@ -263,6 +360,21 @@ public abstract class AbstractTxBoundConnectionManager<CM extends AbstractTxBoun
         public void beforeCompletion() {
         }
 
+        @Override
+        public void afterReadOnlyPrepared(final XAResource xaResource) {
+            if (managedConnections.get(toplevelTransaction) != managedConnection) {
+                return;
+            }
+            try {
+                if (managedConnection.getXAResource() != xaResource) {
+                    return;
+                }
+            } catch (final Exception e) {
+                return;
+            }
+            unbound(toplevelTransaction);
+        }
+
         @Override
         public void afterCompletion(final int status) {
             unbound(toplevelTransaction);
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.resource.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
+
+/**
+ * ロックを使わずに要素を貸し出し・返却するバッグです．
+ * <p>
+ * 要素は {@link CopyOnWriteArrayList} で共有され，貸し出し状態は各要素の状態を CAS
+ * で更新することで管理します．要素がない場合に待機しているスレッドへは {@link SynchronousQueue}
+ * を通じて返却された要素を直接手渡します．
+ * </p>
+ * <p>
+ * 各スレッドが最後に返却した要素はスレッドローカルに保持され，次の貸し出しでは共有リストを走査する前にその要素を優先して貸し出します．
+ * </p>
+ * 
+ * @param <T>
+ *            バッグに格納する要素の型
+ * @author koichik
+ */
+public class ConcurrentBag<T extends ConcurrentBag.Entry> {
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    /** バッグに格納された全ての要素 */
+    protected final CopyOnWriteArrayList<T> sharedList =
+        new CopyOnWriteArrayList<T>();
+
+    /** 要素の返却を待機しているスレッドの数 */
+    protected final AtomicInteger waiters = new AtomicInteger();
+
+    /** 待機しているスレッドへ要素を手渡すためのキュー */
+    protected final SynchronousQueue<T> handoffQueue =
+        new SynchronousQueue<T>(true);
+
+    /** 各スレッドが最後に返却した要素 */
+    protected final ThreadLocal<WeakReference<T>> threadLocalEntry =
+        new ThreadLocal<WeakReference<T>>();
+
+    /** バッグがクローズされていれば {@literal true} */
+    protected volatile boolean closed;
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods
+    //
+    /**
+     * 未使用の要素を貸し出します．
+     * 
+     * @param timeout
+     *            未使用の要素がない場合に待機する時間
+     * @param unit
+     *            {@code timeout} の単位
+     * @return 貸し出された要素．タイムアウトした場合は {@literal null}
+     * @throws InterruptedException
+     *             待機中に割り込まれた場合
+     */
+    public T borrow(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        final WeakReference<T> ref = threadLocalEntry.get();
+        if (ref != null) {
+            final T entry = ref.get();
+            if (entry != null
+                && entry.compareAndSetState(
+                    Entry.STATE_NOT_IN_USE,
+                    Entry.STATE_IN_USE)) {
+                return entry;
+            }
+        }
+        T entry = scan();
+        if (entry != null || timeout <= 0) {
+            return entry;
+        }
+        waiters.incrementAndGet();
+        try {
+            long remaining = unit.toNanos(timeout);
+            final long deadline = System.nanoTime() + remaining;
+            do {
+                entry = scan();
+                if (entry != null) {
+                    return entry;
+                }
+                entry = handoffQueue.poll(remaining, NANOSECONDS);
+                if (entry != null && entry.compareAndSetState(
+                    Entry.STATE_NOT_IN_USE,
+                    Entry.STATE_IN_USE)) {
+                    return entry;
+                }
+                remaining = deadline - System.nanoTime();
+            } while (remaining > 0 && !closed);
+            return null;
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 貸し出されていた要素を返却します．
+     * <p>
+     * 返却された要素は現在のスレッドが次に貸し出す要素として記憶されます．
+     * 待機しているスレッドがあれば返却された要素を直接手渡します．
+     * </p>
+     * 
+     * @param entry
+     *            返却する要素
+     */
+    public void requite(final T entry) {
+        assertParameterNotNull("entry", entry);
+        entry.setState(Entry.STATE_NOT_IN_USE);
+        final WeakReference<T> ref = threadLocalEntry.get();
+        if (ref == null || ref.get() != entry) {
+            threadLocalEntry.set(new WeakReference<T>(entry));
+        }
+        handoff(entry);
+    }
+
+    /**
+     * 要素をバッグに追加します．
+     * <p>
+     * 要素が未使用状態で待機しているスレッドがあれば直接手渡します．
+     * </p>
+     * 
+     * @param entry
+     *            追加する要素
+     */
+    public void add(final T entry) {
+        assertParameterNotNull("entry", entry);
+        sharedList.add(entry);
+        handoff(entry);
+    }
+
+    /**
+     * 貸し出し中または予約済みの要素をバッグから取り除きます．
+     * 
+     * @param entry
+     *            取り除く要素
+     * @return 要素を取り除いた場合は {@literal true}
+     */
+    public boolean remove(final T entry) {
+        assertParameterNotNull("entry", entry);
+        if (!entry.compareAndSetState(Entry.STATE_IN_USE, Entry.STATE_REMOVED)
+            && !entry.compareAndSetState(
+                Entry.STATE_RESERVED,
+                Entry.STATE_REMOVED)) {
+            return false;
+        }
+        return sharedList.remove(entry);
+    }
+
+    /**
+     * 未使用の要素を貸し出しの対象外として予約します．
+     * 
+     * @param entry
+     *            予約する要素
+     * @return 予約できた場合は {@literal true}
+     */
+    public boolean reserve(final T entry) {
+        assertParameterNotNull("entry", entry);
+        return entry.compareAndSetState(
+            Entry.STATE_NOT_IN_USE,
+            Entry.STATE_RESERVED);
+    }
+
+    /**
+     * 予約した要素を未使用状態に戻します．
+     * 
+     * @param entry
+     *            予約を解除する要素
+     */
+    public void unreserve(final T entry) {
+        assertParameterNotNull("entry", entry);
+        if (entry.compareAndSetState(
+            Entry.STATE_RESERVED,
+            Entry.STATE_NOT_IN_USE)) {
+            handoff(entry);
+        }
+    }
+
+    /**
+     * バッグをクローズします．
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * @return バッグがクローズされていれば {@literal true}
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return バッグに格納された全ての要素のスナップショット
+     */
+    public List<T> values() {
+        return new ArrayList<T>(sharedList);
+    }
+
+    /**
+     * 指定された状態の要素を返します．
+     * 
+     * @param state
+     *            要素の状態
+     * @return 指定された状態の要素のスナップショット
+     */
+    public List<T> values(final int state) {
+        final List<T> result = new ArrayList<T>();
+        for (final T entry : sharedList) {
+            if (entry.getState() == state) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 指定された状態の要素の数を返します．
+     * 
+     * @param state
+     *            要素の状態
+     * @return 指定された状態の要素の数
+     */
+    public int getCount(final int state) {
+        int count = 0;
+        for (final T entry : sharedList) {
+            if (entry.getState() == state) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return バッグに格納された要素の数
+     */
+    public int size() {
+        return sharedList.size();
+    }
+
+    /**
+     * @return 要素の返却を待機しているスレッドの数
+     */
+    public int getWaitingThreadCount() {
+        return waiters.get();
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from Object
+    //
+    @Override
+    public String toString() {
+        return super.toString() + "[size : <" + sharedList.size()
+            + ">, waiters : <" + waiters.get() + ">, closed : <" + closed
+            + ">]";
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for internal
+    //
+    protected T scan() {
+        for (final T entry : sharedList) {
+            if (entry.compareAndSetState(
+                Entry.STATE_NOT_IN_USE,
+                Entry.STATE_IN_USE)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    protected void handoff(final T entry) {
+        for (int i = 0; waiters.get() > 0; ++i) {
+            if (entry.getState() != Entry.STATE_NOT_IN_USE
+                || handoffQueue.offer(entry)) {
+                return;
+            }
+            if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(MICROSECONDS.toNanos(10));
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // member types
+    //
+    /**
+     * {@link ConcurrentBag} に格納される要素です．
+     * 
+     * @author koichik
+     */
+    public abstract static class Entry {
+
+        // /////////////////////////////////////////////////////////////////
+        // constants
+        //
+        /** 未使用 */
+        public static final int STATE_NOT_IN_USE = 0;
+
+        /** 貸し出し中 */
+        public static final int STATE_IN_USE = 1;
+
+        /** バッグから取り除かれた */
+        public static final int STATE_REMOVED = -1;
+
+        /** 貸し出しの対象外として予約された */
+        public static final int STATE_RESERVED = -2;
+
+        // /////////////////////////////////////////////////////////////////
+        // static fields
+        //
+        private static final AtomicIntegerFieldUpdater<Entry> stateUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        /** 要素の状態 */
+        private volatile int state;
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods
+        //
+        /**
+         * @return 要素の状態
+         */
+        public int getState() {
+            return state;
+        }
+
+        /**
+         * @param state
+         *            要素の状態
+         */
+        public void setState(final int state) {
+            this.state = state;
+        }
+
+        /**
+         * 要素の状態を不可分に更新します．
+         * 
+         * @param expect
+         *            期待する現在の状態
+         * @param update
+         *            新しい状態
+         * @return 更新できた場合は {@literal true}
+         */
+        public boolean compareAndSetState(final int expect, final int update) {
+            return stateUpdater.compareAndSet(this, expect, update);
+        }
+
+    }
+
+}
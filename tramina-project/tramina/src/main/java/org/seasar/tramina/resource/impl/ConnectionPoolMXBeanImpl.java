@@ -0,0 +1,161 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.resource.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.seasar.tramina.resource.ConnectionPoolMXBean;
+import org.seasar.tramina.resource.ConnectionPoolMetrics;
+
+/**
+ * {@link ConnectionPoolMetrics} を {@link ConnectionPoolMXBean} として公開するアダプタです．
+ * 
+ * @author koichik
+ */
+public class ConnectionPoolMXBeanImpl implements ConnectionPoolMXBean {
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    protected final ConnectionPoolMetrics metrics;
+
+    // /////////////////////////////////////////////////////////////////
+    // constructors
+    //
+    /**
+     * @param metrics
+     */
+    public ConnectionPoolMXBeanImpl(final ConnectionPoolMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from ConnectionPoolMXBean
+    //
+    @Override
+    public int getActiveConnections() {
+        return metrics.getActiveConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return metrics.getIdleConnections();
+    }
+
+    @Override
+    public int getAwaitingConnections() {
+        return metrics.getAwaitingConnections();
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return metrics.getPendingRequests();
+    }
+
+    @Override
+    public int getActiveConnectionLimit() {
+        return metrics.getActiveConnectionLimit();
+    }
+
+    @Override
+    public long getCreatedConnections() {
+        return metrics.getCreatedConnections();
+    }
+
+    @Override
+    public long getValidationFailures() {
+        return metrics.getValidationFailures();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return metrics.getTimeouts();
+    }
+
+    @Override
+    public long getEvictions() {
+        return metrics.getEvictions();
+    }
+
+    @Override
+    public long getDetectedLeaks() {
+        return metrics.getDetectedLeaks();
+    }
+
+    @Override
+    public long getReclaimedLeaks() {
+        return metrics.getReclaimedLeaks();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return metrics.getBorrowWaitHistogram().getCount();
+    }
+
+    @Override
+    public long getBorrowWaitMeanMicros() {
+        return metrics.getBorrowWaitHistogram().getMean(TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getBorrowWait99thPercentileMicros() {
+        return metrics.getBorrowWaitHistogram().getPercentile(
+            99.0,
+            TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getBorrowWaitMaxMicros() {
+        return metrics.getBorrowWaitHistogram().getMax(TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getCreationTimeMeanMicros() {
+        return metrics.getCreationTimeHistogram().getMean(
+            TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getCreationTime99thPercentileMicros() {
+        return metrics.getCreationTimeHistogram().getPercentile(
+            99.0,
+            TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getCreationTimeMaxMicros() {
+        return metrics.getCreationTimeHistogram().getMax(TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getHoldTimeMeanMicros() {
+        return metrics.getHoldTimeHistogram().getMean(TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getValidationTimeMeanMicros() {
+        return metrics.getValidationTimeHistogram().getMean(
+            TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getValidationTime99thPercentileMicros() {
+        return metrics.getValidationTimeHistogram().getPercentile(
+            99.0,
+            TimeUnit.MICROSECONDS);
+    }
+
+}
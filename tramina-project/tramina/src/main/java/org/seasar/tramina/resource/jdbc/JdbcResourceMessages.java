@@ -53,6 +53,10 @@ public enum JdbcResourceMessages implements EnumMessage {
             "Timeout waiting for managed connection from connection pool.",
             "コネクションプールからマネージドコネクションの取得中にタイムアウトしました．"),
 
+    LEAKED_MANAGED_CONNECTION_RECLAIMED(
+            "Leaked managed connection was reclaimed by connection pool. managedConnection={0}",
+            "返却されなかったマネージドコネクションをコネクションプールが回収しました．managedConnection={0}"),
+
     MANAGED_CONNECTION_PURGED(
             "Managed connection was purged. managedConnection={0}",
             "マネージドコネクションを破棄しました．managedConnection={0}"),
@@ -64,6 +68,7 @@ public enum JdbcResourceMessages implements EnumMessage {
     ROLLBACK_SAVEPOINT_FAILED("", "セーブポイントのロールバックで例外が発生しました．xaResource={0}"),
     START_RESOURCE_FAILED("", "トランザクションの開始で例外が発生しました．xaResource={0}"),
     COMMIT_RESOURCE_FAILED("", "トランザクションのコミットで例外が発生しました．xaResource={0}"),
+    WRITE_COMMIT_DECISION_FAILED("", "コミットの決定の記録で例外が発生しました．xaResource={0}"),
     ROLLBACK_RESOURCE_FAILED("", "トランザクションのロールバックで例外が発生しました．xaResource={0}"),
 
     RESOURCE_ALREADY_STARTED("", "リソースは既に開始されています．xaResource={0}"),
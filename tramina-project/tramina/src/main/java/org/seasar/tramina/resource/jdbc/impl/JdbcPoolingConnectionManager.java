@@ -21,6 +21,7 @@ import java.sql.SQLException;
 import org.seasar.tramina.resource.ManagedConnection;
 import org.seasar.tramina.resource.impl.AbstractPoolingConnectionManager;
 import org.seasar.tramina.resource.jdbc.JdbcManagedConnection;
+import org.seasar.tramina.resource.jdbc.exception.LeakedManagedConnectionReclaimedException;
 import org.seasar.tramina.resource.jdbc.exception.TimeoutWaitingManagedConnectionException;
 
 /**
@@ -49,4 +50,10 @@ public class JdbcPoolingConnectionManager
         return new TimeoutWaitingManagedConnectionException();
     }
 
+    @Override
+    protected SQLException newLeakReclaimedException(
+            final ManagedConnection<Connection, SQLException> managedConnection) {
+        return new LeakedManagedConnectionReclaimedException(managedConnection);
+    }
+
 }
@@ -26,6 +26,7 @@ import org.seasar.tramina.resource.impl.AbstractResourceManager;
 import org.seasar.tramina.resource.jdbc.exception.InterfaceNotImplementedException;
 import org.seasar.tramina.resource.jdbc.exception.TimeoutWaitingManagedConnectionException;
 import org.seasar.tramina.resource.jdbc.exception.UnsupportedOperationSQLException;
+import org.seasar.tramina.work.ListenableFuture;
 
 /**
  * 
@@ -85,4 +86,20 @@ public class JdbcResourceManager extends
         throw new InterfaceNotImplementedException(this, iface);
     }
 
+    // /////////////////////////////////////////////////////////////////
+    // instance methods
+    //
+    /**
+     * 論理コネクションを非同期に取得します．
+     * <p>
+     * コネクションプールに空きがない場合でも呼び出し元のスレッドはブロックされません．
+     * 返される {@link ListenableFuture} はコネクションを取得できた時点，またはプールの最大待機時間を過ぎた時点で完了します．
+     * </p>
+     * 
+     * @return 論理コネクションを結果とする {@link ListenableFuture}
+     */
+    public ListenableFuture<Connection> getConnectionAsync() {
+        return getLogicalConnectionAsync();
+    }
+
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.resource.jdbc.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.Xid;
+
+import org.seasar.tramina.recovery.JdbcTransactionLogManagerDialect;
+import org.seasar.tramina.resource.jdbc.exception.WriteCommitDecisionXAException;
+import org.seasar.tramina.spi.LoglessLastXAResource;
+
+import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
+
+/**
+ * コミットの決定をトランザクションログのテーブルに挿入する {@link LoglessLastXAResource} の実装です．
+ * <p>
+ * 挿入はローカルトランザクションの中で行われるため，ラストリソースのコミットと共に確定します．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class LoglessLastXAResourceImpl extends LastXAResourceImpl implements
+        LoglessLastXAResource {
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    protected final JdbcTransactionLogManagerDialect logDialect;
+
+    // /////////////////////////////////////////////////////////////////
+    // constructors
+    //
+    /**
+     * @param connection
+     * @param logDialect
+     */
+    public LoglessLastXAResourceImpl(final Connection connection,
+            final JdbcTransactionLogManagerDialect logDialect) {
+        super(connection);
+        assertParameterNotNull("logDialect", logDialect);
+        this.logDialect = logDialect;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from LoglessLastXAResource
+    //
+    @Override
+    public void writeCommitDecision(final Xid xid) throws XAException {
+        assertParameterNotNull("xid", xid);
+        assertEnded();
+        try {
+            final PreparedStatement ps =
+                connection.prepareStatement(logDialect.getInsertSql());
+            try {
+                logDialect.bindParameterToInsertSql(ps, xid);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        } catch (final SQLException e) {
+            throw new WriteCommitDecisionXAException(this, e);
+        }
+    }
+
+}
@@ -33,6 +33,7 @@ import org.seasar.tramina.resource.jdbc.exception.ResourceNotSuspendedException;
 import org.seasar.tramina.resource.jdbc.exception.RollbackResourceFailedException;
 import org.seasar.tramina.resource.jdbc.exception.SetAutoCommitFailedException;
 import org.seasar.tramina.resource.jdbc.exception.StartResourceFailedException;
+import org.seasar.tramina.spi.ResourceManagerIdentifiable;
 
 import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
 import static org.seasar.tramina.resource.jdbc.impl.PseudoXAResourceImpl.StatusType.*;
@@ -44,7 +45,8 @@ import static org.seasar.tramina.spi.VoteType.*;
  * 
  * @author koichik
  */
-public class PseudoXAResourceImpl implements XAResource {
+public class PseudoXAResourceImpl implements XAResource,
+        ResourceManagerIdentifiable {
 
     // /////////////////////////////////////////////////////////////////
     // member types
@@ -67,6 +69,8 @@ public class PseudoXAResourceImpl implements XAResource {
 
     protected Xid xid;
 
+    protected int transactionTimeout;
+
     // /////////////////////////////////////////////////////////////////
     // constructors
     //
@@ -87,6 +91,17 @@ public class PseudoXAResourceImpl implements XAResource {
         return false;
     }
 
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from ResourceManagerIdentifiable
+    //
+    /**
+     * ローカルトランザクションはコネクションごとに独立しているため，このインスタンス自身を返します．
+     */
+    @Override
+    public Object getResourceManagerId() {
+        return this;
+    }
+
     @Override
     public void start(final Xid xid, final int flags) throws XAException {
         assertParameterNotNull("xid", xid);
@@ -185,12 +200,20 @@ public class PseudoXAResourceImpl implements XAResource {
 
     @Override
     public int getTransactionTimeout() throws XAException {
-        return 0;
+        return transactionTimeout;
     }
 
+    /**
+     * トランザクションタイムアウトを設定します．
+     * <p>
+     * ローカルトランザクション自体にはタイムアウトがないため，
+     * タイムアウトの監視とロールバックはトランザクションマネージャが行います．
+     * </p>
+     */
     @Override
     public boolean setTransactionTimeout(final int seconds) throws XAException {
-        return false;
+        transactionTimeout = seconds;
+        return true;
     }
 
     // /////////////////////////////////////////////////////////////////
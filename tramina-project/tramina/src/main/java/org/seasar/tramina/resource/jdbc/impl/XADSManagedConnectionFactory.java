@@ -24,6 +24,7 @@ import javax.sql.XADataSource;
 import org.seasar.tramina.activity.impl.AbstractComponent;
 import org.seasar.tramina.logging.Logger;
 import org.seasar.tramina.logging.LoggerFactory;
+import org.seasar.tramina.recovery.JdbcTransactionLogManagerDialect;
 import org.seasar.tramina.resource.ManagedConnection;
 import org.seasar.tramina.resource.ManagedConnectionFactory;
 import org.seasar.tramina.resource.impl.AbstractConnectionManager;
@@ -61,6 +62,8 @@ public class XADSManagedConnectionFactory extends
     protected ManagedConnectionFactoryDialect dialect =
         new StandardManagedConnectionFactoryDialect();
 
+    protected JdbcTransactionLogManagerDialect commitDecisionLogDialect;
+
     // /////////////////////////////////////////////////////////////////
     // instance methods from ManagedConnectionFactory
     //
@@ -81,7 +84,8 @@ public class XADSManagedConnectionFactory extends
         return new PooledJdbcManagedConnection(new XAResourceFactoryImpl(
             lastResource,
             subtransactionAwareResource,
-            dialect), xaConnection);
+            dialect,
+            commitDecisionLogDialect), xaConnection);
     }
 
     @Override
@@ -109,7 +113,9 @@ public class XADSManagedConnectionFactory extends
         return super.toString() + "[xaDataSource : <" + xaDataSource
             + ">, lastResource : <" + lastResource
             + ">, subtransactionAwareResource : <"
-            + subtransactionAwareResource + ">, dialect : <" + dialect + ">]";
+            + subtransactionAwareResource + ">, dialect : <" + dialect
+            + ">, commitDecisionLogDialect : <" + commitDecisionLogDialect
+            + ">]";
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -149,6 +155,26 @@ public class XADSManagedConnectionFactory extends
         return this;
     }
 
+    /**
+     * ラストリソースがコミットの決定を自身のデータベースに記録するための方言を設定します．
+     * <p>
+     * 設定した場合，サブトランザクションに対応しないラストリソースは {@link LoglessLastXAResourceImpl} になります．
+     * 方言のテーブルはラストリソースと同じデータベースに存在しなければなりません．
+     * </p>
+     * 
+     * @param commitDecisionLogDialect
+     *            the commitDecisionLogDialect to set
+     */
+    public XADSManagedConnectionFactory setCommitDecisionLogDialect(
+            final JdbcTransactionLogManagerDialect commitDecisionLogDialect) {
+        assertBeforeInitialized(this);
+        assertParameterNotNull(
+            "commitDecisionLogDialect",
+            commitDecisionLogDialect);
+        this.commitDecisionLogDialect = commitDecisionLogDialect;
+        return this;
+    }
+
     /**
      * @param dialect
      *            the dialect to set
@@ -22,6 +22,7 @@ import javax.sql.PooledConnection;
 import javax.sql.XAConnection;
 import javax.transaction.xa.XAResource;
 
+import org.seasar.tramina.recovery.JdbcTransactionLogManagerDialect;
 import org.seasar.tramina.resource.jdbc.ManagedConnectionFactoryDialect;
 import org.seasar.tramina.resource.jdbc.XAResourceFactory;
 
@@ -43,6 +44,8 @@ public class XAResourceFactoryImpl implements XAResourceFactory {
 
     protected final ManagedConnectionFactoryDialect dialect;
 
+    protected final JdbcTransactionLogManagerDialect commitDecisionLogDialect;
+
     // /////////////////////////////////////////////////////////////////
     // constructors
     //
@@ -54,10 +57,25 @@ public class XAResourceFactoryImpl implements XAResourceFactory {
     protected XAResourceFactoryImpl(final boolean lastResource,
             final boolean subtransactionAwareResource,
             final ManagedConnectionFactoryDialect dialect) {
+        this(lastResource, subtransactionAwareResource, dialect, null);
+    }
+
+    /**
+     * @param lastResource
+     * @param subtransactionAwareResource
+     * @param dialect
+     * @param commitDecisionLogDialect
+     *            ラストリソースがコミットの決定を記録するための方言，記録しない場合は {@literal null}
+     */
+    protected XAResourceFactoryImpl(final boolean lastResource,
+            final boolean subtransactionAwareResource,
+            final ManagedConnectionFactoryDialect dialect,
+            final JdbcTransactionLogManagerDialect commitDecisionLogDialect) {
         assertParameterNotNull("dialect", dialect);
         this.lastResource = lastResource;
         this.subtransactionAwareResource = subtransactionAwareResource;
         this.dialect = dialect;
+        this.commitDecisionLogDialect = commitDecisionLogDialect;
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -74,6 +92,11 @@ public class XAResourceFactoryImpl implements XAResourceFactory {
         if (subtransactionAwareResource) {
             return new SubtransactionAwareXAResourceImpl(physicalConnection);
         }
+        if (lastResource && commitDecisionLogDialect != null) {
+            return new LoglessLastXAResourceImpl(
+                physicalConnection,
+                commitDecisionLogDialect);
+        }
         if (lastResource) {
             return new LastXAResourceImpl(physicalConnection);
         }
@@ -90,7 +113,9 @@ public class XAResourceFactoryImpl implements XAResourceFactory {
     public String toString() {
         return super.toString() + "[lastResource : <" + lastResource
             + ">, subtransactionAwareResource : <"
-            + subtransactionAwareResource + ">, dialect : <" + dialect + ">";
+            + subtransactionAwareResource + ">, dialect : <" + dialect
+            + ">, commitDecisionLogDialect : <" + commitDecisionLogDialect
+            + ">]";
     }
 
 }
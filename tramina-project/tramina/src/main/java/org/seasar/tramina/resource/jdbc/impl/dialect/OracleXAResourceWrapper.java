@@ -19,13 +19,15 @@ import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 
 import org.seasar.tramina.resource.impl.ForwardingXAResource;
+import org.seasar.tramina.spi.ResourceManagerIdentifiable;
 
 /**
  * 
  * 
  * @author koichik
  */
-public class OracleXAResourceWrapper extends ForwardingXAResource {
+public class OracleXAResourceWrapper extends ForwardingXAResource implements
+        ResourceManagerIdentifiable {
 
     // /////////////////////////////////////////////////////////////////
     // constructors
@@ -45,4 +47,15 @@ public class OracleXAResourceWrapper extends ForwardingXAResource {
         return false;
     }
 
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from ResourceManagerIdentifiable
+    //
+    /**
+     * {@link #isSameRM(XAResource)} は常に {@literal false} を返すため，このインスタンス自身を返します．
+     */
+    @Override
+    public Object getResourceManagerId() {
+        return this;
+    }
+
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.spi;
+
+import org.seasar.tramina.resource.ConnectionPoolMetrics;
+
+/**
+ * コネクションプールの統計情報を外部の監視システムへ送出するコンポーネントです．
+ * <p>
+ * {@link #export(String, ConnectionPoolMetrics)} はコネクションプールの {@link WorkManager}
+ * のスレッドから定期的に呼び出されます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface ConnectionPoolMetricsExporter {
+
+    /**
+     * コネクションプールの統計情報を送出します．
+     * 
+     * @param poolName
+     *            コネクションプールの名前
+     * @param metrics
+     *            コネクションプールの統計情報
+     */
+    void export(String poolName, ConnectionPoolMetrics metrics);
+
+}
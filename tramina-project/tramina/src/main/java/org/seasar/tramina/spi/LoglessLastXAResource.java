@@ -0,0 +1,46 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.spi;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.Xid;
+
+/**
+ * コミットの決定を自身のローカルトランザクションに記録できるラストリソースです．
+ * <p>
+ * トランザクションマネージャがロガーレスのラストリソースコミットを行うように設定されている場合，
+ * 2フェーズコミットの準備フェーズが完了した後，ラストリソースのコミットに先立って
+ * {@link #writeCommitDecision(Xid)} を呼び出します．
+ * 決定の記録はラストリソースのコミットと同じローカルトランザクションで確定するため，
+ * 別のコネクションでトランザクションログを記録する必要がありません．
+ * リカバリを行うためには，トランザクションログマネージャがラストリソースと同じデータベースの記録を参照しなければなりません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface LoglessLastXAResource extends LastXAResource {
+
+    /**
+     * コミットの決定を現在のローカルトランザクションに記録します．
+     * 
+     * @param xid
+     *            コミットするトップレベルトランザクションの {@link Xid}
+     * @throws XAException
+     *             記録に失敗した場合
+     */
+    void writeCommitDecision(Xid xid) throws XAException;
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.spi;
+
+import javax.transaction.Synchronization;
+import javax.transaction.xa.XAResource;
+
+/**
+ * 2フェーズコミットの準備フェーズで読み取り専用を返した XA リソースの通知を受け取る {@link Synchronization} です．
+ * 
+ * @author koichik
+ */
+public interface ReadOnlyAwareSynchronization extends Synchronization {
+
+    /**
+     * 準備フェーズで読み取り専用を返した XA リソースについて呼び出されます．
+     * <p>
+     * この XA リソースはコミットフェーズに参加しないため，
+     * {@link #afterCompletion(int)} を待たずにこれを提供したコネクションを解放することができます．
+     * </p>
+     * 
+     * @param xaResource
+     *            読み取り専用を返した XA リソース
+     */
+    void afterReadOnlyPrepared(XAResource xaResource);
+
+}
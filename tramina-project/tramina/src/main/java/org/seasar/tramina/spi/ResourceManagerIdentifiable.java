@@ -0,0 +1,39 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.spi;
+
+/**
+ * 自身が属するリソースマネージャを識別できる XA リソースです．
+ * <p>
+ * このインタフェースを実装した XA リソースがトランザクションに参加する場合，トランザクションマネージャは
+ * {@link javax.transaction.xa.XAResource#isSameRM(javax.transaction.xa.XAResource)}
+ * を呼び出す代わりに識別子によって同じリソースマネージャのリソースを探します．
+ * 同じリソースマネージャに属する XA リソースは {@link Object#equals(Object)} で等しい識別子を返さなければなりません．
+ * このインタフェースを実装した XA リソースと実装していない XA リソースが同じリソースマネージャに属することはできません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface ResourceManagerIdentifiable {
+
+    /**
+     * リソースマネージャの識別子を返します．
+     * 
+     * @return リソースマネージャの識別子
+     */
+    Object getResourceManagerId();
+
+}
@@ -30,6 +30,31 @@ public interface TraminaTransactionManager extends TransactionManager {
 
     TraminaTransaction suspend() throws SystemException;
 
+    /**
+     * 現在のスレッドに関連づけられているトランザクションを中断し，他のスレッドへ引き渡します．
+     * <p>
+     * 引き渡されたトランザクションは {@link #resume(javax.transaction.Transaction)}
+     * では再開できず， {@link #takeOver(TransactionHandoff)} によって一度だけ引き継ぐことができます．
+     * </p>
+     * 
+     * @return トランザクションの引き渡し
+     * @throws SystemException
+     *             トランザクションを中断できなかった場合
+     */
+    TransactionHandoff handOff() throws SystemException;
+
+    /**
+     * 他のスレッドから引き渡されたトランザクションを引き継ぎ，現在のスレッドに関連づけます．
+     * 
+     * @param handoff
+     *            {@link #handOff()} が返したトランザクションの引き渡し
+     * @return 引き継いだトランザクション
+     * @throws SystemException
+     *             トランザクションを再開できなかった場合
+     */
+    TraminaTransaction takeOver(TransactionHandoff handoff)
+            throws SystemException;
+
     ToplevelTransaction getToplevelTransaction() throws SystemException;
 
     int getToplevelTransactionStatus() throws SystemException;
@@ -30,14 +30,41 @@ public class TwoPhaseCommitEvent extends EventObject {
 
     protected final TransactionStatusType status;
 
+    protected final boolean readOnly;
+
+    protected final boolean loggedByLastResource;
+
+    protected final boolean commitRetryPending;
+
     /**
      * @param source
      */
     public TwoPhaseCommitEvent(final TraminaTransaction source, final Xid xid,
             final TransactionStatusType status) {
+        this(source, xid, status, false);
+    }
+
+    public TwoPhaseCommitEvent(final TraminaTransaction source, final Xid xid,
+            final TransactionStatusType status, final boolean readOnly) {
+        this(source, xid, status, readOnly, false);
+    }
+
+    public TwoPhaseCommitEvent(final TraminaTransaction source, final Xid xid,
+            final TransactionStatusType status, final boolean readOnly,
+            final boolean loggedByLastResource) {
+        this(source, xid, status, readOnly, loggedByLastResource, false);
+    }
+
+    public TwoPhaseCommitEvent(final TraminaTransaction source, final Xid xid,
+            final TransactionStatusType status, final boolean readOnly,
+            final boolean loggedByLastResource,
+            final boolean commitRetryPending) {
         super(source);
         this.xid = xid;
         this.status = status;
+        this.readOnly = readOnly;
+        this.loggedByLastResource = loggedByLastResource;
+        this.commitRetryPending = commitRetryPending;
     }
 
     public TraminaTransaction getTransaction() {
@@ -58,4 +85,42 @@ public class TwoPhaseCommitEvent extends EventObject {
         return status;
     }
 
+    /**
+     * 準備フェーズでラストリソース以外の全てのリソースが読み取り専用を返した場合は {@literal true} を返します．
+     * <p>
+     * この場合，トランザクションの結果はラストリソースのコミットだけで決まるため，
+     * リカバリのためのトランザクションログを記録する必要はありません．
+     * </p>
+     * 
+     * @return ラストリソース以外の全てのリソースが読み取り専用を返した場合は {@literal true}
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * コミットの決定をラストリソースが自身のローカルトランザクションに記録する場合は {@literal true} を返します．
+     * <p>
+     * この場合，トランザクションログを別に記録する必要はありません．
+     * </p>
+     * 
+     * @return コミットの決定をラストリソースが記録する場合は {@literal true}
+     * @see LoglessLastXAResource
+     */
+    public boolean isLoggedByLastResource() {
+        return loggedByLastResource;
+    }
+
+    /**
+     * コミットに失敗したリソースのコミットを再試行中の場合は {@literal true} を返します．
+     * <p>
+     * この場合，全てのブランチのコミットが完了していないため，トランザクションログを削除してはいけません．
+     * </p>
+     * 
+     * @return コミットを再試行中の場合は {@literal true}
+     */
+    public boolean isCommitRetryPending() {
+        return commitRetryPending;
+    }
+
 }
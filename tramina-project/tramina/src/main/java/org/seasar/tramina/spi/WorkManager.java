@@ -19,6 +19,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 作業をバックグラウンドで実行するサービスを提供するコンポーネントです．
@@ -45,6 +46,25 @@ public interface WorkManager {
     <V> ScheduledFuture<V> schedule(Callable<V> callable, long delaySeconds)
             throws RejectedExecutionException;
 
+    /**
+     * 指定された遅延後に有効になる {@link ScheduledFuture} を作成して実行します．
+     * 
+     * @param <V>
+     *            戻り値の型
+     * @param callable
+     *            実行する関数
+     * @param delay
+     *            現在から遅延実行までの時間
+     * @param unit
+     *            {@literal delay} パラメータの時間単位
+     * @return 結果を抽出または取り消すために使用できる {@link ScheduledFuture}
+     * @throws RejectedExecutionException
+     *             タスクの実行をスケジュールできない場合
+     * @see ScheduledExecutorService#schedule(Callable, long, TimeUnit)
+     */
+    <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay,
+            TimeUnit unit) throws RejectedExecutionException;
+
     /**
      * 指定された初期遅延の経過後にはじめて有効になり，その後は指定された期間ごとに有効になる定期的なアクションを作成して実行します．
      * 
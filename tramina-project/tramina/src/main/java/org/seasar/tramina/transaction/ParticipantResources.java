@@ -18,7 +18,9 @@ package org.seasar.tramina.transaction;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
 
+import org.seasar.tramina.spi.LoglessLastXAResource;
 import org.seasar.tramina.spi.Subtransaction;
 import org.seasar.tramina.spi.TmFlagType;
 
@@ -58,9 +60,51 @@ public interface ParticipantResources {
 
     void prepare() throws SystemException;
 
+    /**
+     * 準備フェーズで読み取り専用を返したリソースの配列を返します．
+     * <p>
+     * これらのリソースはコミットフェーズの対象から取り除かれています．
+     * </p>
+     * 
+     * @return 準備フェーズで読み取り専用を返したリソースの配列
+     */
+    SameResources[] getReadOnlyResourcesAsArray();
+
+    /**
+     * 準備フェーズでラストリソース以外の全てのリソースが読み取り専用を返した場合は {@literal true} を返します．
+     * 
+     * @return ラストリソース以外の全てのリソースが読み取り専用を返した場合は {@literal true}
+     */
+    boolean isReadOnly();
+
+    /**
+     * ラストリソースがコミットの決定を自身のローカルトランザクションに記録できる場合は {@literal true} を返します．
+     * 
+     * @return ラストリソースが {@link LoglessLastXAResource} の場合は {@literal true}
+     */
+    boolean canLastResourceWriteCommitDecision();
+
+    /**
+     * コミットの決定をラストリソースのローカルトランザクションに記録します．
+     * 
+     * @param xid
+     *            トップレベルトランザクションの {@link Xid}
+     * @throws SystemException
+     *             記録に失敗した場合
+     */
+    void writeCommitDecisionToLastResource(Xid xid) throws SystemException;
+
     void commitLastResource() throws SystemException;
 
-    void commit() throws SystemException;
+    /**
+     * ラストリソース以外のリソースをコミットします．
+     * <p>
+     * いずれかのリソースのコミットに失敗しても残りのリソースのコミットは継続されます．
+     * </p>
+     * 
+     * @return コミットに失敗したリソースの配列，全てのリソースをコミットできた場合は空の配列
+     */
+    SameResources[] commit();
 
     void rollback() throws SystemException;
 
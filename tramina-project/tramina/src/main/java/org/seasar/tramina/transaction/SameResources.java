@@ -35,6 +35,10 @@ public interface SameResources {
 
     XAResource getXAResource();
 
+    XAResource[] getEnlistedResourcesAsArray();
+
+    boolean isReadOnly();
+
     void enlist(XAResource newResource) throws SystemException;
 
     boolean delist(XAResource xaResource, int flag) throws SystemException;
@@ -17,8 +17,12 @@ package org.seasar.tramina.transaction;
 
 import javax.transaction.SystemException;
 
+import org.seasar.tramina.spi.ToplevelTransaction;
+import org.seasar.tramina.spi.TraminaTransaction;
 import org.seasar.tramina.spi.TraminaTransactionManager;
 import org.seasar.tramina.spi.TwoPhaseCommitEvent;
+import org.seasar.tramina.spi.WorkManager;
+import org.seasar.tramina.work.Timeout;
 
 /**
  * 
@@ -30,10 +34,92 @@ public interface TraminaTransactionManagerInternal extends
 
     long getDomainId();
 
+    /**
+     * 2フェーズコミットの準備フェーズを並行に実行するための {@link WorkManager} を返します．
+     * 
+     * @return 準備フェーズを並行に実行するための {@link WorkManager}，逐次に実行する場合は
+     *         {@literal null}
+     */
+    WorkManager getPrepareWorkManager();
+
+    /**
+     * 2フェーズコミットのコミットフェーズを並行に実行するための {@link WorkManager} を返します．
+     * 
+     * @return コミットフェーズを並行に実行するための {@link WorkManager}，逐次に実行する場合は
+     *         {@literal null}
+     */
+    WorkManager getCommitWorkManager();
+
+    /**
+     * 結果が確定した後のコミットフェーズをバックグラウンドで実行するための {@link WorkManager} を返します．
+     * 
+     * @return コミットフェーズをバックグラウンドで実行するための {@link WorkManager}，呼び出し元のスレッドで実行する場合は
+     *         {@literal null}
+     */
+    WorkManager getAsyncCommitWorkManager();
+
+    /**
+     * コミットに失敗したリソースを再試行キューに登録します．
+     * <p>
+     * {@code completion} はリソースごとに，再試行が成功するか，打ち切られた時点で一度ずつ実行されます．
+     * </p>
+     * 
+     * @param transaction
+     *            トランザクション
+     * @param failedResources
+     *            コミットに失敗したリソースの配列
+     * @param completion
+     *            リソースの再試行が終了した時に実行されるタスク
+     * @return 再試行キューに登録した場合は {@literal true}，再試行が無効な場合は {@literal false}
+     */
+    boolean retryCommit(ToplevelTransaction transaction,
+            SameResources[] failedResources, Runnable completion);
+
+    /**
+     * 現在のスレッドで開始されるトップレベルトランザクションのタイムアウト (秒) を返します．
+     * 
+     * @return トランザクションタイムアウト (秒)，タイムアウトしない場合は 0
+     */
+    int getTransactionTimeout();
+
+    /**
+     * タイムアウトしたトランザクションのリソースをロールバックする場合は {@literal true} を返します．
+     * 
+     * @return タイムアウトしたトランザクションのリソースをロールバックする場合は {@literal true}
+     */
+    boolean isRollbackOnTimeout();
+
+    /**
+     * トランザクションのタイムアウトを登録します．
+     * 
+     * @param task
+     *            タイムアウトが満了した時に実行されるタスク
+     * @param seconds
+     *            タイムアウト (秒)
+     * @return 登録されたタイムアウト，タイムアウトを監視できない場合は {@literal null}
+     */
+    Timeout scheduleTimeout(Runnable task, int seconds);
+
+    /**
+     * ラストリソースがコミットの決定を記録できる場合にトランザクションログを省略する場合は {@literal true} を返します．
+     * 
+     * @return ロガーレスのラストリソースコミットを行う場合は {@literal true}
+     */
+    boolean isLoglessLastResourceCommit();
+
     void associate(TraminaTransactionInternal tx);
 
     void dissociate();
 
+    /**
+     * 完了またはタイムアウトによってロールバックされたトランザクションの，
+     * 引き継がれていない引き渡しを破棄します．
+     * 
+     * @param transaction
+     *            完了したトランザクション
+     */
+    void releaseHandoff(TraminaTransaction transaction);
+
     void fireBeforeTwoPhaseCommit(TwoPhaseCommitEvent event)
             throws SystemException;
 
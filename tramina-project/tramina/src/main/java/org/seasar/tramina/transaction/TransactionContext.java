@@ -0,0 +1,64 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.transaction;
+
+/**
+ * 現在のスレッドとトランザクションの関連づけを保持するコンテキストです．
+ * <p>
+ * トランザクションマネージャはスレッドに関連づけられた状態をこのインタフェースを通じて参照します．
+ * 実装は複数のスレッドから同時に呼び出されても安全でなければなりません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface TransactionContext {
+
+    /**
+     * 現在のスレッドに関連づけられたトランザクションを返します．
+     * 
+     * @return 現在のスレッドに関連づけられたトランザクション，関連づけられていない場合は {@literal null}
+     */
+    TraminaTransactionInternal getTransaction();
+
+    /**
+     * 現在のスレッドにトランザクションを関連づけます．
+     * 
+     * @param transaction
+     *            トランザクション
+     */
+    void setTransaction(TraminaTransactionInternal transaction);
+
+    /**
+     * 現在のスレッドとトランザクションの関連づけを解除します．
+     */
+    void clearTransaction();
+
+    /**
+     * 現在のスレッドで開始されるトランザクションのタイムアウト (秒) を返します．
+     * 
+     * @return トランザクションタイムアウト (秒)，設定されていない場合は 0
+     */
+    int getTransactionTimeout();
+
+    /**
+     * 現在のスレッドで開始されるトランザクションのタイムアウト (秒) を設定します．
+     * 
+     * @param seconds
+     *            トランザクションタイムアウト (秒)，0 の場合は設定を解除します
+     */
+    void setTransactionTimeout(int seconds);
+
+}
@@ -39,10 +39,20 @@ public enum TransactionMessages implements EnumMessage {
     TOPLEVEL_TRANSACTION_ROLLEDBACK("",
             "トップレベルトランザクションをロールバックしました．transaction={0}"),
     /** */
+    TOPLEVEL_TRANSACTION_TIMED_OUT("",
+            "トップレベルトランザクションがタイムアウトしました．transaction={0}, timeout={1}"),
+    /** */
     TOPLEVEL_TRANSACTION_SUSPENDED("", "トップレベルトランザクションを中断しました．transaction={0}"),
     /** */
     TOPLEVEL_TRANSACTION_RESUMED("", "トップレベルトランザクションを再開しました．transaction={0}"),
     /** */
+    TRANSACTION_HANDED_OFF("", "トランザクションを引き渡しました．handoff={0}"),
+    /** */
+    TRANSACTION_TAKEN_OVER("", "トランザクションを引き継ぎました．handoff={0}"),
+    /** */
+    TRANSACTION_HANDOFF_ABANDONED("",
+            "引き継がれないままトランザクションが完了したため，トランザクションの引き渡しを破棄しました．handoff={0}"),
+    /** */
     TOPLEVEL_TRANSACTION_MARKED_ROLLBACK("",
             "トップレベルトランザクションがロールバックするようにマークされました．transaction={0}"),
 
@@ -68,12 +78,20 @@ public enum TransactionMessages implements EnumMessage {
     /** */
     TRANSACTION_ALREADY_ASSOCIATED("", "現在のスレッドでトランザクションが開始済みです．"),
     /** */
+    TRANSACTION_HANDED_OFF_CANNOT_RESUME("",
+            "他のスレッドへ引き渡されたトランザクションは再開できません．takeOverで引き継いでください．transaction={0}"),
+    /** */
+    INVALID_TRANSACTION_HANDOFF("",
+            "トランザクションの引き渡しは既に引き継がれたか，このトランザクションマネージャによるものではありません．handoff={0}"),
+    /** */
     INVALID_TRAMINA_TRANSACTION("",
             "Traminaのトランザクション実装クラスではありません．transaction={0}"),
 
     /** */
     TRANSACTION_NOT_ACTIVE("", "トランザクションはアクティブではありません．transaction={0}"),
     /** */
+    INVALID_TRANSACTION_TIMEOUT("", "トランザクションタイムアウトが不正です．timeout={0}"),
+    /** */
     TRANSACTION_ALREADY_BEGAN("", "トランザクションは既に開始済みです．transaction={0}"),
     /** */
     TRANSACTION_NOT_SUSPEENDED("", "トランザクションは中断中ではありません．transaction={0}"),
@@ -128,6 +146,9 @@ public enum TransactionMessages implements EnumMessage {
     COMMIT_TRANSACTION_FAILED("",
             "XAリソースがトランザクションをコミットできませんでした．xid={0}, xaResource={1}"),
     /** */
+    WRITE_COMMIT_DECISION_FAILED("",
+            "ラストリソースがコミットの決定を記録できませんでした．xid={0}, xaResource={1}"),
+    /** */
     ROLLBACK_TRANSACTION_FAILED("",
             "XAリソースがトランザクションをロールバックできませんでした．xid={0}, xaResource={1}"),
     /** */
@@ -139,6 +160,24 @@ public enum TransactionMessages implements EnumMessage {
             "",
             "2フェーズコミットの準備フェーズでコミット可能を返したリソースをロールバックできませんでした．インダウトトランザクションになった可能性があります．xid={0}, xaResource={1}"),
 
+    /** */
+    SET_TRANSACTION_TIMEOUT_FAILED("",
+            "XAリソースにトランザクションタイムアウトを設定できませんでした．xaResource={0}, timeout={1}"),
+
+    /** */
+    COMMIT_RETRY_SCHEDULED("",
+            "コミットに失敗したリソースの再試行を予約しました．transaction={0}, xaResource={1}, retries={2}"),
+    /** */
+    COMMIT_RETRY_SUCCEEDED("",
+            "コミットに失敗したリソースの再試行に成功しました．transaction={0}, xaResource={1}, retries={2}"),
+    /** */
+    COMMIT_RETRY_EXHAUSTED(
+            "",
+            "コミットに失敗したリソースの再試行を断念しました．インダウトトランザクションはリカバリで解決されます．transaction={0}, xaResource={1}, retries={2}"),
+    /** */
+    COMMIT_RETRY_ABANDONED("",
+            "コミットの再試行が完了する前にトランザクションマネージャが破棄されました．pendingRetries={0}"),
+
     /** */
     BEGIN_SUBTRANSACTION_FAILED("",
             "XAリソースがサブトランザクションを開始できませんでした．transaction={0}, xaResource={1}"),
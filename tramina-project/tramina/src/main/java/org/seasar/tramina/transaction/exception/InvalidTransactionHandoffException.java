@@ -0,0 +1,36 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.transaction.exception;
+
+import org.seasar.tramina.spi.TransactionHandoff;
+
+import static org.seasar.tramina.transaction.TransactionMessages.*;
+
+/**
+ * 
+ * 
+ * @author koichik
+ */
+public class InvalidTransactionHandoffException extends IllegalStateException {
+
+    /**
+     * @param handoff
+     */
+    public InvalidTransactionHandoffException(final TransactionHandoff handoff) {
+        super(INVALID_TRANSACTION_HANDOFF.format(handoff));
+    }
+
+}
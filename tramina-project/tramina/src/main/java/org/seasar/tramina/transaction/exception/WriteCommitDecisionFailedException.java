@@ -0,0 +1,42 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.transaction.exception;
+
+import javax.transaction.SystemException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import static org.seasar.tramina.transaction.TransactionMessages.*;
+
+/**
+ * 
+ * 
+ * @author koichik
+ */
+public class WriteCommitDecisionFailedException extends SystemException {
+
+    /**
+     * @param xid
+     * @param xaResource
+     * @param cause
+     */
+    public WriteCommitDecisionFailedException(final Xid xid,
+            final XAResource xaResource, final Throwable cause) {
+        super(WRITE_COMMIT_DECISION_FAILED.format(xid, xaResource));
+        initCause(cause);
+    }
+
+}
@@ -68,13 +68,13 @@ public abstract class AbstractTraminaTransaction implements
 
     protected final ParticipantResources participantResources;
 
-    protected final List<Synchronization> synchronizations =
-        new ArrayList<Synchronization>();
+    /** 登録された同期オブジェクトのリスト (最初の登録まで{@literal null}) */
+    protected List<Synchronization> synchronizations;
 
-    protected final List<Synchronization> interposedSynchronizations =
-        new ArrayList<Synchronization>();
+    /** 登録された割り込み同期オブジェクトのリスト (最初の登録まで{@literal null}) */
+    protected List<Synchronization> interposedSynchronizations;
 
-    protected TransactionStatusType status = NO_TRANSACTION;
+    protected volatile TransactionStatusType status = NO_TRANSACTION;
 
     protected boolean suspended;
 
@@ -96,7 +96,12 @@ public abstract class AbstractTraminaTransaction implements
         assertParameterNotNull("xid", xid);
         this.transctionManager = transctionManager;
         this.xid = xid;
-        participantResources = new ParticipantResourcesImpl(this, xid);
+        participantResources =
+            new ParticipantResourcesImpl(
+                this,
+                xid,
+                transctionManager.getPrepareWorkManager(),
+                transctionManager.getCommitWorkManager());
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -175,35 +180,69 @@ public abstract class AbstractTraminaTransaction implements
     //
     protected void doBeforeCompletion() {
         assertTransactionActive();
-        for (final Synchronization sync : synchronizations) {
-            try {
-                sync.beforeCompletion();
-            } catch (final Exception e) {
-                status = MARKED_ROLLBACK;
-                logger.error(SYNCHRONIZATION_RAISED_EXCEPTION.format(sync), e);
-                return;
-            }
+        if (!fireBeforeCompletion(synchronizations)) {
+            return;
+        }
+        fireBeforeCompletion(interposedSynchronizations);
+    }
+
+    protected void doAfterCompletion() {
+        transctionManager.releaseHandoff(this);
+        fireAfterCompletion(interposedSynchronizations);
+        fireAfterCompletion(synchronizations);
+    }
+
+    /**
+     * 同期オブジェクトのリストを返します．
+     * <p>
+     * リストは最初に必要になった時点で作成されます．
+     * </p>
+     * 
+     * @return 同期オブジェクトのリスト
+     */
+    protected List<Synchronization> getSynchronizations() {
+        if (synchronizations == null) {
+            synchronizations = new ArrayList<Synchronization>(2);
         }
-        for (final Synchronization sync : interposedSynchronizations) {
+        return synchronizations;
+    }
+
+    /**
+     * 割り込み同期オブジェクトのリストを返します．
+     * <p>
+     * リストは最初に必要になった時点で作成されます．
+     * </p>
+     * 
+     * @return 割り込み同期オブジェクトのリスト
+     */
+    protected List<Synchronization> getInterposedSynchronizations() {
+        if (interposedSynchronizations == null) {
+            interposedSynchronizations = new ArrayList<Synchronization>(2);
+        }
+        return interposedSynchronizations;
+    }
+
+    protected boolean fireBeforeCompletion(final List<Synchronization> syncs) {
+        if (syncs == null) {
+            return true;
+        }
+        for (final Synchronization sync : syncs) {
             try {
                 sync.beforeCompletion();
             } catch (final Exception e) {
                 status = MARKED_ROLLBACK;
                 logger.error(SYNCHRONIZATION_RAISED_EXCEPTION.format(sync), e);
-                return;
+                return false;
             }
         }
+        return true;
     }
 
-    protected void doAfterCompletion() {
-        for (final Synchronization sync : interposedSynchronizations) {
-            try {
-                sync.afterCompletion(status.intValue());
-            } catch (final Exception e) {
-                logger.error(SYNCHRONIZATION_RAISED_EXCEPTION.format(sync), e);
-            }
+    protected void fireAfterCompletion(final List<Synchronization> syncs) {
+        if (syncs == null) {
+            return;
         }
-        for (final Synchronization sync : synchronizations) {
+        for (final Synchronization sync : syncs) {
             try {
                 sync.afterCompletion(status.intValue());
             } catch (final Exception e) {
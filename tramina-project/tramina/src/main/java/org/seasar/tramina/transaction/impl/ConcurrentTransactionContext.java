@@ -0,0 +1,106 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.transaction.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.seasar.tramina.transaction.TraminaTransactionInternal;
+import org.seasar.tramina.transaction.TransactionContext;
+
+/**
+ * スレッドをキーとする {@link ConcurrentMap} で状態を保持する {@link TransactionContext} の実装です．
+ * <p>
+ * トランザクションはスレッドに関連づけられている間だけ保持されるため，
+ * その使用するメモリはスレッド数ではなく同時に実行中のトランザクション数に比例します．
+ * トランザクションタイムアウトはスレッドを弱参照で保持するマップに記録されるため，
+ * 設定したまま終了したスレッドのエントリはスレッドとともにガベージコレクトされます．
+ * タスクごとにスレッドを作成するエグゼキュータ (仮想スレッドなど) で多数のトランザクションを並行に実行する場合，
+ * スレッドごとに {@link ThreadLocal} のマップが作成されることもありません．
+ * </p>
+ * <p>
+ * 関連づけを解除しないままスレッドが終了するとエントリが残るため，
+ * トランザクションは必ずコミットまたはロールバックしなければなりません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class ConcurrentTransactionContext implements TransactionContext {
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    /** スレッドに関連づけられたトランザクション */
+    protected final ConcurrentMap<Thread, TraminaTransactionInternal> currentTransactions =
+        new ConcurrentHashMap<Thread, TraminaTransactionInternal>();
+
+    /** スレッドで開始されるトランザクションのタイムアウト (秒)，スレッドは弱参照で保持されます */
+    protected final Map<Thread, Integer> transactionTimeouts =
+        Collections.synchronizedMap(new WeakHashMap<Thread, Integer>());
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from TransactionContext
+    //
+    @Override
+    public TraminaTransactionInternal getTransaction() {
+        return currentTransactions.get(Thread.currentThread());
+    }
+
+    @Override
+    public void setTransaction(final TraminaTransactionInternal transaction) {
+        if (transaction == null) {
+            clearTransaction();
+            return;
+        }
+        currentTransactions.put(Thread.currentThread(), transaction);
+    }
+
+    @Override
+    public void clearTransaction() {
+        currentTransactions.remove(Thread.currentThread());
+    }
+
+    @Override
+    public int getTransactionTimeout() {
+        final Integer timeout = transactionTimeouts.get(Thread.currentThread());
+        return timeout != null ? timeout.intValue() : 0;
+    }
+
+    @Override
+    public void setTransactionTimeout(final int seconds) {
+        if (seconds == 0) {
+            transactionTimeouts.remove(Thread.currentThread());
+        } else {
+            transactionTimeouts.put(Thread.currentThread(), seconds);
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods
+    //
+    /**
+     * トランザクションが関連づけられているスレッドの数を返します．
+     * 
+     * @return トランザクションが関連づけられているスレッドの数
+     */
+    public int size() {
+        return currentTransactions.size();
+    }
+
+}
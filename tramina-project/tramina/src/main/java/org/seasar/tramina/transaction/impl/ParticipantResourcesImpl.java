@@ -15,23 +15,43 @@
  */
 package org.seasar.tramina.transaction.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.transaction.SystemException;
+import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
 
 import org.seasar.tramina.logging.Logger;
 import org.seasar.tramina.logging.LoggerFactory;
+import org.seasar.tramina.spi.LoglessLastXAResource;
+import org.seasar.tramina.spi.ResourceManagerIdentifiable;
 import org.seasar.tramina.spi.Subtransaction;
 import org.seasar.tramina.spi.TmFlagType;
 import org.seasar.tramina.spi.TraminaTransaction;
 import org.seasar.tramina.spi.TraminaXid;
+import org.seasar.tramina.spi.WorkManager;
 import org.seasar.tramina.transaction.SameResources;
 import org.seasar.tramina.transaction.ParticipantResources;
 import org.seasar.tramina.transaction.exception.LastResourceAlreadyEnlistedException;
+import org.seasar.tramina.transaction.exception.WriteCommitDecisionFailedException;
 
 import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
 import static org.seasar.tramina.transaction.TransactionMessages.*;
@@ -50,6 +70,10 @@ public class ParticipantResourcesImpl implements ParticipantResources {
     private static final Logger logger =
         LoggerFactory.getLogger(ParticipantResourcesImpl.class);
 
+    /** 空の {@link SameResources} の配列 */
+    protected static final SameResources[] EMPTY_RESOURCES =
+        new SameResources[0];
+
     // /////////////////////////////////////////////////////////////////
     // instance fields
     //
@@ -57,23 +81,61 @@ public class ParticipantResourcesImpl implements ParticipantResources {
 
     protected final TraminaXid xid;
 
-    protected final Deque<SameResources> resources =
-        new LinkedList<SameResources>();
+    /** ラストリソース以外のリソース (最初の参加まで{@literal null}) */
+    protected Deque<SameResources> resources;
 
     protected SameResources lastResource;
 
+    /** 準備フェーズで読み取り専用を返したリソース (最初の読み取り専用リソースまで{@literal null}) */
+    protected List<SameResources> readOnlyResources;
+
+    /**
+     * 参加したことのある {@link XAResource} のインスタンスから {@link SameResources} へのマップ
+     * (2 つ目のリソースが参加するまで{@literal null})
+     */
+    protected Map<XAResource, SameResources> resourcesByInstance;
+
+    /**
+     * リソースマネージャの識別子から {@link SameResources} へのマップ
+     * (2 つ目のリソースが参加するまで{@literal null})
+     */
+    protected Map<Object, SameResources> resourcesByResourceManager;
+
+    protected final WorkManager prepareWorkManager;
+
+    protected final WorkManager commitWorkManager;
+
     // /////////////////////////////////////////////////////////////////
     // constructors
     //
     /**
+     * @param transaction
      * @param xid
      */
     public ParticipantResourcesImpl(final TraminaTransaction transaction,
             final TraminaXid xid) {
+        this(transaction, xid, null, null);
+    }
+
+    /**
+     * @param transaction
+     * @param xid
+     * @param prepareWorkManager
+     *            準備フェーズを並行に実行するための {@link WorkManager}，逐次に実行する場合は
+     *            {@literal null}
+     * @param commitWorkManager
+     *            コミットフェーズを並行に実行するための {@link WorkManager}，逐次に実行する場合は
+     *            {@literal null}
+     */
+    public ParticipantResourcesImpl(final TraminaTransaction transaction,
+            final TraminaXid xid, final WorkManager prepareWorkManager,
+            final WorkManager commitWorkManager) {
         assertParameterNotNull("transaction", transaction);
         assertParameterNotNull("xid", xid);
         this.transaction = transaction;
         this.xid = xid;
+        this.prepareWorkManager = prepareWorkManager;
+        this.commitWorkManager = commitWorkManager;
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -81,12 +143,12 @@ public class ParticipantResourcesImpl implements ParticipantResources {
     //
     @Override
     public boolean isEmpty() {
-        return resources.isEmpty() && lastResource == null;
+        return getResourceCount() == 0 && lastResource == null;
     }
 
     @Override
     public int size() {
-        return resources.size() + (hasLastResource() ? 1 : 0);
+        return getResourceCount() + (hasLastResource() ? 1 : 0);
     }
 
     @Override
@@ -96,27 +158,33 @@ public class ParticipantResourcesImpl implements ParticipantResources {
 
     @Override
     public SameResources[] getCommitTargetResourcesAsArray() {
+        final int count = getResourceCount();
         if (!hasLastResource()) {
-            return resources
-                .toArray(new SameResources[resources.size()]);
+            return count == 0 ? EMPTY_RESOURCES : resources
+                .toArray(new SameResources[count]);
+        }
+        if (count == 0) {
+            return new SameResources[] { lastResource };
         }
         final SameResources[] result =
-            resources.toArray(new SameResources[resources.size() + 1]);
-        result[resources.size()] = lastResource;
+            resources.toArray(new SameResources[count + 1]);
+        result[count] = lastResource;
         return result;
     }
 
     @Override
     public boolean enlist(final XAResource xaResource) throws SystemException {
-        for (final SameResources resource : resources) {
-            if (resource.isSameResource(xaResource)) {
-                resource.enlist(xaResource);
-                return true;
+        final SameResources sameResource = findSameResource(xaResource);
+        if (sameResource != null) {
+            sameResource.enlist(xaResource);
+            if (resourcesByInstance != null) {
+                resourcesByInstance.put(xaResource, sameResource);
             }
+            return true;
         }
-        resources.addLast(new SameResourcesImpl(
-            xid.createNewBranch(),
-            xaResource));
+        final SameResources newResource =
+            new SameResourcesImpl(xid.createNewBranch(), xaResource);
+        addResource(newResource);
         return true;
     }
 
@@ -162,7 +230,7 @@ public class ParticipantResourcesImpl implements ParticipantResources {
                 }
                 lastResource = resource;
             } else {
-                resources.addLast(resource);
+                addResource(resource);
             }
         }
     }
@@ -215,9 +283,9 @@ public class ParticipantResourcesImpl implements ParticipantResources {
     @Override
     public boolean canOnePhaseCommit() {
         if (hasLastResource()) {
-            return resources.isEmpty();
+            return getResourceCount() == 0;
         }
-        return resources.size() == 1;
+        return getResourceCount() == 1;
     }
 
     @Override
@@ -231,11 +299,60 @@ public class ParticipantResourcesImpl implements ParticipantResources {
 
     @Override
     public void prepare() throws SystemException {
+        if (getResourceCount() == 0) {
+            return;
+        }
         if (!hasLastResource()) {
             lastResource = resources.removeLast();
         }
-        for (final SameResources resource : resources) {
-            resource.prepare();
+        if (prepareWorkManager != null && resources.size() > 1) {
+            prepareInParallel();
+        } else {
+            for (final SameResources resource : resources) {
+                resource.prepare();
+            }
+        }
+        for (final Iterator<SameResources> it = resources.iterator(); it
+            .hasNext();) {
+            final SameResources resource = it.next();
+            if (resource.isReadOnly()) {
+                it.remove();
+                if (readOnlyResources == null) {
+                    readOnlyResources = new ArrayList<SameResources>(2);
+                }
+                readOnlyResources.add(resource);
+            }
+        }
+    }
+
+    @Override
+    public SameResources[] getReadOnlyResourcesAsArray() {
+        if (readOnlyResources == null) {
+            return EMPTY_RESOURCES;
+        }
+        return readOnlyResources.toArray(new SameResources[readOnlyResources
+            .size()]);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return getResourceCount() == 0 && readOnlyResources != null;
+    }
+
+    @Override
+    public boolean canLastResourceWriteCommitDecision() {
+        return hasLastResource() && lastResource.isLastResource()
+            && lastResource.getXAResource() instanceof LoglessLastXAResource;
+    }
+
+    @Override
+    public void writeCommitDecisionToLastResource(final Xid xid)
+            throws SystemException {
+        final XAResource xaResource = lastResource.getXAResource();
+        try {
+            ((LoglessLastXAResource) xaResource).writeCommitDecision(xid);
+        } catch (final XAException e) {
+            throw new WriteCommitDecisionFailedException(xid, xaResource, e);
         }
     }
 
@@ -245,18 +362,31 @@ public class ParticipantResourcesImpl implements ParticipantResources {
     }
 
     @Override
-    public void commit() throws SystemException {
-        SystemException systemException = null;
+    public SameResources[] commit() {
+        final int count = getResourceCount();
+        if (count == 0) {
+            return EMPTY_RESOURCES;
+        }
+        if (commitWorkManager != null && count > 1) {
+            return commitInParallel();
+        }
+        List<SameResources> failedResources = null;
         for (final SameResources resource : resources) {
             try {
                 resource.commit();
             } catch (final SystemException e) {
-                systemException = e;
+                failedResources = addFailedResource(failedResources, resource);
+            } catch (final RuntimeException e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED_IN_COMMIT_PROCESS
+                    .format(transaction), e);
+                failedResources = addFailedResource(failedResources, resource);
             }
         }
-        if (systemException != null) {
-            throw systemException;
+        if (failedResources == null) {
+            return EMPTY_RESOURCES;
         }
+        return failedResources.toArray(new SameResources[failedResources
+            .size()]);
     }
 
     @Override
@@ -338,11 +468,266 @@ public class ParticipantResourcesImpl implements ParticipantResources {
     // /////////////////////////////////////////////////////////////////
     // instance methods for internal
     //
+    /**
+     * ラストリソース以外のリソースの準備フェーズを並行に実行します．
+     * <p>
+     * 先頭のリソースは呼び出し元のスレッドで，残りのリソースは {@link WorkManager} のスレッドで準備されます．
+     * いずれかのリソースが失敗した時点でまだ開始されていないリソースの準備は取り消されます．
+     * 実行中の準備は完了を待ってから，最初に発生した例外をスローします．
+     * </p>
+     * 
+     * @throws SystemException
+     *             いずれかのリソースの準備に失敗した場合
+     */
+    protected void prepareInParallel() throws SystemException {
+        final List<ResourceTask> tasks =
+            new ArrayList<ResourceTask>(resources.size());
+        for (final SameResources resource : resources) {
+            tasks.add(new PrepareTask(resource));
+        }
+        final ResourceTask failedTask =
+            runInParallel(prepareWorkManager, tasks, true).peek();
+        if (failedTask == null) {
+            return;
+        }
+        final Exception failure = failedTask.getFailure();
+        if (failure instanceof SystemException) {
+            throw (SystemException) failure;
+        }
+        throw (RuntimeException) failure;
+    }
+
+    /**
+     * ラストリソース以外のリソースのコミットフェーズを並行に実行します．
+     * <p>
+     * 先頭のリソースは呼び出し元のスレッドで，残りのリソースは {@link WorkManager} のスレッドでコミットされます．
+     * 結果は既に決定しているため，いずれかのリソースが失敗しても残りのリソースのコミットは継続されます．
+     * </p>
+     * 
+     * @return コミットに失敗したリソースの配列
+     */
+    protected SameResources[] commitInParallel() {
+        final List<ResourceTask> tasks =
+            new ArrayList<ResourceTask>(resources.size());
+        for (final SameResources resource : resources) {
+            tasks.add(new CommitTask(resource));
+        }
+        final Queue<ResourceTask> failedTasks =
+            runInParallel(commitWorkManager, tasks, false);
+        final SameResources[] failedResources =
+            new SameResources[failedTasks.size()];
+        int i = 0;
+        for (final ResourceTask task : failedTasks) {
+            if (task.getFailure() instanceof RuntimeException) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED_IN_COMMIT_PROCESS
+                    .format(transaction), task.getFailure());
+            }
+            failedResources[i++] = task.getResource();
+        }
+        return failedResources;
+    }
+
+    /**
+     * タスクを並行に実行し，全てのタスクが完了するのを待機します．
+     * <p>
+     * 先頭のタスクは呼び出し元のスレッドで，残りのタスクは {@link WorkManager} のスレッドで実行されます．
+     * {@link WorkManager} がタスクを受け付けなかった場合は呼び出し元のスレッドで実行されます．
+     * </p>
+     * 
+     * @param workManager
+     *            タスクを実行するワークマネージャ
+     * @param tasks
+     *            タスクのリスト
+     * @param cancelOnFailure
+     *            いずれかのタスクが失敗した時点でまだ開始されていないタスクを取り消す場合は {@literal true}
+     * @return 失敗したタスクのキュー (完了した順)
+     */
+    protected Queue<ResourceTask> runInParallel(final WorkManager workManager,
+            final List<ResourceTask> tasks, final boolean cancelOnFailure) {
+        final BlockingQueue<ResourceTask> completedTasks =
+            new LinkedBlockingQueue<ResourceTask>();
+        for (final ResourceTask task : tasks) {
+            task.setCompletedTasks(completedTasks);
+        }
+        for (final ResourceTask task : tasks.subList(1, tasks.size())) {
+            try {
+                workManager.schedule(task, 0L, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                task.call();
+            }
+        }
+        tasks.get(0).call();
+
+        final Queue<ResourceTask> failedTasks = new LinkedList<ResourceTask>();
+        boolean interrupted = false;
+        int remaining = tasks.size();
+        while (remaining > 0) {
+            final ResourceTask task;
+            try {
+                task = completedTasks.take();
+            } catch (final InterruptedException e) {
+                interrupted = true;
+                continue;
+            }
+            --remaining;
+            if (task.getFailure() == null) {
+                continue;
+            }
+            failedTasks.add(task);
+            if (!cancelOnFailure || failedTasks.size() > 1) {
+                continue;
+            }
+            for (final ResourceTask pendingTask : tasks) {
+                if (pendingTask.cancel()) {
+                    --remaining;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return failedTasks;
+    }
+
+    /**
+     * 指定の XA リソースと同じリソースマネージャに属する {@link SameResources} を返します．
+     * <p>
+     * 参加したことのある XA リソースのインスタンス，リソースマネージャの識別子の順に索引を探し，
+     * どちらも使えない場合に限って {@link XAResource#isSameRM(XAResource)} で比較します．
+     * </p>
+     * 
+     * @param xaResource
+     *            XA リソース
+     * @return 同じリソースマネージャに属する {@link SameResources}，存在しない場合は {@literal null}
+     * @throws SystemException
+     *             XA リソースの比較に失敗した場合
+     */
+    protected SameResources findSameResource(final XAResource xaResource)
+            throws SystemException {
+        final int count = getResourceCount();
+        if (count == 0) {
+            return null;
+        }
+        if (count == 1) {
+            return matchSingleResource(resources.getFirst(), xaResource);
+        }
+        final SameResources knownResource = resourcesByInstance.get(xaResource);
+        if (knownResource != null) {
+            return knownResource;
+        }
+        final Object resourceManagerId = getResourceManagerId(xaResource);
+        if (resourceManagerId != null) {
+            return resourcesByResourceManager.get(resourceManagerId);
+        }
+        for (final SameResources resource : resources) {
+            if (getResourceManagerId(resource.getXAResource()) == null
+                && resource.isSameResource(xaResource)) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 索引を作成する前の唯一のリソースが指定の XA リソースと同じリソースマネージャに属するなら返します．
+     * <p>
+     * 索引と同じく，インスタンス，リソースマネージャの識別子，
+     * {@link XAResource#isSameRM(XAResource)} の順に比較します．
+     * </p>
+     * 
+     * @param resource
+     *            唯一のリソース
+     * @param xaResource
+     *            XA リソース
+     * @return 同じリソースマネージャに属する場合は {@code resource}，そうでなければ {@literal null}
+     * @throws SystemException
+     *             XA リソースの比較に失敗した場合
+     */
+    protected SameResources matchSingleResource(final SameResources resource,
+            final XAResource xaResource) throws SystemException {
+        if (resource.getXAResource() == xaResource) {
+            return resource;
+        }
+        final Object resourceManagerId = getResourceManagerId(xaResource);
+        if (resourceManagerId != null) {
+            return resourceManagerId.equals(getResourceManagerId(resource
+                .getXAResource())) ? resource : null;
+        }
+        if (getResourceManagerId(resource.getXAResource()) != null) {
+            return null;
+        }
+        return resource.isSameResource(xaResource) ? resource : null;
+    }
+
+    /**
+     * ラストリソース以外のリソースを追加します．
+     * <p>
+     * 索引はリソースが 2 つ以上になった時点で作成されます．
+     * リソースが 1 つの間は {@link SameResources#isSameResource(XAResource)} で直接比較する方が安価なためです．
+     * </p>
+     * 
+     * @param resource
+     *            リソース
+     */
+    protected void addResource(final SameResources resource) {
+        if (resources == null) {
+            resources = new LinkedList<SameResources>();
+        }
+        resources.addLast(resource);
+        if (resourcesByInstance == null) {
+            if (resources.size() < 2) {
+                return;
+            }
+            resourcesByInstance =
+                new IdentityHashMap<XAResource, SameResources>();
+            resourcesByResourceManager = new HashMap<Object, SameResources>();
+            for (final SameResources indexed : resources) {
+                index(indexed);
+            }
+            return;
+        }
+        index(resource);
+    }
+
+    protected List<SameResources> addFailedResource(
+            final List<SameResources> failedResources,
+            final SameResources resource) {
+        final List<SameResources> result =
+            failedResources != null ? failedResources
+                : new ArrayList<SameResources>();
+        result.add(resource);
+        return result;
+    }
+
+    protected int getResourceCount() {
+        return resources == null ? 0 : resources.size();
+    }
+
+    protected void index(final SameResources resource) {
+        final XAResource xaResource = resource.getXAResource();
+        resourcesByInstance.put(xaResource, resource);
+        final Object resourceManagerId = getResourceManagerId(xaResource);
+        if (resourceManagerId != null) {
+            resourcesByResourceManager.put(resourceManagerId, resource);
+        }
+    }
+
+    protected Object getResourceManagerId(final XAResource xaResource) {
+        if (xaResource instanceof ResourceManagerIdentifiable) {
+            return ((ResourceManagerIdentifiable) xaResource)
+                .getResourceManagerId();
+        }
+        return null;
+    }
+
     protected Iterable<SameResources> getAllResources() {
+        final Collection<SameResources> others =
+            resources == null ? Collections.<SameResources> emptyList()
+                : resources;
         if (!hasLastResource()) {
-            return resources;
+            return others;
         }
-        final Iterator<SameResources> it = resources.iterator();
+        final Iterator<SameResources> it = others.iterator();
         return new Iterable<SameResources>() {
             @Override
             public Iterator<SameResources> iterator() {
@@ -375,4 +760,136 @@ public class ParticipantResourcesImpl implements ParticipantResources {
         };
     }
 
+    // /////////////////////////////////////////////////////////////////
+    // member types
+    //
+    protected abstract static class ResourceTask implements Callable<Void> {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final SameResources resource;
+
+        protected final AtomicBoolean started = new AtomicBoolean();
+
+        protected BlockingQueue<ResourceTask> completedTasks;
+
+        protected Exception failure;
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param resource
+         */
+        public ResourceTask(final SameResources resource) {
+            this.resource = resource;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Callable
+        //
+        @Override
+        public Void call() {
+            if (!started.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                execute();
+            } catch (final SystemException e) {
+                failure = e;
+            } catch (final RuntimeException e) {
+                failure = e;
+            } finally {
+                completedTasks.add(this);
+            }
+            return null;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods
+        //
+        /**
+         * まだ開始されていないタスクを取り消します．
+         * 
+         * @return 取り消した場合は {@literal true}
+         */
+        public boolean cancel() {
+            return started.compareAndSet(false, true);
+        }
+
+        /**
+         * @return the resource
+         */
+        public SameResources getResource() {
+            return resource;
+        }
+
+        /**
+         * @return the failure
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        /**
+         * @param completedTasks
+         *            the completedTasks to set
+         */
+        public void setCompletedTasks(
+                final BlockingQueue<ResourceTask> completedTasks) {
+            this.completedTasks = completedTasks;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods for internal
+        //
+        protected abstract void execute() throws SystemException;
+
+    }
+
+    protected static class PrepareTask extends ResourceTask {
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param resource
+         */
+        public PrepareTask(final SameResources resource) {
+            super(resource);
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods for internal
+        //
+        @Override
+        protected void execute() throws SystemException {
+            resource.prepare();
+        }
+
+    }
+
+    protected static class CommitTask extends ResourceTask {
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param resource
+         */
+        public CommitTask(final SameResources resource) {
+            super(resource);
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods for internal
+        //
+        @Override
+        protected void execute() throws SystemException {
+            resource.commit();
+        }
+
+    }
+
 }
@@ -71,10 +71,10 @@ public class SameResourcesImpl implements SameResources {
     protected final XAResource xaResource;
 
     protected final Set<XAResource> enlistedResources =
-        new HashSet<XAResource>();
+        new HashSet<XAResource>(4);
 
-    protected final Set<XAResource> suspendedResources =
-        new HashSet<XAResource>();
+    /** 中断中の XA リソース (最初の中断まで{@literal null}) */
+    protected Set<XAResource> suspendedResources;
 
     protected boolean subtransactionAware;
 
@@ -129,9 +129,21 @@ public class SameResourcesImpl implements SameResources {
         return xaResource;
     }
 
+    @Override
+    public XAResource[] getEnlistedResourcesAsArray() {
+        return enlistedResources.toArray(new XAResource[enlistedResources
+            .size()]);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return vote == VoteType.RDONLY;
+    }
+
     @Override
     public void enlist(final XAResource enlistResource) throws SystemException {
-        if (!suspendedResources.contains(enlistResource)) {
+        if (suspendedResources == null
+            || !suspendedResources.contains(enlistResource)) {
             try {
                 enlistResource.start(xid, JOIN.getIntValue());
             } catch (final XAException e) {
@@ -170,7 +182,7 @@ public class SameResourcesImpl implements SameResources {
         }
         enlistedResources.remove(delistResource);
         if (SUSPEND.equals(flag)) {
-            suspendedResources.add(delistResource);
+            getSuspendedResources().add(delistResource);
         }
         return true;
     }
@@ -194,7 +206,7 @@ public class SameResourcesImpl implements SameResources {
                         enlistedResource,
                         e);
             }
-            suspendedResources.add(enlistedResource);
+            getSuspendedResources().add(enlistedResource);
         }
         if (systemException != null) {
             throw systemException;
@@ -203,6 +215,9 @@ public class SameResourcesImpl implements SameResources {
 
     @Override
     public void resume() throws SystemException {
+        if (suspendedResources == null) {
+            return;
+        }
         SystemException systemException = null;
         for (final Iterator<XAResource> it = suspendedResources.iterator(); it
             .hasNext();) {
@@ -344,4 +359,14 @@ public class SameResourcesImpl implements SameResources {
         }
     }
 
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for internal
+    //
+    protected Set<XAResource> getSuspendedResources() {
+        if (suspendedResources == null) {
+            suspendedResources = new HashSet<XAResource>(4);
+        }
+        return suspendedResources;
+    }
+
 }
@@ -57,6 +57,10 @@ public class SubransactionImpl extends AbstractTraminaTransaction implements
     private static final Logger logger =
         LoggerFactory.getLogger(SubransactionImpl.class);
 
+    /** 同期オブジェクトが登録されていない場合に親へ引き継ぐ空の配列 */
+    protected static final Synchronization[] EMPTY_SYNCHRONIZATIONS =
+        new Synchronization[0];
+
     // /////////////////////////////////////////////////////////////////
     // instance fields
     //
@@ -137,9 +141,13 @@ public class SubransactionImpl extends AbstractTraminaTransaction implements
         assertTransactionActive();
         assertChild(subtransaction);
         participantResources.takeOver(takeOverResources);
-        synchronizations.addAll(asList(takeOverSynchronizations));
-        interposedSynchronizations
-            .addAll(asList(takeOverInterposedSynchronizations));
+        if (takeOverSynchronizations.length > 0) {
+            getSynchronizations().addAll(asList(takeOverSynchronizations));
+        }
+        if (takeOverInterposedSynchronizations.length > 0) {
+            getInterposedSynchronizations().addAll(
+                asList(takeOverInterposedSynchronizations));
+        }
         parent.onSubtransactionCommitted(subtransaction);
         child = null;
     }
@@ -182,7 +190,7 @@ public class SubransactionImpl extends AbstractTraminaTransaction implements
     @Override
     public void registerInterposedSynchronization(final Synchronization sync)
             throws RollbackException, IllegalStateException, SystemException {
-        interposedSynchronizations.add(sync);
+        getInterposedSynchronizations().add(sync);
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -304,7 +312,7 @@ public class SubransactionImpl extends AbstractTraminaTransaction implements
         assertParameterNotNull("sync", sync);
         assertTransactionNotMarkedRollbackOnly();
         assertTransactionActive();
-        synchronizations.add(sync);
+        getSynchronizations().add(sync);
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -312,7 +320,9 @@ public class SubransactionImpl extends AbstractTraminaTransaction implements
     //
     protected Synchronization[] toArray(
             final List<Synchronization> synchronizations) {
-        assertParameterNotNull("synchronizations", synchronizations);
+        if (synchronizations == null || synchronizations.isEmpty()) {
+            return EMPTY_SYNCHRONIZATIONS;
+        }
         return synchronizations.toArray(new Synchronization[synchronizations
             .size()]);
     }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.transaction.impl;
+
+import org.seasar.tramina.transaction.TraminaTransactionInternal;
+import org.seasar.tramina.transaction.TransactionContext;
+
+/**
+ * {@link ThreadLocal} で状態を保持する {@link TransactionContext} の実装です．
+ * <p>
+ * 関連づけを解除すると {@link ThreadLocal} のエントリを削除するため，
+ * プールされたスレッドがトランザクションを保持し続けることはありません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class ThreadLocalTransactionContext implements TransactionContext {
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    /** 現在のスレッドに関連づけられたトランザクション */
+    protected final ThreadLocal<TraminaTransactionInternal> currentTransactions =
+        new ThreadLocal<TraminaTransactionInternal>();
+
+    /** 現在のスレッドで開始されるトランザクションのタイムアウト (秒) */
+    protected final ThreadLocal<Integer> transactionTimeouts =
+        new ThreadLocal<Integer>();
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from TransactionContext
+    //
+    @Override
+    public TraminaTransactionInternal getTransaction() {
+        return currentTransactions.get();
+    }
+
+    @Override
+    public void setTransaction(final TraminaTransactionInternal transaction) {
+        currentTransactions.set(transaction);
+    }
+
+    @Override
+    public void clearTransaction() {
+        currentTransactions.remove();
+    }
+
+    @Override
+    public int getTransactionTimeout() {
+        final Integer timeout = transactionTimeouts.get();
+        return timeout != null ? timeout.intValue() : 0;
+    }
+
+    @Override
+    public void setTransactionTimeout(final int seconds) {
+        if (seconds == 0) {
+            transactionTimeouts.remove();
+        } else {
+            transactionTimeouts.set(seconds);
+        }
+    }
+
+}
@@ -15,24 +15,36 @@
  */
 package org.seasar.tramina.transaction.impl;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.RollbackException;
 import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
+import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 
 import org.seasar.tramina.logging.Logger;
 import org.seasar.tramina.logging.LoggerFactory;
 import org.seasar.tramina.spi.LastXAResource;
+import org.seasar.tramina.spi.ReadOnlyAwareSynchronization;
 import org.seasar.tramina.spi.Subtransaction;
 import org.seasar.tramina.spi.ToplevelTransaction;
 import org.seasar.tramina.spi.TraminaTransaction;
 import org.seasar.tramina.spi.TraminaXid;
+import org.seasar.tramina.spi.TransactionStatusType;
 import org.seasar.tramina.spi.TwoPhaseCommitEvent;
+import org.seasar.tramina.spi.WorkManager;
 import org.seasar.tramina.transaction.SameResources;
 import org.seasar.tramina.transaction.TraminaTransactionManagerInternal;
 import org.seasar.tramina.transaction.exception.ToplevelTransactionRolledbackException;
+import org.seasar.tramina.transaction.exception.TransactionTimedOutException;
+import org.seasar.tramina.work.Timeout;
 
 import static java.util.Arrays.*;
 import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
@@ -55,6 +67,51 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
     private static final Logger logger =
         LoggerFactory.getLogger(ToplevelTransactionImpl.class);
 
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    /**
+     * アプリケーションのスレッドとタイムアウトのスレッドによる完了処理を排他するロック
+     * <p>
+     * ロックを保持したまま XA リソースを呼び出すため，
+     * モニタではなく {@link ReentrantLock} を使用して，仮想スレッドがキャリアスレッドを占有しないようにしています．
+     * </p>
+     */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** コミットフェーズをバックグラウンドで実行している場合は {@literal true} */
+    protected boolean completingInBackground;
+
+    /** トランザクションタイムアウト (秒)，タイムアウトしない場合は 0 */
+    protected int timeoutSeconds;
+
+    /** タイムアウトする時刻 ({@link System#nanoTime()} の値) */
+    protected long deadlineNanos;
+
+    /** タイマに登録されたタイムアウト */
+    protected Timeout timeout;
+
+    /** タイムアウトした場合は {@literal true} */
+    protected volatile boolean timedOut;
+
+    /** タイムアウトによってリソースがロールバック済みの場合は {@literal true} */
+    protected boolean resourcesRolledBack;
+
+    /** コミットの決定をラストリソースが記録する場合は {@literal true} */
+    protected boolean loggedByLastResource;
+
+    /** コミットに失敗したリソースのコミットを再試行中の場合は {@literal true} */
+    protected boolean commitRetryPending;
+
+    /**
+     * {@link #doAfterCompletion()} を実行するまでに終了を待つ処理の数
+     * (コミットを再試行中のリソースの数とコミットを実行したスレッドの分)
+     */
+    protected final AtomicInteger pendingCompletions = new AtomicInteger();
+
+    /** 最後に通知した 2 フェーズコミットのイベント */
+    protected TwoPhaseCommitEvent twoPhaseCommitEvent;
+
     // /////////////////////////////////////////////////////////////////
     // constructors
     //
@@ -81,6 +138,7 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
     public void begin() {
         assertNoTransacstion();
         status = ACTIVE;
+        startTimeout();
         transctionManager.associate(this);
         if (logger.isDebugEnabled()) {
             logger.debug(TOPLEVEL_TRANSACTION_BEGAN.format(this));
@@ -126,9 +184,13 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
         assertChild(subtransaction);
         onSubtransactionCommitted(subtransaction);
         participantResources.takeOver(takeOverResources);
-        synchronizations.addAll(asList(takeOverSynchronizations));
-        interposedSynchronizations
-            .addAll(asList(takeOverInterposedSynchronizations));
+        if (takeOverSynchronizations.length > 0) {
+            getSynchronizations().addAll(asList(takeOverSynchronizations));
+        }
+        if (takeOverInterposedSynchronizations.length > 0) {
+            getInterposedSynchronizations().addAll(
+                asList(takeOverInterposedSynchronizations));
+        }
         child = null;
     }
 
@@ -173,7 +235,7 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
         assertParameterNotNull("sync", sync);
         assertTransactionNotMarkedRollbackOnly();
         assertTransactionActive();
-        interposedSynchronizations.add(sync);
+        getInterposedSynchronizations().add(sync);
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -182,93 +244,127 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
     @Override
     public boolean enlistResource(final XAResource xaResource)
             throws RollbackException, IllegalStateException, SystemException {
-        assertParameterNotNull("xaResource", xaResource);
-        assertTransactionNotMarkedRollbackOnly();
-        assertTransactionActive();
+        lock.lock();
         try {
-            if (xaResource instanceof LastXAResource) {
-                return participantResources.enlistLastResource(xaResource);
+            assertParameterNotNull("xaResource", xaResource);
+            assertTransactionNotTimedOut();
+            assertTransactionNotMarkedRollbackOnly();
+            assertTransactionActive();
+            try {
+                propagateTimeout(xaResource);
+                if (xaResource instanceof LastXAResource) {
+                    return participantResources.enlistLastResource(xaResource);
+                }
+                return participantResources.enlist(xaResource);
+            } catch (final SystemException e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED.format(this), e);
+                setRollbackOnly();
+                throw e;
+            } catch (final RuntimeException e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED.format(this), e);
+                setRollbackOnly();
+                throw e;
             }
-            return participantResources.enlist(xaResource);
-        } catch (final SystemException e) {
-            logger.error(UNEXPECTED_EXCEPTION_OCCURRED.format(this), e);
-            setRollbackOnly();
-            throw e;
-        } catch (final RuntimeException e) {
-            logger.error(UNEXPECTED_EXCEPTION_OCCURRED.format(this), e);
-            setRollbackOnly();
-            throw e;
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public boolean delistResource(final XAResource xaResource, final int flag)
             throws IllegalStateException, SystemException {
-        assertParameterNotNull("xaResource", xaResource);
-        assertTransactionActiveOrMarkedRollback();
+        lock.lock();
         try {
-            return participantResources.delist(xaResource, flag);
-        } catch (final SystemException e) {
-            logger.error(UNEXPECTED_EXCEPTION_OCCURRED.format(this), e);
-            setRollbackOnly();
-            throw e;
-        } catch (final RuntimeException e) {
-            logger.error(UNEXPECTED_EXCEPTION_OCCURRED.format(this), e);
-            setRollbackOnly();
-            throw e;
+            assertParameterNotNull("xaResource", xaResource);
+            assertTransactionActiveOrMarkedRollback();
+            try {
+                return participantResources.delist(xaResource, flag);
+            } catch (final SystemException e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED.format(this), e);
+                setRollbackOnly();
+                throw e;
+            } catch (final RuntimeException e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED.format(this), e);
+                setRollbackOnly();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
-    public void commit() throws RollbackException, HeuristicMixedException,
-            HeuristicRollbackException, SecurityException,
-            IllegalStateException, SystemException {
-        assertTransactionActive();
-        assertSubtransactionNotActive();
-        doBeforeCompletion();
-        doEnd();
-        if (status == MARKED_ROLLBACK) {
-            doRollback();
-        } else if (participantResources.isEmpty()) {
-            doCommitNoResource();
-        } else if (participantResources.canOnePhaseCommit()) {
-            doOnePhaseCommit();
-        } else {
-            doTwoPhaseCommit();
-        }
+    public void commit() throws RollbackException,
+            HeuristicMixedException, HeuristicRollbackException,
+            SecurityException, IllegalStateException, SystemException {
+        lock.lock();
         try {
-            if (status == COMMITTED) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug(TOPLEVEL_TRANSACTION_COMMITTED.format(this));
+            checkTimeout();
+            if (timedOut) {
+                rollback();
+                throw new TransactionTimedOutException(this, timeoutSeconds);
+            }
+            assertTransactionActive();
+            assertSubtransactionNotActive();
+            cancelTimeout();
+            doBeforeCompletion();
+            doEnd();
+            if (status == MARKED_ROLLBACK) {
+                doRollback();
+            } else if (participantResources.isEmpty()) {
+                doCommitNoResource();
+            } else if (participantResources.canOnePhaseCommit()) {
+                doOnePhaseCommit();
+            } else {
+                doTwoPhaseCommit();
+            }
+            try {
+                if (status == COMMITTED) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(TOPLEVEL_TRANSACTION_COMMITTED
+                            .format(this));
+                    }
+                } else if (status == ROLLEDBACK) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(TOPLEVEL_TRANSACTION_ROLLEDBACK
+                            .format(this));
+                    }
+                    throw new ToplevelTransactionRolledbackException(this);
+                } else {
+                    throw new SystemException();
                 }
-            } else if (status == ROLLEDBACK) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug(TOPLEVEL_TRANSACTION_ROLLEDBACK.format(this));
+            } finally {
+                transctionManager.dissociate();
+                if (!completingInBackground) {
+                    doAfterCommitCompletion();
                 }
-                throw new ToplevelTransactionRolledbackException(this);
-            } else {
-                throw new SystemException();
             }
         } finally {
-            transctionManager.dissociate();
-            doAfterCompletion();
+            lock.unlock();
         }
     }
 
     @Override
-    public void rollback() throws IllegalStateException, SystemException {
-        assertTransactionActiveOrMarkedRollback();
-        if (child != null) {
-            child.rollback();
-        }
-        status = MARKED_ROLLBACK;
-        doEnd();
-        doRollback();
-        if (logger.isDebugEnabled()) {
-            logger.debug(TOPLEVEL_TRANSACTION_ROLLEDBACK.format(this));
+    public void rollback() throws IllegalStateException,
+            SystemException {
+        lock.lock();
+        try {
+            assertTransactionActiveOrMarkedRollback();
+            cancelTimeout();
+            if (child != null) {
+                child.rollback();
+            }
+            status = MARKED_ROLLBACK;
+            doEnd();
+            doRollback();
+            if (logger.isDebugEnabled()) {
+                logger.debug(TOPLEVEL_TRANSACTION_ROLLEDBACK.format(this));
+            }
+            transctionManager.dissociate();
+            doAfterCompletion();
+        } finally {
+            lock.unlock();
         }
-        transctionManager.dissociate();
-        doAfterCompletion();
     }
 
     @Override
@@ -277,7 +373,7 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
         assertParameterNotNull("sync", sync);
         assertTransactionNotMarkedRollbackOnly();
         assertTransactionActive();
-        synchronizations.add(sync);
+        getSynchronizations().add(sync);
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -300,6 +396,9 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
     }
 
     protected void doTwoPhaseCommit() {
+        loggedByLastResource =
+            transctionManager.isLoglessLastResourceCommit()
+                && participantResources.canLastResourceWriteCommitDecision();
         try {
             if (!beginTwoPhaseCommit()) {
                 return;
@@ -310,9 +409,14 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
             if (!doLastResourceCommit()) {
                 return;
             }
+            if (startRestResourcesCommitInBackground()) {
+                return;
+            }
             doRestResourcesCommit();
         } finally {
-            endTwoPhaseCommit();
+            if (!completingInBackground) {
+                endTwoPhaseCommit();
+            }
         }
     }
 
@@ -334,6 +438,7 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
             status = PREPARING;
             participantResources.prepare();
             status = PREPARED;
+            releaseReadOnlyResources();
             return true;
         } catch (final Exception e) {
             logger.error(UNEXPECTED_EXCEPTION_OCCURRED_IN_COMMIT_PROCESS
@@ -347,6 +452,9 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
         try {
             status = COMMITTING;
             transctionManager.fireBeforeLastCommit(createTwoPhaseCommitEvent());
+            if (loggedByLastResource) {
+                participantResources.writeCommitDecisionToLastResource(xid);
+            }
             participantResources.commitLastResource();
             transctionManager.fireAfterLastCommit(createTwoPhaseCommitEvent());
             return true;
@@ -358,17 +466,95 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
         }
     }
 
-    protected void doRestResourcesCommit() {
+    /**
+     * ラストリソースのコミットによって結果が確定した後，残りのリソースのコミットをバックグラウンドで開始します．
+     * 
+     * @return バックグラウンドで開始した場合は {@literal true}
+     */
+    protected boolean startRestResourcesCommitInBackground() {
+        final WorkManager workManager =
+            transctionManager.getAsyncCommitWorkManager();
+        if (workManager == null) {
+            return false;
+        }
+        status = COMMITTED;
+        completingInBackground = true;
         try {
-            participantResources.commit();
+            workManager.schedule(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        doRestResourcesCommit();
+                    } finally {
+                        endTwoPhaseCommit();
+                        doAfterCommitCompletion();
+                    }
+                    return null;
+                }
+            }, 0L, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (final RejectedExecutionException e) {
+            completingInBackground = false;
+            return false;
+        }
+    }
+
+    protected void doRestResourcesCommit() {
+        final SameResources[] failedResources = participantResources.commit();
+        if (failedResources.length == 0) {
             status = COMMITTED;
-        } catch (final Exception e) {
+        } else if (scheduleCommitRetry(failedResources)) {
+            status = COMMITTED;
+        } else {
             logger.error(UNEXPECTED_EXCEPTION_OCCURRED_IN_COMMIT_PROCESS
-                .format(this), e);
+                .format(this));
             status = UNKNOWN;
         }
     }
 
+    /**
+     * コミットに失敗したリソースの再試行を登録します．
+     * <p>
+     * 再試行するリソースのコネクションは再試行が終わるまでトランザクションに関連づけておく必要があるため，
+     * {@link #doAfterCompletion()} はすべての再試行が終了するまで遅らせます．
+     * </p>
+     * 
+     * @param failedResources
+     *            コミットに失敗したリソースの配列
+     * @return 再試行を登録した場合は {@literal true}
+     */
+    protected boolean scheduleCommitRetry(final SameResources[] failedResources) {
+        commitRetryPending = true;
+        pendingCompletions.set(failedResources.length + 1);
+        if (transctionManager.retryCommit(
+            this,
+            failedResources,
+            new Runnable() {
+                @Override
+                public void run() {
+                    doAfterCommitCompletion();
+                }
+            })) {
+            return true;
+        }
+        commitRetryPending = false;
+        pendingCompletions.set(0);
+        return false;
+    }
+
+    /**
+     * コミットの後に {@link #doAfterCompletion()} を実行します．
+     * <p>
+     * コミットを再試行中のリソースがある場合は，コミットを実行したスレッドとすべての再試行が終了した時点で実行します．
+     * </p>
+     */
+    protected void doAfterCommitCompletion() {
+        if (commitRetryPending && pendingCompletions.decrementAndGet() > 0) {
+            return;
+        }
+        doAfterCompletion();
+    }
+
     protected void endTwoPhaseCommit() {
         try {
             transctionManager
@@ -382,6 +568,10 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
 
     protected void doRollback() {
         status = ROLLING_BACK;
+        if (resourcesRolledBack) {
+            status = ROLLEDBACK;
+            return;
+        }
         try {
             participantResources.rollback();
         } catch (final Exception e) {
@@ -392,6 +582,9 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
     }
 
     protected void doEnd() {
+        if (resourcesRolledBack) {
+            return;
+        }
         try {
             participantResources.end(status == ACTIVE ? SUCCESS : FAIL);
         } catch (final Exception e) {
@@ -400,7 +593,183 @@ public class ToplevelTransactionImpl extends AbstractTraminaTransaction
         }
     }
 
+    /**
+     * 現在の状態を表す 2 フェーズコミットのイベントを返します．
+     * <p>
+     * イベントは不変なので，状態が前回と変わっていなければ前回のイベントを再利用します．
+     * </p>
+     * 
+     * @return 2 フェーズコミットのイベント
+     */
     protected TwoPhaseCommitEvent createTwoPhaseCommitEvent() {
-        return new TwoPhaseCommitEvent(this, xid, status);
+        final TransactionStatusType currentStatus = status;
+        final boolean readOnly = participantResources.isReadOnly();
+        final TwoPhaseCommitEvent event = twoPhaseCommitEvent;
+        if (event != null && event.getStatus() == currentStatus
+            && event.isReadOnly() == readOnly
+            && event.isCommitRetryPending() == commitRetryPending) {
+            return event;
+        }
+        return twoPhaseCommitEvent =
+            new TwoPhaseCommitEvent(
+                this,
+                xid,
+                currentStatus,
+                readOnly,
+                loggedByLastResource,
+                commitRetryPending);
+    }
+
+    /**
+     * 準備フェーズで読み取り専用を返したリソースを
+     * {@link ReadOnlyAwareSynchronization} に通知し，コミットフェーズを待たずに解放させます．
+     */
+    protected void releaseReadOnlyResources() {
+        for (final SameResources resource : participantResources
+            .getReadOnlyResourcesAsArray()) {
+            for (final XAResource xaResource : resource
+                .getEnlistedResourcesAsArray()) {
+                fireAfterReadOnlyPrepared(interposedSynchronizations, xaResource);
+                fireAfterReadOnlyPrepared(synchronizations, xaResource);
+            }
+        }
+    }
+
+    protected void fireAfterReadOnlyPrepared(
+            final Iterable<Synchronization> syncs, final XAResource xaResource) {
+        if (syncs == null) {
+            return;
+        }
+        for (final Synchronization sync : syncs) {
+            if (!(sync instanceof ReadOnlyAwareSynchronization)) {
+                continue;
+            }
+            try {
+                ((ReadOnlyAwareSynchronization) sync)
+                    .afterReadOnlyPrepared(xaResource);
+            } catch (final Exception e) {
+                logger.error(SYNCHRONIZATION_RAISED_EXCEPTION.format(sync), e);
+            }
+        }
+    }
+
+    /**
+     * トランザクションタイムアウトが設定されていればタイマに登録します．
+     */
+    protected void startTimeout() {
+        timeoutSeconds = transctionManager.getTransactionTimeout();
+        if (timeoutSeconds <= 0) {
+            return;
+        }
+        deadlineNanos =
+            System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        timeout = transctionManager.scheduleTimeout(new Runnable() {
+            @Override
+            public void run() {
+                onTimedOut();
+            }
+        }, timeoutSeconds);
+    }
+
+    /**
+     * タイマに登録したタイムアウトを取り消します．
+     */
+    protected void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    /**
+     * タイマが満了していなくてもタイムアウトする時刻を過ぎていればタイムアウトさせます．
+     */
+    protected void checkTimeout() {
+        if (timeoutSeconds > 0 && !timedOut
+            && System.nanoTime() - deadlineNanos >= 0) {
+            onTimedOut();
+        }
+    }
+
+    /**
+     * トランザクションをタイムアウトさせます．
+     * <p>
+     * トランザクションはロールバックのみにマークされます． トランザクションマネージャの設定によってはリソースもロールバックされ，
+     * 以降アプリケーションがトランザクションをロールバックした時にはリソースに対する操作は行われません．
+     * </p>
+     * <p>
+     * タイマのスレッドを待たせないよう，コミット中などでロックを獲得できない場合は何もしません．
+     * その場合，ロックを保持しているスレッドまたは次の操作が {@link #checkTimeout()}
+     * によって期限切れを検出してタイムアウトさせます．
+     * </p>
+     */
+    protected void onTimedOut() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (timedOut || (status != ACTIVE && status != MARKED_ROLLBACK)) {
+                return;
+            }
+            timedOut = true;
+            status = MARKED_ROLLBACK;
+            logger.warning(TOPLEVEL_TRANSACTION_TIMED_OUT.format(
+                this,
+                timeoutSeconds));
+            if (!transctionManager.isRollbackOnTimeout()) {
+                return;
+            }
+            try {
+                participantResources.end(FAIL);
+            } catch (final Exception e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED_IN_ROLLBACK_PROCESS
+                    .format(this), e);
+            }
+            try {
+                participantResources.rollback();
+            } catch (final Exception e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED_IN_ROLLBACK_PROCESS
+                    .format(this), e);
+            }
+            resourcesRolledBack = true;
+            transctionManager.releaseHandoff(this);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * トランザクションの残り時間を XA リソースに設定します．
+     * 
+     * @param xaResource
+     *            XA リソース
+     */
+    protected void propagateTimeout(final XAResource xaResource) {
+        if (timeoutSeconds <= 0) {
+            return;
+        }
+        final long remainingNanos = deadlineNanos - System.nanoTime();
+        final int remainingSeconds =
+            (int) Math.max(
+                1L,
+                TimeUnit.NANOSECONDS.toSeconds(remainingNanos
+                    + TimeUnit.SECONDS.toNanos(1L) - 1L));
+        try {
+            xaResource.setTransactionTimeout(remainingSeconds);
+        } catch (final XAException e) {
+            logger.warning(SET_TRANSACTION_TIMEOUT_FAILED.format(
+                xaResource,
+                remainingSeconds), e);
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for assertions
+    //
+    protected void assertTransactionNotTimedOut() throws RollbackException {
+        checkTimeout();
+        if (timedOut) {
+            throw new TransactionTimedOutException(this, timeoutSeconds);
+        }
     }
 }
@@ -15,8 +15,17 @@
  */
 package org.seasar.tramina.transaction.impl;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
@@ -26,6 +35,7 @@ import javax.transaction.RollbackException;
 import javax.transaction.Status;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
+import javax.transaction.xa.XAException;
 import javax.transaction.xa.Xid;
 
 import org.seasar.tramina.activity.exception.AlreadyInitializedException;
@@ -33,16 +43,26 @@ import org.seasar.tramina.activity.exception.NotInitializedException;
 import org.seasar.tramina.activity.impl.AbstractComponent;
 import org.seasar.tramina.logging.Logger;
 import org.seasar.tramina.logging.LoggerFactory;
+import org.seasar.tramina.spi.LoglessLastXAResource;
 import org.seasar.tramina.spi.ToplevelTransaction;
 import org.seasar.tramina.spi.TraminaTransaction;
+import org.seasar.tramina.spi.TransactionHandoff;
 import org.seasar.tramina.spi.TwoPhaseCommitEvent;
 import org.seasar.tramina.spi.TwoPhaseCommitEventListener;
+import org.seasar.tramina.spi.WorkManager;
+import org.seasar.tramina.transaction.SameResources;
 import org.seasar.tramina.transaction.TraminaTransactionInternal;
 import org.seasar.tramina.transaction.TraminaTransactionManagerInternal;
+import org.seasar.tramina.transaction.TransactionContext;
 import org.seasar.tramina.transaction.exception.InvalidTraminaTransactionException;
+import org.seasar.tramina.transaction.exception.InvalidTransactionHandoffException;
+import org.seasar.tramina.transaction.exception.InvalidTransactionTimeoutException;
 import org.seasar.tramina.transaction.exception.TransactionAlreadyAssociatedException;
+import org.seasar.tramina.transaction.exception.TransactionHandedOffException;
 import org.seasar.tramina.transaction.exception.TransactionNotActiveException;
 import org.seasar.tramina.transaction.exception.TransactionNotAssociatedException;
+import org.seasar.tramina.work.Timeout;
+import org.seasar.tramina.work.impl.TimerWheel;
 
 import static org.seasar.tramina.activity.impl.ActivityAssertions.*;
 import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
@@ -67,9 +87,9 @@ public class TraminaTransactionManagerImpl extends
     // /////////////////////////////////////////////////////////////////
     // instance fields
     //
-    /** 現在のスレッドに関連づけられたトランザクション */
-    protected final ThreadLocal<TraminaTransactionInternal> currentTransactions =
-        new ThreadLocal<TraminaTransactionInternal>();
+    /** 現在のスレッドとトランザクションの関連づけを保持するコンテキスト */
+    protected TransactionContext transactionContext =
+        new ThreadLocalTransactionContext();
 
     /** このトランザクションマネージャのドメインID */
     protected long domainId;
@@ -78,13 +98,58 @@ public class TraminaTransactionManagerImpl extends
     protected final Set<TwoPhaseCommitEventListener> listeners =
         new CopyOnWriteArraySet<TwoPhaseCommitEventListener>();
 
+    /** バックグラウンドの作業を実行するワークマネージャ */
+    protected WorkManager workManager;
+
+    /** 2フェーズコミットの準備フェーズを並行に実行する場合は {@literal true} */
+    protected boolean parallelPrepare;
+
+    /** 2フェーズコミットのコミットフェーズを並行に実行する場合は {@literal true} */
+    protected boolean parallelCommit;
+
+    /** 結果が確定した後のコミットフェーズをバックグラウンドで実行する場合は {@literal true} */
+    protected boolean asyncCommit;
+
+    /** コミットに失敗したリソースを再試行する間隔 (秒) */
+    protected long commitRetryIntervalSeconds = 10L;
+
+    /** コミットに失敗したリソースを再試行する最大回数 */
+    protected int maxCommitRetries = 10;
+
+    /** デフォルトのトランザクションタイムアウト (秒) */
+    protected int defaultTransactionTimeout;
+
+    /** タイムアウトしたトランザクションのリソースをロールバックする場合は {@literal true} */
+    protected boolean rollbackOnTimeout;
+
+    /** トランザクションのタイムアウトを管理するタイマホイールのバケット数 */
+    protected int timerWheelSize = 512;
+
+    /** ラストリソースがコミットの決定を記録できる場合にトランザクションログを省略する場合は {@literal true} */
+    protected boolean loglessLastResourceCommit;
+
+    /** トランザクションのタイムアウトを管理するタイマホイール */
+    protected volatile TimerWheel timerWheel;
+
+    /** タイマホイールを定期的に進めるタスクの {@link ScheduledFuture} */
+    protected ScheduledFuture<?> timerWheelFuture;
+
+    /** 他のスレッドへ引き渡され，まだ引き継がれていないトランザクション */
+    protected final ConcurrentMap<TraminaTransaction, TransactionHandoff> pendingHandoffs =
+        new ConcurrentHashMap<TraminaTransaction, TransactionHandoff>();
+
+    /** 完了していないコミットの再試行 */
+    protected final Set<CommitRetryTask> pendingCommitRetries =
+        Collections
+            .newSetFromMap(new ConcurrentHashMap<CommitRetryTask, Boolean>());
+
     // /////////////////////////////////////////////////////////////////
     // instance methods from TransactionManager
     //
     @Override
     public int getStatus() throws SystemException {
         assertInitialized(this);
-        final TraminaTransaction current = currentTransactions.get();
+        final TraminaTransaction current = transactionContext.getTransaction();
         if (current == null) {
             return Status.STATUS_NO_TRANSACTION;
         }
@@ -95,7 +160,8 @@ public class TraminaTransactionManagerImpl extends
     public void begin() throws NotSupportedException, SystemException,
             NotInitializedException {
         assertInitialized(this);
-        final TraminaTransactionInternal parent = currentTransactions.get();
+        final TraminaTransactionInternal parent =
+            transactionContext.getTransaction();
         if (parent == null) {
             new ToplevelTransactionImpl(this).begin();
         } else {
@@ -120,9 +186,61 @@ public class TraminaTransactionManagerImpl extends
         assertParameterNotNull("transaction", transaction);
         assertTransactionNotAssociated();
         assertTraminaTransaction(transaction);
+        if (pendingHandoffs.containsKey(transaction)) {
+            throw new TransactionHandedOffException(transaction);
+        }
         ((TraminaTransactionInternal) transaction).resume();
     }
 
+    @Override
+    public TransactionHandoff handOff() throws SystemException {
+        assertInitialized(this);
+        assertTransacstionActiveOrMarkedRollback();
+        final TraminaTransactionInternal current = getTransaction();
+        final TransactionHandoff handoff =
+            new TransactionHandoffImpl(this, current);
+        pendingHandoffs.put(current, handoff);
+        boolean suspended = false;
+        try {
+            current.suspend();
+            suspended = true;
+        } finally {
+            if (!suspended) {
+                pendingHandoffs.remove(current);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(TRANSACTION_HANDED_OFF.format(handoff));
+        }
+        return handoff;
+    }
+
+    @Override
+    public TraminaTransaction takeOver(final TransactionHandoff handoff)
+            throws SystemException {
+        assertInitialized(this);
+        assertParameterNotNull("handoff", handoff);
+        assertTransactionNotAssociated();
+        final TraminaTransaction transaction = handoff.getTransaction();
+        if (transaction == null
+            || !pendingHandoffs.remove(transaction, handoff)) {
+            throw new InvalidTransactionHandoffException(handoff);
+        }
+        boolean resumed = false;
+        try {
+            ((TraminaTransactionInternal) transaction).resume();
+            resumed = true;
+        } finally {
+            if (!resumed) {
+                pendingHandoffs.putIfAbsent(transaction, handoff);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(TRANSACTION_TAKEN_OVER.format(handoff));
+        }
+        return transaction;
+    }
+
     @Override
     public void commit() throws RollbackException, HeuristicMixedException,
             HeuristicRollbackException, SecurityException,
@@ -148,6 +266,11 @@ public class TraminaTransactionManagerImpl extends
 
     @Override
     public void setTransactionTimeout(final int seconds) throws SystemException {
+        assertInitialized(this);
+        if (seconds < 0) {
+            throw new InvalidTransactionTimeoutException(seconds);
+        }
+        transactionContext.setTransactionTimeout(seconds);
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -156,7 +279,7 @@ public class TraminaTransactionManagerImpl extends
     @Override
     public TraminaTransactionInternal getTransaction() {
         assertInitialized(this);
-        return currentTransactions.get();
+        return transactionContext.getTransaction();
     }
 
     @Override
@@ -216,17 +339,98 @@ public class TraminaTransactionManagerImpl extends
         return domainId;
     }
 
+    @Override
+    public WorkManager getPrepareWorkManager() {
+        assertInitialized(this);
+        return parallelPrepare ? workManager : null;
+    }
+
+    @Override
+    public WorkManager getCommitWorkManager() {
+        assertInitialized(this);
+        return parallelCommit ? workManager : null;
+    }
+
+    @Override
+    public WorkManager getAsyncCommitWorkManager() {
+        assertInitialized(this);
+        return asyncCommit ? workManager : null;
+    }
+
+    @Override
+    public boolean retryCommit(final ToplevelTransaction transaction,
+            final SameResources[] failedResources, final Runnable completion) {
+        assertInitialized(this);
+        assertParameterNotNull("transaction", transaction);
+        assertParameterNotNull("failedResources", failedResources);
+        assertParameterNotNull("completion", completion);
+        if (workManager == null || maxCommitRetries <= 0) {
+            return false;
+        }
+        for (final SameResources resource : failedResources) {
+            new CommitRetryTask(transaction, resource, completion).schedule();
+        }
+        return true;
+    }
+
+    @Override
+    public int getTransactionTimeout() {
+        assertInitialized(this);
+        final int timeout = transactionContext.getTransactionTimeout();
+        return timeout != 0 ? timeout : defaultTransactionTimeout;
+    }
+
+    @Override
+    public boolean isRollbackOnTimeout() {
+        assertInitialized(this);
+        return rollbackOnTimeout;
+    }
+
+    @Override
+    public boolean isLoglessLastResourceCommit() {
+        assertInitialized(this);
+        return loglessLastResourceCommit;
+    }
+
+    @Override
+    public Timeout scheduleTimeout(final Runnable task, final int seconds) {
+        assertInitialized(this);
+        assertParameterNotNull("task", task);
+        if (workManager == null) {
+            return null;
+        }
+        return getTimerWheel().schedule(
+            rollbackOnTimeout ? new TimeoutDispatchTask(task) : task,
+            seconds,
+            TimeUnit.SECONDS);
+    }
+
     @Override
     public void associate(final TraminaTransactionInternal transaction) {
         assertInitialized(this);
         assertParameterNotNull("transaction", transaction);
-        currentTransactions.set(transaction);
+        transactionContext.setTransaction(transaction);
     }
 
     @Override
     public void dissociate() {
         assertInitialized(this);
-        currentTransactions.set(null);
+        transactionContext.clearTransaction();
+    }
+
+    @Override
+    public void releaseHandoff(final TraminaTransaction transaction) {
+        if (pendingHandoffs.isEmpty()) {
+            return;
+        }
+        for (final Map.Entry<TraminaTransaction, TransactionHandoff> entry : pendingHandoffs
+            .entrySet()) {
+            if (isSameOrDescendant(entry.getKey(), transaction)
+                && pendingHandoffs.remove(entry.getKey(), entry.getValue())) {
+                logger.warning(TRANSACTION_HANDOFF_ABANDONED.format(entry
+                    .getValue()));
+            }
+        }
     }
 
     @Override
@@ -314,10 +518,20 @@ public class TraminaTransactionManagerImpl extends
     //
     @Override
     protected void doInitialize() {
+        if (parallelPrepare || parallelCommit || asyncCommit) {
+            assertPropertyNotNull(this, "workManager", workManager);
+        }
     }
 
     @Override
     protected void doDispose() {
+        if (timerWheelFuture != null) {
+            timerWheelFuture.cancel(false);
+        }
+        if (!pendingCommitRetries.isEmpty()) {
+            logger.warning(COMMIT_RETRY_ABANDONED.format(pendingCommitRetries
+                .size()));
+        }
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -326,7 +540,16 @@ public class TraminaTransactionManagerImpl extends
     @Override
     public String toString() {
         return super.toString() + "[activityStatus : <" + activityStatus
-            + ">, domainId : <" + domainId + ">]";
+            + ">, domainId : <" + domainId + ">, workManager : <"
+            + workManager + ">, parallelPrepare : <" + parallelPrepare
+            + ">, parallelCommit : <" + parallelCommit + ">, asyncCommit : <"
+            + asyncCommit + ">, commitRetryIntervalSeconds : <"
+            + commitRetryIntervalSeconds + ">, maxCommitRetries : <"
+            + maxCommitRetries + ">, defaultTransactionTimeout : <"
+            + defaultTransactionTimeout + ">, rollbackOnTimeout : <"
+            + rollbackOnTimeout + ">, loglessLastResourceCommit : <"
+            + loglessLastResourceCommit + ">, transactionContext : <"
+            + transactionContext + ">]";
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -347,6 +570,293 @@ public class TraminaTransactionManagerImpl extends
         return this;
     }
 
+    /**
+     * 現在のスレッドとトランザクションの関連づけを保持するコンテキストを設定します．
+     * <p>
+     * デフォルトは {@link ThreadLocalTransactionContext} です．
+     * タスクごとにスレッドを作成するエグゼキュータで多数のトランザクションを並行に実行する場合は
+     * {@link ConcurrentTransactionContext} を使用できます．
+     * </p>
+     * 
+     * @param transactionContext
+     *            トランザクションコンテキスト
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setTransactionContext(
+            final TransactionContext transactionContext)
+            throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        assertParameterNotNull("transactionContext", transactionContext);
+        this.transactionContext = transactionContext;
+        return this;
+    }
+
+    /**
+     * バックグラウンドの作業を実行するワークマネージャを設定します．
+     * 
+     * @param workManager
+     *            ワークマネージャ
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setWorkManager(
+            final WorkManager workManager) throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        assertParameterNotNull("workManager", workManager);
+        this.workManager = workManager;
+        return this;
+    }
+
+    /**
+     * 2フェーズコミットの準備フェーズを並行に実行するかどうかを設定します．
+     * <p>
+     * {@literal true} の場合，ラストリソース以外のリソースに対する {@link javax.transaction.xa.XAResource#prepare(javax.transaction.xa.Xid)}
+     * が {@link #setWorkManager(WorkManager) ワークマネージャ} 上で並行に呼び出されます．
+     * 準備フェーズに要する時間は各リソースの合計ではなく，最も遅いリソースの時間になります．
+     * </p>
+     * 
+     * @param parallelPrepare
+     *            準備フェーズを並行に実行する場合は {@literal true}
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setParallelPrepare(
+            final boolean parallelPrepare) throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.parallelPrepare = parallelPrepare;
+        return this;
+    }
+
+    /**
+     * 2フェーズコミットのコミットフェーズを並行に実行するかどうかを設定します．
+     * <p>
+     * {@literal true} の場合，ラストリソース以外のリソースに対する
+     * {@link javax.transaction.xa.XAResource#commit(Xid, boolean)} が
+     * {@link #setWorkManager(WorkManager) ワークマネージャ} 上で並行に呼び出されます．
+     * </p>
+     * 
+     * @param parallelCommit
+     *            コミットフェーズを並行に実行する場合は {@literal true}
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setParallelCommit(
+            final boolean parallelCommit) throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.parallelCommit = parallelCommit;
+        return this;
+    }
+
+    /**
+     * 結果が確定した後のコミットフェーズをバックグラウンドで実行するかどうかを設定します．
+     * <p>
+     * {@literal true} の場合，ラストリソースのコミットによってトランザクションの結果が永続化された時点で
+     * {@link javax.transaction.TransactionManager#commit()} から復帰し，
+     * 残りのリソースのコミットは {@link #setWorkManager(WorkManager) ワークマネージャ} 上で実行されます．
+     * トランザクションシンクロナイゼーションの
+     * {@link javax.transaction.Synchronization#afterCompletion(int)}
+     * は全てのリソースのコミットが終わった後にワークマネージャのスレッドから呼び出されます．
+     * </p>
+     * 
+     * @param asyncCommit
+     *            コミットフェーズをバックグラウンドで実行する場合は {@literal true}
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setAsyncCommit(
+            final boolean asyncCommit) throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.asyncCommit = asyncCommit;
+        return this;
+    }
+
+    /**
+     * コミットに失敗したリソースを再試行する間隔 (秒) を設定します．
+     * <p>
+     * デフォルトは 10 秒です．
+     * 再試行が終了するまで，トランザクションの {@link javax.transaction.Synchronization#afterCompletion(int)}
+     * は呼び出されず，トランザクションに関連づけられたコネクションも解放されません．
+     * </p>
+     * 
+     * @param commitRetryIntervalSeconds
+     *            コミットに失敗したリソースを再試行する間隔 (秒)
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setCommitRetryIntervalSeconds(
+            final long commitRetryIntervalSeconds)
+            throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.commitRetryIntervalSeconds = commitRetryIntervalSeconds;
+        return this;
+    }
+
+    /**
+     * コミットに失敗したリソースを再試行する最大回数を設定します．
+     * <p>
+     * デフォルトは 10 回です． 0 を設定すると再試行は行われず，コミットに失敗したトランザクションの状態は
+     * {@link javax.transaction.Status#STATUS_UNKNOWN} になります．
+     * 再試行にはワークマネージャが必要です．
+     * </p>
+     * 
+     * @param maxCommitRetries
+     *            コミットに失敗したリソースを再試行する最大回数
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setMaxCommitRetries(
+            final int maxCommitRetries) throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.maxCommitRetries = maxCommitRetries;
+        return this;
+    }
+
+    /**
+     * デフォルトのトランザクションタイムアウト (秒) を設定します．
+     * <p>
+     * {@link #setTransactionTimeout(int)} でタイムアウトが設定されていないスレッドで開始される
+     * トップレベルトランザクションに適用されます． デフォルトは 0 (タイムアウトしない) です．
+     * タイムアウトしたトランザクションはロールバックのみにマークされます．
+     * {@link #setWorkManager(WorkManager) ワークマネージャ} が設定されていない場合，
+     * タイムアウトはコミット時およびリソースの参加時にのみ検出されます．
+     * </p>
+     * 
+     * @param defaultTransactionTimeout
+     *            デフォルトのトランザクションタイムアウト (秒)
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setDefaultTransactionTimeout(
+            final int defaultTransactionTimeout)
+            throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.defaultTransactionTimeout = defaultTransactionTimeout;
+        return this;
+    }
+
+    /**
+     * タイムアウトしたトランザクションのリソースをロールバックするかどうかを設定します．
+     * <p>
+     * {@literal true} の場合，タイムアウトしたトランザクションのリソースは
+     * アプリケーションがトランザクションを完了するのを待たずに
+     * {@link #setWorkManager(WorkManager) ワークマネージャ} のスレッドでロールバックされ，
+     * 保持しているロックが解放されます． デフォルトは {@literal false} です．
+     * </p>
+     * 
+     * @param rollbackOnTimeout
+     *            タイムアウトしたトランザクションのリソースをロールバックする場合は {@literal true}
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setRollbackOnTimeout(
+            final boolean rollbackOnTimeout) throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.rollbackOnTimeout = rollbackOnTimeout;
+        return this;
+    }
+
+    /**
+     * ラストリソースがコミットの決定を記録できる場合にトランザクションログを省略するかどうかを設定します．
+     * <p>
+     * {@literal true} の場合，ラストリソースが {@link LoglessLastXAResource} であれば，
+     * 2フェーズコミットはトランザクションログのコネクションを使わずに，
+     * コミットの決定をラストリソースのローカルトランザクションに記録します．
+     * リカバリを行うためには，トランザクションログマネージャがラストリソースと同じデータベースを参照しなければなりません．
+     * デフォルトは {@literal false} です．
+     * </p>
+     * 
+     * @param loglessLastResourceCommit
+     *            ロガーレスのラストリソースコミットを行う場合は {@literal true}
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setLoglessLastResourceCommit(
+            final boolean loglessLastResourceCommit)
+            throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.loglessLastResourceCommit = loglessLastResourceCommit;
+        return this;
+    }
+
+    /**
+     * トランザクションのタイムアウトを管理するタイマホイールのバケット数を設定します．
+     * <p>
+     * タイマホイールは1秒ごとに進みます． デフォルトは 512 です．
+     * </p>
+     * 
+     * @param timerWheelSize
+     *            タイマホイールのバケット数
+     * @return このインスタンス自身
+     * @throws AlreadyInitializedException
+     */
+    public TraminaTransactionManagerImpl setTimerWheelSize(
+            final int timerWheelSize) throws AlreadyInitializedException {
+        assertBeforeInitialized(this);
+        this.timerWheelSize = timerWheelSize;
+        return this;
+    }
+
+    /**
+     * 完了していないコミットの再試行の数を返します．
+     * 
+     * @return 完了していないコミットの再試行の数
+     */
+    public int getPendingCommitRetryCount() {
+        return pendingCommitRetries.size();
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for internal
+    //
+    /**
+     * タイマホイールを返します．
+     * <p>
+     * タイマホイールは最初にタイムアウトが登録された時に作成され，
+     * {@link #setWorkManager(WorkManager) ワークマネージャ} によって1秒ごとに進められます．
+     * </p>
+     * 
+     * @return タイマホイール
+     */
+    protected TimerWheel getTimerWheel() {
+        final TimerWheel wheel = timerWheel;
+        if (wheel != null) {
+            return wheel;
+        }
+        synchronized (this) {
+            if (timerWheel == null) {
+                final TimerWheel newWheel =
+                    new TimerWheel(timerWheelSize, 1L, TimeUnit.SECONDS);
+                timerWheelFuture =
+                    workManager.scheduleAtFixedRate(newWheel, 1L, 1L);
+                timerWheel = newWheel;
+            }
+            return timerWheel;
+        }
+    }
+
+    /**
+     * <code>transaction</code> が <code>ancestor</code> 自身またはそのサブトランザクションの場合は
+     * {@literal true} を返します．
+     * 
+     * @param transaction
+     *            トランザクション
+     * @param ancestor
+     *            祖先のトランザクション
+     * @return <code>transaction</code> が <code>ancestor</code>
+     *         自身またはそのサブトランザクションの場合は {@literal true}
+     */
+    protected boolean isSameOrDescendant(final TraminaTransaction transaction,
+            final TraminaTransaction ancestor) {
+        for (TraminaTransaction tx = transaction; tx != null; tx =
+            tx.getParent()) {
+            if (tx == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // /////////////////////////////////////////////////////////////////
     // instance methods for assertions
     //
@@ -395,4 +905,172 @@ public class TraminaTransactionManagerImpl extends
         throw new InvalidTraminaTransactionException(tx);
     }
 
+    // /////////////////////////////////////////////////////////////////
+    // member types
+    //
+    /**
+     * タイムアウトのタスクをタイマホイールのスレッドではなくワークマネージャのスレッドで実行するタスクです．
+     */
+    protected class TimeoutDispatchTask implements Runnable {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final Runnable task;
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param task
+         */
+        public TimeoutDispatchTask(final Runnable task) {
+            this.task = task;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Runnable
+        //
+        @Override
+        public void run() {
+            try {
+                workManager.schedule(
+                    Executors.callable(task),
+                    0L,
+                    TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                task.run();
+            }
+        }
+
+    }
+
+    /**
+     * コミットに失敗したリソースのコミットを再試行するタスクです．
+     * <p>
+     * 再試行が最大回数に達した場合，リソースはインダウトトランザクションとして残り，リカバリによって解決されます．
+     * </p>
+     */
+    protected class CommitRetryTask implements Callable<Void> {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final ToplevelTransaction transaction;
+
+        protected final SameResources resource;
+
+        protected final Runnable completion;
+
+        protected int retries;
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param transaction
+         * @param resource
+         * @param completion
+         */
+        public CommitRetryTask(final ToplevelTransaction transaction,
+                final SameResources resource, final Runnable completion) {
+            this.transaction = transaction;
+            this.resource = resource;
+            this.completion = completion;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Callable
+        //
+        @Override
+        public Void call() {
+            ++retries;
+            try {
+                resource.commit();
+            } catch (final SystemException e) {
+                if (!isForgotten(e)) {
+                    schedule();
+                    return null;
+                }
+            } catch (final RuntimeException e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED_IN_COMMIT_PROCESS
+                    .format(transaction), e);
+                schedule();
+                return null;
+            }
+            pendingCommitRetries.remove(this);
+            logger.info(COMMIT_RETRY_SUCCEEDED.format(
+                transaction,
+                resource.getXAResource(),
+                retries));
+            complete();
+            return null;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods
+        //
+        /**
+         * 次の再試行を予約します．
+         */
+        public void schedule() {
+            if (retries < maxCommitRetries) {
+                pendingCommitRetries.add(this);
+                try {
+                    workManager.schedule(
+                        this,
+                        commitRetryIntervalSeconds,
+                        TimeUnit.SECONDS);
+                    logger.warning(COMMIT_RETRY_SCHEDULED.format(
+                        transaction,
+                        resource.getXAResource(),
+                        retries));
+                    return;
+                } catch (final RejectedExecutionException e) {
+                    logger.warning(COMMIT_RETRY_EXHAUSTED.format(
+                        transaction,
+                        resource.getXAResource(),
+                        retries), e);
+                }
+            } else {
+                logger.error(COMMIT_RETRY_EXHAUSTED.format(
+                    transaction,
+                    resource.getXAResource(),
+                    retries));
+            }
+            pendingCommitRetries.remove(this);
+            complete();
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods for internal
+        //
+        /**
+         * 再試行の終了をトランザクションに通知します．
+         */
+        protected void complete() {
+            try {
+                completion.run();
+            } catch (final RuntimeException e) {
+                logger.error(UNEXPECTED_EXCEPTION_OCCURRED_IN_COMMIT_PROCESS
+                    .format(transaction), e);
+            }
+        }
+
+        /**
+         * リソースマネージャがトランザクションブランチを既に知らない (リカバリ等によって完了した) 場合は
+         * {@literal true} を返します．
+         * 
+         * @param e
+         *            コミットの失敗を表す例外
+         * @return トランザクションブランチが既に完了している場合は {@literal true}
+         */
+        protected boolean isForgotten(final SystemException e) {
+            final Throwable cause = e.getCause();
+            return cause instanceof XAException
+                && ((XAException) cause).errorCode == XAException.XAER_NOTA;
+        }
+
+    }
+
 }
@@ -15,7 +15,6 @@
  */
 package org.seasar.tramina.transaction.impl;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicLong;
@@ -26,7 +25,12 @@ import org.seasar.tramina.spi.TraminaXid;
 import org.seasar.tramina.util.XidUtil;
 
 /**
- * 
+ * Tramina が生成する {@link Xid} の実装です．
+ * <p>
+ * ドメイン ID，グローバルトランザクション ID，ブランチ修飾子を {@literal long} で保持し，
+ * バイト表現はリソースマネージャから要求された時点で作成してキャッシュします．
+ * グローバルトランザクション ID のバイト表現は同じトランザクションの全てのブランチで共有されます．
+ * </p>
  * 
  * @author koichik
  */
@@ -54,9 +58,16 @@ public class TraminaXidImpl implements TraminaXid {
 
     protected final long branchQualifier;
 
-    protected final byte[] globalTransactionIdBytes;
+    /** グローバルトランザクション ID のバイト表現を保持するルートの {@link Xid} */
+    protected final TraminaXidImpl root;
+
+    /**
+     * グローバルトランザクション ID のバイト表現 (ルートだけが保持し，最初に要求されるまで{@literal null})
+     */
+    protected volatile byte[] globalTransactionIdBytes;
 
-    protected final byte[] branchQualifierBytes;
+    /** ブランチ修飾子のバイト表現 (最初に要求されるまで{@literal null}) */
+    protected volatile byte[] branchQualifierBytes;
 
     protected long nextBranchQualifier;
 
@@ -79,8 +90,19 @@ public class TraminaXidImpl implements TraminaXid {
         this.domainId = domainId;
         this.globalTransactionId = globalTransactionId;
         this.branchQualifier = branchQualifier;
-        globalTransactionIdBytes = createGlobalTransactionIdBytes();
-        branchQualifierBytes = createBranchQualifierBytes();
+        root = this;
+    }
+
+    /**
+     * @param root
+     * @param branchQualifier
+     */
+    protected TraminaXidImpl(final TraminaXidImpl root,
+            final long branchQualifier) {
+        domainId = root.domainId;
+        globalTransactionId = root.globalTransactionId;
+        this.branchQualifier = branchQualifier;
+        this.root = root;
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -91,18 +113,32 @@ public class TraminaXidImpl implements TraminaXid {
     }
 
     public static long getDomainId(final Xid xid) {
-        final ByteBuffer buffer = ByteBuffer.wrap(xid.getGlobalTransactionId());
-        return buffer.getLong();
+        if (xid instanceof TraminaXidImpl) {
+            return ((TraminaXidImpl) xid).domainId;
+        }
+        return getLong(xid.getGlobalTransactionId(), 0);
+    }
+
+    protected static long getLong(final byte[] bytes, final int offset) {
+        long value = 0L;
+        for (int i = offset; i < offset + 8; ++i) {
+            value = value << 8 | bytes[i] & 0xffL;
+        }
+        return value;
+    }
+
+    protected static void putLong(final byte[] bytes, final int offset,
+            final long value) {
+        for (int i = offset + 7; i >= offset; --i) {
+            bytes[i] = (byte) (value >>> ((offset + 7 - i) * 8));
+        }
     }
 
     // /////////////////////////////////////////////////////////////////
     // instance methods from TraminaXid
     //
     public TraminaXidImpl createNewBranch() {
-        return new TraminaXidImpl(
-            domainId,
-            globalTransactionId,
-            ++nextBranchQualifier);
+        return new TraminaXidImpl(root, ++nextBranchQualifier);
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -113,14 +149,33 @@ public class TraminaXidImpl implements TraminaXid {
         return FORMAT_ID;
     }
 
+    /**
+     * グローバルトランザクション ID のバイト表現を返します．
+     * <p>
+     * 返される配列は同じトランザクションの全てのブランチで共有されるため，変更してはいけません．
+     * </p>
+     */
     @Override
     public byte[] getGlobalTransactionId() {
-        return globalTransactionIdBytes;
+        if (root != this) {
+            return root.getGlobalTransactionId();
+        }
+        byte[] bytes = globalTransactionIdBytes;
+        if (bytes == null) {
+            bytes = createGlobalTransactionIdBytes();
+            globalTransactionIdBytes = bytes;
+        }
+        return bytes;
     }
 
     @Override
     public byte[] getBranchQualifier() {
-        return branchQualifierBytes;
+        byte[] bytes = branchQualifierBytes;
+        if (bytes == null) {
+            bytes = createBranchQualifierBytes();
+            branchQualifierBytes = bytes;
+        }
+        return bytes;
     }
 
     // /////////////////////////////////////////////////////////////////
@@ -128,11 +183,22 @@ public class TraminaXidImpl implements TraminaXid {
     //
     @Override
     public int hashCode() {
-        return (int) globalTransactionId;
+        int result = (int) (globalTransactionId ^ globalTransactionId >>> 32);
+        result = 31 * result + (int) (branchQualifier ^ branchQualifier >>> 32);
+        return 31 * result + (int) (domainId ^ domainId >>> 32);
     }
 
     @Override
     public boolean equals(final Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj instanceof TraminaXidImpl) {
+            final TraminaXidImpl other = (TraminaXidImpl) obj;
+            return globalTransactionId == other.globalTransactionId
+                && branchQualifier == other.branchQualifier
+                && domainId == other.domainId;
+        }
         if (!(obj instanceof Xid)) {
             return false;
         }
@@ -140,11 +206,11 @@ public class TraminaXidImpl implements TraminaXid {
         if (FORMAT_ID != xid.getFormatId()) {
             return false;
         }
-        if (!Arrays.equals(globalTransactionIdBytes, xid
+        if (!Arrays.equals(getGlobalTransactionId(), xid
             .getGlobalTransactionId())) {
             return false;
         }
-        if (!Arrays.equals(branchQualifierBytes, xid.getBranchQualifier())) {
+        if (!Arrays.equals(getBranchQualifier(), xid.getBranchQualifier())) {
             return false;
         }
         return true;
@@ -160,18 +226,16 @@ public class TraminaXidImpl implements TraminaXid {
     //
     protected byte[] createGlobalTransactionIdBytes() {
         final byte[] bytes = new byte[MAXGTRIDSIZE];
-        final ByteBuffer buf = ByteBuffer.wrap(bytes);
-        buf.putLong(domainId);
-        buf.putLong(uuid.getMostSignificantBits());
-        buf.putLong(uuid.getLeastSignificantBits());
-        buf.putLong(MAXGTRIDSIZE - 8, globalTransactionId);
+        putLong(bytes, 0, domainId);
+        putLong(bytes, 8, uuid.getMostSignificantBits());
+        putLong(bytes, 16, uuid.getLeastSignificantBits());
+        putLong(bytes, MAXGTRIDSIZE - 8, globalTransactionId);
         return bytes;
     }
 
     protected byte[] createBranchQualifierBytes() {
         final byte[] bytes = new byte[MAXBQUALSIZE];
-        final ByteBuffer buf = ByteBuffer.wrap(bytes);
-        buf.putLong(MAXBQUALSIZE - 8, branchQualifier);
+        putLong(bytes, MAXBQUALSIZE - 8, branchQualifier);
         return bytes;
     }
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.transaction.impl;
+
+import org.seasar.tramina.spi.TraminaTransaction;
+import org.seasar.tramina.spi.TraminaTransactionManager;
+import org.seasar.tramina.spi.TransactionHandoff;
+
+import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
+
+/**
+ * {@link TransactionHandoff} の実装です．
+ * 
+ * @author koichik
+ */
+public class TransactionHandoffImpl implements TransactionHandoff {
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    protected final TraminaTransactionManager transactionManager;
+
+    protected final TraminaTransaction transaction;
+
+    /** トランザクションを引き渡したスレッドの名前 */
+    protected final String threadName = Thread.currentThread().getName();
+
+    // /////////////////////////////////////////////////////////////////
+    // constructors
+    //
+    /**
+     * @param transactionManager
+     * @param transaction
+     */
+    public TransactionHandoffImpl(
+            final TraminaTransactionManager transactionManager,
+            final TraminaTransaction transaction) {
+        assertParameterNotNull("transactionManager", transactionManager);
+        assertParameterNotNull("transaction", transaction);
+        this.transactionManager = transactionManager;
+        this.transaction = transaction;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from TransactionHandoff
+    //
+    @Override
+    public TraminaTransaction getTransaction() {
+        return transaction;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from Object
+    //
+    @Override
+    public String toString() {
+        return super.toString() + "[transaction : <" + transaction
+            + ">, threadName : <" + threadName + ">]";
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ロックを使わずに所要時間の分布を記録するヒストグラムです．
+ * <p>
+ * 所要時間 (ナノ秒単位) は 2 のべき乗を境界とするバケットに数えられます． そのため，パーセンタイルはバケットの上限値として近似されます．
+ * 記録は複数のスレッドから同時に行うことができます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class LatencyHistogram {
+
+    // /////////////////////////////////////////////////////////////////
+    // constants
+    //
+    /** バケットの数 */
+    protected static final int BUCKETS = Long.SIZE + 1;
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    /** バケットごとの記録数 */
+    protected final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /** 記録数 */
+    protected final AtomicLong count = new AtomicLong();
+
+    /** 所要時間の合計 (ナノ秒単位) */
+    protected final AtomicLong totalNanos = new AtomicLong();
+
+    /** 所要時間の最大値 (ナノ秒単位) */
+    protected final AtomicLong maxNanos = new AtomicLong();
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods
+    //
+    /**
+     * 所要時間を記録します．
+     * 
+     * @param nanos
+     *            所要時間 (ナノ秒単位)
+     */
+    public void record(final long nanos) {
+        final long value = nanos < 0L ? 0L : nanos;
+        buckets.incrementAndGet(Long.SIZE
+            - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        totalNanos.addAndGet(value);
+        for (long max = maxNanos.get(); value > max; max = maxNanos.get()) {
+            if (maxNanos.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 記録数を返します．
+     * 
+     * @return 記録数
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 所要時間の合計を返します．
+     * 
+     * @param unit
+     *            時間単位
+     * @return 所要時間の合計
+     */
+    public long getTotal(final TimeUnit unit) {
+        return unit.convert(totalNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 所要時間の平均を返します．
+     * 
+     * @param unit
+     *            時間単位
+     * @return 所要時間の平均．記録がない場合は {@literal 0}
+     */
+    public long getMean(final TimeUnit unit) {
+        final long n = count.get();
+        return n == 0L ? 0L : unit.convert(
+            totalNanos.get() / n,
+            TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 所要時間の最大値を返します．
+     * 
+     * @param unit
+     *            時間単位
+     * @return 所要時間の最大値
+     */
+    public long getMax(final TimeUnit unit) {
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 指定されたパーセンタイルの所要時間の近似値を返します．
+     * 
+     * @param percentile
+     *            パーセンタイル ({@literal 0} 以上 {@literal 100} 以下の範囲に丸められます)
+     * @param unit
+     *            時間単位
+     * @return パーセンタイルを含むバケットの上限値． 記録がない場合は {@literal 0}
+     */
+    public long getPercentile(final double percentile, final TimeUnit unit) {
+        final long[] snapshot = getBucketCounts();
+        long n = 0L;
+        for (final long bucket : snapshot) {
+            n += bucket;
+        }
+        if (n == 0L) {
+            return 0L;
+        }
+        final double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        final long rank = Math.max((long) Math.ceil(n * p / 100.0), 1L);
+        long cumulative = 0L;
+        for (int i = 0; i < BUCKETS; ++i) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return unit.convert(
+                    Math.min(getUpperBound(i), maxNanos.get()),
+                    TimeUnit.NANOSECONDS);
+            }
+        }
+        return getMax(unit);
+    }
+
+    /**
+     * バケットごとの記録数のスナップショットを返します．
+     * <p>
+     * インデックス {@literal i} のバケットは {@literal 2^(i-1)} 以上 {@literal 2^i}
+     * 未満の所要時間 (ナノ秒単位) を数えます． インデックス {@literal 0} のバケットは所要時間 {@literal 0}
+     * を数えます．
+     * </p>
+     * 
+     * @return バケットごとの記録数
+     */
+    public long[] getBucketCounts() {
+        final long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = buckets.get(i);
+        }
+        return snapshot;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from Object
+    //
+    @Override
+    public String toString() {
+        return super.toString() + "[count : <" + getCount()
+            + ">, meanMicros : <" + getMean(TimeUnit.MICROSECONDS)
+            + ">, p50Micros : <" + getPercentile(50.0, TimeUnit.MICROSECONDS)
+            + ">, p99Micros : <" + getPercentile(99.0, TimeUnit.MICROSECONDS)
+            + ">, maxMicros : <" + getMax(TimeUnit.MICROSECONDS) + ">]";
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for internal
+    //
+    protected long getUpperBound(final int bucket) {
+        return bucket >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << bucket) - 1L;
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.work;
+
+/**
+ * {@link ListenableFuture} の完了を通知されるコールバックです．
+ * 
+ * @param <V>
+ *            結果の型
+ * @author koichik
+ */
+public interface FutureCallback<V> {
+
+    /**
+     * 非同期処理が正常に完了した場合に呼び出されます．
+     * 
+     * @param result
+     *            非同期処理の結果
+     */
+    void onSuccess(V result);
+
+    /**
+     * 非同期処理が失敗または取り消された場合に呼び出されます．
+     * 
+     * @param cause
+     *            失敗の原因となった例外．取り消された場合は
+     *            {@link java.util.concurrent.CancellationException}
+     */
+    void onFailure(Throwable cause);
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.work;
+
+import java.util.concurrent.Future;
+
+/**
+ * 完了時にコールバックを呼び出すことのできる {@link Future} です．
+ * 
+ * @param <V>
+ *            結果の型
+ * @author koichik
+ */
+public interface ListenableFuture<V> extends Future<V> {
+
+    /**
+     * 完了時に呼び出されるコールバックを追加します．
+     * <p>
+     * 既に完了している場合，コールバックは呼び出し元のスレッドで直ちに呼び出されます．
+     * そうでない場合は完了させたスレッドで呼び出されます． コールバックは例外をスローしてはいけません．
+     * </p>
+     * 
+     * @param callback
+     *            コールバック
+     */
+    void addCallback(FutureCallback<? super V> callback);
+
+}
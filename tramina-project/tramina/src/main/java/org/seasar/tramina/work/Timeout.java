@@ -0,0 +1,40 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.work;
+
+/**
+ * {@link org.seasar.tramina.work.impl.TimerWheel} に登録されたタイムアウトです．
+ * 
+ * @author koichik
+ */
+public interface Timeout {
+
+    /**
+     * タイムアウトを取り消します．
+     * 
+     * @return 取り消した場合は {@literal true}，既に満了しているか取り消されている場合は
+     *         {@literal false}
+     */
+    boolean cancel();
+
+    /**
+     * タイムアウトが満了している場合は {@literal true} を返します．
+     * 
+     * @return タイムアウトが満了している場合は {@literal true}
+     */
+    boolean isExpired();
+
+}
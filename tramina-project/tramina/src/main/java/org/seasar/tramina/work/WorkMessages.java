@@ -36,6 +36,9 @@ public enum WorkMessages implements EnumMessage {
     /** */
     WORK_MANAGER_STOPPED("WorkManager is stopped. workManager={0}",
             "WorkManagerを終了しました．workManager={0}"),
+    /** */
+    TIMEOUT_TASK_RAISED_EXCEPTION("Timeout task raised exception. task={0}",
+            "タイムアウトのタスクが例外をスローしました．task={0}"),
     /* */
     ;
 
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.work.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.seasar.tramina.work.FutureCallback;
+import org.seasar.tramina.work.ListenableFuture;
+
+import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
+
+/**
+ * 結果を明示的に設定することで完了する {@link ListenableFuture} の実装です．
+ * <p>
+ * 最初に呼び出された {@link #set(Object)}，{@link #setException(Throwable)}，
+ * {@link #cancel(boolean)} のいずれかだけが有効となり，それ以降の呼び出しは {@literal false} を返します．
+ * </p>
+ * 
+ * @param <V>
+ *            結果の型
+ * @author koichik
+ */
+public class SettableFuture<V> implements ListenableFuture<V> {
+
+    // /////////////////////////////////////////////////////////////////
+    // constants
+    //
+    /** 未完了 */
+    protected static final int PENDING = 0;
+
+    /** 正常に完了 */
+    protected static final int SUCCEEDED = 1;
+
+    /** 例外で完了 */
+    protected static final int FAILED = 2;
+
+    /** 取り消し */
+    protected static final int CANCELLED = 3;
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    /** 完了を待機するためのラッチ */
+    protected final CountDownLatch latch = new CountDownLatch(1);
+
+    /** 状態 */
+    protected volatile int state = PENDING;
+
+    /** 結果 */
+    protected V value;
+
+    /** 失敗の原因となった例外 */
+    protected Throwable cause;
+
+    /** 完了時に呼び出されるコールバックのリスト */
+    protected List<FutureCallback<? super V>> callbacks;
+
+    // /////////////////////////////////////////////////////////////////
+    // constructors
+    //
+    /**
+     * インスタンスを構築します．
+     */
+    public SettableFuture() {
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from ListenableFuture
+    //
+    @Override
+    public void addCallback(final FutureCallback<? super V> callback) {
+        assertParameterNotNull("callback", callback);
+        synchronized (this) {
+            if (state == PENDING) {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<FutureCallback<? super V>>(1);
+                }
+                callbacks.add(callback);
+                return;
+            }
+        }
+        invokeCallback(callback);
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from Future
+    //
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return complete(CANCELLED, null, null);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public boolean isDone() {
+        return state != PENDING;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getResult();
+    }
+
+    @Override
+    public V get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from Object
+    //
+    @Override
+    public String toString() {
+        return super.toString() + "[state : <" + state + ">]";
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods
+    //
+    /**
+     * 結果を設定して正常に完了させます．
+     * 
+     * @param value
+     *            結果
+     * @return 完了させた場合は {@literal true}，既に完了していた場合は {@literal false}
+     */
+    public boolean set(final V value) {
+        return complete(SUCCEEDED, value, null);
+    }
+
+    /**
+     * 例外を設定して失敗として完了させます．
+     * 
+     * @param cause
+     *            失敗の原因となった例外
+     * @return 完了させた場合は {@literal true}，既に完了していた場合は {@literal false}
+     */
+    public boolean setException(final Throwable cause) {
+        assertParameterNotNull("cause", cause);
+        return complete(FAILED, null, cause);
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for internal
+    //
+    protected boolean complete(final int newState, final V value,
+            final Throwable cause) {
+        final List<FutureCallback<? super V>> callbacks;
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            this.value = value;
+            this.cause = cause;
+            state = newState;
+            callbacks = this.callbacks;
+            this.callbacks = null;
+        }
+        latch.countDown();
+        if (callbacks != null) {
+            for (final FutureCallback<? super V> callback : callbacks) {
+                invokeCallback(callback);
+            }
+        }
+        return true;
+    }
+
+    protected void invokeCallback(final FutureCallback<? super V> callback) {
+        switch (state) {
+        case SUCCEEDED:
+            callback.onSuccess(value);
+            break;
+        case FAILED:
+            callback.onFailure(cause);
+            break;
+        default:
+            callback.onFailure(new CancellationException());
+            break;
+        }
+    }
+
+    protected V getResult() throws ExecutionException {
+        switch (state) {
+        case SUCCEEDED:
+            return value;
+        case FAILED:
+            throw new ExecutionException(cause);
+        default:
+            throw new CancellationException();
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.work.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.seasar.tramina.logging.Logger;
+import org.seasar.tramina.logging.LoggerFactory;
+import org.seasar.tramina.work.Timeout;
+
+import static org.seasar.tramina.assertion.impl.BasicAssertions.*;
+import static org.seasar.tramina.work.WorkMessages.*;
+
+/**
+ * 多数のタイムアウトを一つのタイマで管理するハッシュドタイマホイールです．
+ * <p>
+ * タイムアウトはその満了時刻を含むティックのバケットに登録されます．
+ * {@link #run()} を {@link org.seasar.tramina.spi.WorkManager#scheduleAtFixedRate(Runnable, long, long)}
+ * 等で定期的に呼び出すと，前回の呼び出し以降に経過したティックのバケットを走査し，満了したタイムアウトのタスクを実行します．
+ * 登録と取り消しはタイムアウトの数に依存しない定数時間で行われるため，
+ * タイムアウトごとにスケジュールされたタスクを作成するよりもスケーラブルです．
+ * </p>
+ * <p>
+ * タスクはティックを処理するスレッドで実行されるため，短時間で終了しなければなりません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class TimerWheel implements Runnable {
+
+    // /////////////////////////////////////////////////////////////////
+    // static fields
+    //
+    /** ロガー */
+    private static final Logger logger =
+        LoggerFactory.getLogger(TimerWheel.class);
+
+    // /////////////////////////////////////////////////////////////////
+    // instance fields
+    //
+    /** 一ティックの長さ (ナノ秒) */
+    protected final long tickNanos;
+
+    /** バケットの配列 */
+    protected final List<Set<TimeoutImpl>> buckets;
+
+    /** ティックを数え始めた時刻 (ナノ秒) */
+    protected final long startNanos = System.nanoTime();
+
+    /** 処理済みのティック */
+    protected long currentTick;
+
+    // /////////////////////////////////////////////////////////////////
+    // constructors
+    //
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param wheelSize
+     *            バケットの数
+     * @param tickDuration
+     *            一ティックの長さ
+     * @param unit
+     *            {@code tickDuration} の単位
+     */
+    public TimerWheel(final int wheelSize, final long tickDuration,
+            final TimeUnit unit) {
+        assertParameterNotNull("unit", unit);
+        tickNanos = unit.toNanos(tickDuration);
+        buckets = new ArrayList<Set<TimeoutImpl>>(wheelSize);
+        for (int i = 0; i < wheelSize; ++i) {
+            buckets.add(new LinkedHashSet<TimeoutImpl>());
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods from Runnable
+    //
+    /**
+     * 前回の呼び出し以降に経過したティックを処理し，満了したタイムアウトのタスクを実行します．
+     */
+    @Override
+    public void run() {
+        for (final TimeoutImpl timeout : expire(System.nanoTime())) {
+            try {
+                timeout.task.run();
+            } catch (final Throwable e) {
+                logger.error(TIMEOUT_TASK_RAISED_EXCEPTION.format(timeout.task), e);
+            }
+        }
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods
+    //
+    /**
+     * タイムアウトを登録します．
+     * 
+     * @param task
+     *            タイムアウトが満了した時に実行されるタスク
+     * @param delay
+     *            タイムアウトまでの時間
+     * @param unit
+     *            {@code delay} の単位
+     * @return 登録されたタイムアウト
+     */
+    public synchronized Timeout schedule(final Runnable task, final long delay,
+            final TimeUnit unit) {
+        assertParameterNotNull("task", task);
+        assertParameterNotNull("unit", unit);
+        final long deadlineNanos = System.nanoTime() + unit.toNanos(delay);
+        final long deadlineTick =
+            Math.max(toTick(deadlineNanos + tickNanos - 1), currentTick + 1);
+        final TimeoutImpl timeout = new TimeoutImpl(task, deadlineTick);
+        getBucket(deadlineTick).add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 登録されているタイムアウトの数を返します．
+     * 
+     * @return 登録されているタイムアウトの数
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (final Set<TimeoutImpl> bucket : buckets) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // instance methods for internal
+    //
+    /**
+     * 指定の時刻までに経過したティックのバケットから満了したタイムアウトを取り除いて返します．
+     * 
+     * @param nowNanos
+     *            現在時刻 (ナノ秒)
+     * @return 満了したタイムアウトのリスト
+     */
+    protected synchronized List<TimeoutImpl> expire(final long nowNanos) {
+        final List<TimeoutImpl> expired = new ArrayList<TimeoutImpl>();
+        final long nowTick = toTick(nowNanos);
+        final long lastTick =
+            Math.min(nowTick, currentTick + buckets.size());
+        for (long tick = currentTick + 1; tick <= lastTick; ++tick) {
+            for (final Iterator<TimeoutImpl> it =
+                getBucket(tick).iterator(); it.hasNext();) {
+                final TimeoutImpl timeout = it.next();
+                if (timeout.deadlineTick <= nowTick) {
+                    it.remove();
+                    timeout.expired = true;
+                    expired.add(timeout);
+                }
+            }
+        }
+        if (nowTick > currentTick) {
+            currentTick = nowTick;
+        }
+        return expired;
+    }
+
+    protected synchronized boolean cancel(final TimeoutImpl timeout) {
+        return getBucket(timeout.deadlineTick).remove(timeout);
+    }
+
+    protected long toTick(final long nanos) {
+        return (nanos - startNanos) / tickNanos;
+    }
+
+    protected Set<TimeoutImpl> getBucket(final long tick) {
+        return buckets.get((int) (tick % buckets.size()));
+    }
+
+    // /////////////////////////////////////////////////////////////////
+    // member types
+    //
+    /**
+     * {@link TimerWheel} に登録されたタイムアウトの実装です．
+     */
+    protected class TimeoutImpl implements Timeout {
+
+        // /////////////////////////////////////////////////////////////////
+        // instance fields
+        //
+        protected final Runnable task;
+
+        protected final long deadlineTick;
+
+        protected volatile boolean expired;
+
+        // /////////////////////////////////////////////////////////////////
+        // constructors
+        //
+        /**
+         * @param task
+         * @param deadlineTick
+         */
+        public TimeoutImpl(final Runnable task, final long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        // /////////////////////////////////////////////////////////////////
+        // instance methods from Timeout
+        //
+        @Override
+        public boolean cancel() {
+            return TimerWheel.this.cancel(this);
+        }
+
+        @Override
+        public boolean isExpired() {
+            return expired;
+        }
+
+    }
+
+}
@@ -73,6 +73,14 @@ public class WorkManagerImpl extends AbstractActiveComponent<WorkManagerImpl>
         return service.schedule(callable, delaySeconds, TimeUnit.SECONDS);
     }
 
+    @Override
+    public <V> ScheduledFuture<V> schedule(final Callable<V> callable,
+            final long delay, final TimeUnit unit)
+            throws RejectedExecutionException {
+        assertStarted(this);
+        return service.schedule(callable, delay, unit);
+    }
+
     @Override
     public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command,
             final long initialDelay, final long period) {
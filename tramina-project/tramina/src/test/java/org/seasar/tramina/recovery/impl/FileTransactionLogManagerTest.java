@@ -0,0 +1,162 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.recovery.impl;
+
+import java.io.File;
+
+import javax.transaction.xa.Xid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.seasar.tramina.recovery.TransacstionResultType;
+import org.seasar.tramina.spi.TransactionStatusType;
+import org.seasar.tramina.spi.TwoPhaseCommitEvent;
+import org.seasar.tramina.spi.WorkManager;
+import org.seasar.tramina.transaction.TraminaTransactionManagerInternal;
+import org.seasar.tramina.transaction.impl.ToplevelTransactionImpl;
+import org.seasar.tramina.transaction.impl.TraminaTransactionManagerImpl;
+import org.seasar.tramina.transaction.impl.TraminaXidImpl;
+import org.seasar.tramina.work.impl.WorkManagerImpl;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.seasar.tramina.recovery.TransacstionResultType.*;
+
+/**
+ * 
+ * 
+ * @author koichik
+ */
+public class FileTransactionLogManagerTest {
+
+    File directory;
+
+    WorkManager wm;
+
+    TraminaTransactionManagerInternal tm;
+
+    @Before
+    public void before() throws Exception {
+        directory = File.createTempFile("tramina", "");
+        directory.delete();
+        wm = new WorkManagerImpl().initialize().start();
+        tm = new TraminaTransactionManagerImpl().initialize();
+    }
+
+    @After
+    public void after() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+        FileTransactionLogManager logger = createLogManager().initialize();
+        TraminaXidImpl committed = new TraminaXidImpl(0L);
+        TraminaXidImpl forgotten = new TraminaXidImpl(0L);
+        logger.writeBeforeCommitLog(createEvent(committed));
+        logger.writeBeforeCommitLog(createEvent(forgotten));
+        logger.writeAfterCommitLog(createCompletedEvent(forgotten));
+        logger.dispose();
+
+        logger = createLogManager().initialize();
+        Xid[] indoubtXids =
+            new Xid[] { committed.createNewBranch(),
+                forgotten.createNewBranch(),
+                new TraminaXidImpl(0L).createNewBranch() };
+        TransacstionResultType[] results =
+            logger.getTransactionResult(indoubtXids);
+        assertThat(results[0], is(COMMITTED));
+        assertThat(results[1], is(ROLLED_BACK));
+        assertThat(results[2], is(ROLLED_BACK));
+        logger.dispose();
+    }
+
+    @Test
+    public void testKeepIncompleteCommit() throws Exception {
+        FileTransactionLogManager logger = createLogManager().initialize();
+        TraminaXidImpl unknown = new TraminaXidImpl(0L);
+        TraminaXidImpl retrying = new TraminaXidImpl(0L);
+        logger.writeBeforeCommitLog(createEvent(unknown));
+        logger.writeBeforeCommitLog(createEvent(retrying));
+        logger.writeAfterCommitLog(new TwoPhaseCommitEvent(
+            new ToplevelTransactionImpl(tm),
+            unknown,
+            TransactionStatusType.UNKNOWN));
+        logger.writeAfterCommitLog(new TwoPhaseCommitEvent(
+            new ToplevelTransactionImpl(tm),
+            retrying,
+            TransactionStatusType.COMMITTED,
+            false,
+            false,
+            true));
+        logger.dispose();
+
+        logger = createLogManager().initialize();
+        TransacstionResultType[] results =
+            logger.getTransactionResult(new Xid[] {
+                unknown.createNewBranch(), retrying.createNewBranch() });
+        assertThat(results[0], is(COMMITTED));
+        assertThat(results[1], is(COMMITTED));
+        logger.dispose();
+    }
+
+    @Test
+    public void testRotate() throws Exception {
+        FileTransactionLogManager logger =
+            createLogManager().setSegmentSize(64).initialize();
+        TraminaXidImpl[] xids = new TraminaXidImpl[8];
+        for (int i = 0; i < xids.length; ++i) {
+            xids[i] = new TraminaXidImpl(0L);
+            logger.writeBeforeCommitLog(createEvent(xids[i]));
+        }
+        assertThat(directory.list().length > 1, is(true));
+
+        for (TraminaXidImpl xid : xids) {
+            logger.writeAfterCommitLog(createCompletedEvent(xid));
+        }
+        logger.writeBeforeCommitLog(createEvent(new TraminaXidImpl(0L)));
+        assertThat(directory.list().length, is(1));
+        logger.dispose();
+    }
+
+    FileTransactionLogManager createLogManager() {
+        return new FileTransactionLogManager()
+            .setWorkManager(wm)
+            .setDirectory(directory);
+    }
+
+    TwoPhaseCommitEvent createEvent(TraminaXidImpl xid) {
+        return new TwoPhaseCommitEvent(
+            new ToplevelTransactionImpl(tm),
+            xid,
+            TransactionStatusType.COMMITTING);
+    }
+
+    TwoPhaseCommitEvent createCompletedEvent(TraminaXidImpl xid) {
+        return new TwoPhaseCommitEvent(
+            new ToplevelTransactionImpl(tm),
+            xid,
+            TransactionStatusType.COMMITTED);
+    }
+
+}
@@ -16,11 +16,21 @@
 package org.seasar.tramina.recovery.impl;
 
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.xa.Xid;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.seasar.tramina.recovery.TransacstionResultType;
+import org.seasar.tramina.recovery.exception.AcquireConnectionFailedException;
+import org.seasar.tramina.recovery.exception.InsertTransactionLogFailedException;
 import org.seasar.tramina.recovery.impl.dialect.H2Dialect;
 import org.seasar.tramina.spi.TransactionStatusType;
 import org.seasar.tramina.spi.TwoPhaseCommitEvent;
@@ -31,6 +41,9 @@ import org.seasar.tramina.transaction.impl.TraminaTransactionManagerImpl;
 import org.seasar.tramina.transaction.impl.TraminaXidImpl;
 import org.seasar.tramina.work.impl.WorkManagerImpl;
 
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
 /**
  * 
  * 
@@ -72,4 +85,209 @@ public class JdbcTransactionLoggerTest {
             TransactionStatusType.COMMITTING));
         logger.deleteExpiredRecord();
     }
+
+    @Test
+    public void testOpen() throws Exception {
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicBoolean down = new AtomicBoolean();
+        JdbcDataSource flakyDs = new JdbcDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                connections.incrementAndGet();
+                if (down.get()) {
+                    throw new SQLException("down");
+                }
+                return super.getConnection();
+            }
+        };
+        flakyDs.setURL("jdbc:h2:mem:test");
+        WorkManager wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerInternal tm =
+            new TraminaTransactionManagerImpl().initialize();
+        JdbcTransactionLogManager logger =
+            new JdbcTransactionLogManager()
+                .setWorkManager(wm)
+                .setDataSource(flakyDs)
+                .setDialect(new H2Dialect())
+                .initialize();
+        TwoPhaseCommitEvent event =
+            new TwoPhaseCommitEvent(
+                new ToplevelTransactionImpl(tm),
+                new TraminaXidImpl(0L),
+                TransactionStatusType.COMMITTING);
+        connections.set(0);
+        logger.open(event);
+        logger.open(event);
+        assertThat(connections.get(), is(0));
+
+        down.set(true);
+        try {
+            logger.writeBeforeCommitLog(event);
+            fail();
+        } catch (InsertTransactionLogFailedException expected) {
+        }
+        try {
+            logger.open(event);
+            fail();
+        } catch (AcquireConnectionFailedException expected) {
+        }
+
+        down.set(false);
+        connections.set(0);
+        logger.open(event);
+        assertThat(connections.get(), is(1));
+        logger.open(event);
+        assertThat(connections.get(), is(1));
+    }
+
+    @Test
+    public void testIndexedLookup() throws Exception {
+        WorkManager wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerInternal tm =
+            new TraminaTransactionManagerImpl().initialize();
+        JdbcTransactionLogManager indexed =
+            new JdbcTransactionLogManager()
+                .setWorkManager(wm)
+                .setDataSource(ds)
+                .setDialect(new H2Dialect())
+                .setInListSize(2)
+                .initialize();
+        JdbcTransactionLogManager scan =
+            new JdbcTransactionLogManager()
+                .setWorkManager(wm)
+                .setDataSource(ds)
+                .setDialect(new H2Dialect())
+                .setInListSize(0)
+                .initialize();
+
+        TraminaXidImpl[] committed = new TraminaXidImpl[3];
+        for (int i = 0; i < committed.length; ++i) {
+            committed[i] = new TraminaXidImpl(0L);
+            indexed.writeBeforeCommitLog(new TwoPhaseCommitEvent(
+                new ToplevelTransactionImpl(tm),
+                committed[i],
+                TransactionStatusType.COMMITTING));
+        }
+        Xid[] indoubtXids =
+            new Xid[] { committed[0].createNewBranch(),
+                new TraminaXidImpl(0L).createNewBranch(),
+                committed[1].createNewBranch(),
+                committed[1].createNewBranch(),
+                committed[2].createNewBranch() };
+        TransacstionResultType[] expected =
+            new TransacstionResultType[] { TransacstionResultType.COMMITTED,
+                TransacstionResultType.ROLLED_BACK,
+                TransacstionResultType.COMMITTED,
+                TransacstionResultType.COMMITTED,
+                TransacstionResultType.COMMITTED };
+        assertThat(indexed.getTransactionResult(indoubtXids), is(expected));
+        assertThat(scan.getTransactionResult(indoubtXids), is(expected));
+    }
+
+    @Test
+    public void testEagerForget() throws Exception {
+        WorkManager wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerInternal tm =
+            new TraminaTransactionManagerImpl().initialize();
+        JdbcTransactionLogManager logger =
+            new JdbcTransactionLogManager()
+                .setWorkManager(wm)
+                .setDataSource(ds)
+                .setDialect(new H2Dialect())
+                .setEagerForget(true)
+                .setForgetDelayMillis(60000)
+                .initialize();
+
+        TraminaXidImpl completed = new TraminaXidImpl(0L);
+        TraminaXidImpl retrying = new TraminaXidImpl(0L);
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        logger.writeBeforeCommitLog(new TwoPhaseCommitEvent(
+            tx,
+            completed,
+            TransactionStatusType.COMMITTING));
+        logger.writeBeforeCommitLog(new TwoPhaseCommitEvent(
+            tx,
+            retrying,
+            TransactionStatusType.COMMITTING));
+        logger.writeAfterCommitLog(new TwoPhaseCommitEvent(
+            tx,
+            completed,
+            TransactionStatusType.COMMITTED));
+        logger.writeAfterCommitLog(new TwoPhaseCommitEvent(
+            tx,
+            retrying,
+            TransactionStatusType.COMMITTED,
+            false,
+            false,
+            true));
+        assertThat(logger.pendingForgets.size(), is(1));
+
+        assertThat(logger.forgetCompletedRecords(), is(1));
+        assertThat(logger.pendingForgets.isEmpty(), is(true));
+        TransacstionResultType[] results =
+            logger.getTransactionResult(new Xid[] {
+                completed.createNewBranch(), retrying.createNewBranch() });
+        assertThat(results[0], is(TransacstionResultType.ROLLED_BACK));
+        assertThat(results[1], is(TransacstionResultType.COMMITTED));
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final AtomicInteger connections = new AtomicInteger();
+        JdbcDataSource countingDs = new JdbcDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                connections.incrementAndGet();
+                return super.getConnection();
+            }
+        };
+        countingDs.setURL("jdbc:h2:mem:test");
+        WorkManager wm = new WorkManagerImpl().initialize().start();
+        final TraminaTransactionManagerInternal tm =
+            new TraminaTransactionManagerImpl().initialize();
+        final JdbcTransactionLogManager logger =
+            new JdbcTransactionLogManager()
+                .setWorkManager(wm)
+                .setDataSource(countingDs)
+                .setDialect(new H2Dialect())
+                .setGroupCommit(true)
+                .setMaxBatchSize(4)
+                .setMaxLingerMillis(10000)
+                .initialize();
+        connections.set(0);
+
+        final List<Xid> xids = new CopyOnWriteArrayList<Xid>();
+        final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final TraminaXidImpl xid = new TraminaXidImpl(0L);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        logger.writeBeforeCommitLog(new TwoPhaseCommitEvent(
+                            new ToplevelTransactionImpl(tm),
+                            xid,
+                            TransactionStatusType.COMMITTING));
+                        xids.add(xid);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(errors.isEmpty(), is(true));
+        assertThat(xids.size(), is(4));
+        assertThat(connections.get(), is(1));
+
+        TransacstionResultType[] results =
+            logger.getTransactionResult(xids.toArray(new Xid[xids.size()]));
+        for (TransacstionResultType result : results) {
+            assertThat(result, is(TransacstionResultType.COMMITTED));
+        }
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.resource.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.seasar.tramina.resource.impl.ConcurrentBag.Entry;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ * 
+ * @author koichik
+ */
+public class ConcurrentBagTest {
+
+    @Test
+    public void testBorrowAndRequite() throws Exception {
+        ConcurrentBag<EntryImpl> bag = new ConcurrentBag<EntryImpl>();
+        EntryImpl entry = new EntryImpl();
+        bag.add(entry);
+        assertThat(bag.size(), is(1));
+        assertThat(bag.getCount(Entry.STATE_NOT_IN_USE), is(1));
+
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(sameInstance(entry)));
+        assertThat(entry.getState(), is(Entry.STATE_IN_USE));
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(nullValue()));
+        assertThat(bag.borrow(10, TimeUnit.MILLISECONDS), is(nullValue()));
+
+        bag.requite(entry);
+        assertThat(entry.getState(), is(Entry.STATE_NOT_IN_USE));
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(sameInstance(entry)));
+    }
+
+    @Test
+    public void testThreadLocalEntry() throws Exception {
+        ConcurrentBag<EntryImpl> bag = new ConcurrentBag<EntryImpl>();
+        EntryImpl entry1 = new EntryImpl();
+        EntryImpl entry2 = new EntryImpl();
+        bag.add(entry1);
+        bag.add(entry2);
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(sameInstance(entry1)));
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(sameInstance(entry2)));
+
+        bag.requite(entry1);
+        bag.requite(entry2);
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(sameInstance(entry2)));
+        bag.requite(entry2);
+
+        assertThat(bag.reserve(entry2), is(true));
+        assertThat(bag.remove(entry2), is(true));
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(sameInstance(entry1)));
+    }
+
+    @Test
+    public void testReserveAndRemove() throws Exception {
+        ConcurrentBag<EntryImpl> bag = new ConcurrentBag<EntryImpl>();
+        EntryImpl entry = new EntryImpl();
+        bag.add(entry);
+
+        assertThat(bag.remove(entry), is(false));
+        assertThat(bag.reserve(entry), is(true));
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(nullValue()));
+        bag.unreserve(entry);
+        assertThat(entry.getState(), is(Entry.STATE_NOT_IN_USE));
+
+        assertThat(bag.reserve(entry), is(true));
+        assertThat(bag.remove(entry), is(true));
+        assertThat(entry.getState(), is(Entry.STATE_REMOVED));
+        assertThat(bag.size(), is(0));
+    }
+
+    @Test
+    public void testHandoff() throws Exception {
+        final ConcurrentBag<EntryImpl> bag = new ConcurrentBag<EntryImpl>();
+        final EntryImpl entry = new EntryImpl();
+        bag.add(entry);
+        assertThat(bag.borrow(0, TimeUnit.MILLISECONDS), is(sameInstance(entry)));
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final EntryImpl[] borrowed = new EntryImpl[1];
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    borrowed[0] = bag.borrow(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        waiter.start();
+        started.await();
+        while (bag.getWaitingThreadCount() == 0) {
+            Thread.sleep(1);
+        }
+        bag.requite(entry);
+        waiter.join();
+        assertThat(borrowed[0], is(sameInstance(entry)));
+        assertThat(entry.getState(), is(Entry.STATE_IN_USE));
+    }
+
+    public static class EntryImpl extends ConcurrentBag.Entry {
+    }
+
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.resource.jdbc.impl;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.XAConnection;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.seasar.tramina.resource.ConnectionPoolMetrics;
+import org.seasar.tramina.resource.ManagedConnection;
+import org.seasar.tramina.resource.jdbc.exception.TimeoutWaitingManagedConnectionException;
+import org.seasar.tramina.spi.ConnectionPoolMetricsExporter;
+import org.seasar.tramina.spi.TraminaTransactionManager;
+import org.seasar.tramina.transaction.impl.TraminaTransactionManagerImpl;
+import org.seasar.tramina.work.ListenableFuture;
+import org.seasar.tramina.work.impl.WorkManagerImpl;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ * 
+ * @author koichik
+ */
+public class JdbcPoolingConnectionManagerTest {
+
+    JdbcDataSource ds;
+
+    WorkManagerImpl wm;
+
+    JdbcPoolingConnectionManager pool;
+
+    JdbcResourceManager rm;
+
+    @Before
+    public void before() throws Exception {
+        ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:pool");
+        wm = new WorkManagerImpl().initialize().start();
+        pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setConcurrentBag(true)
+                .setMaxActiveConnections(1)
+                .setMaxIdleConnections(1)
+                .setMaxWaitMillis(100)
+                .initialize();
+        rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+    }
+
+    @After
+    public void after() throws Exception {
+        rm.dispose();
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testConcurrentBag() throws Exception {
+        ManagedConnection<Connection, SQLException> mc1 =
+            pool.getManagedConnection();
+        assertThat(mc1, is(notNullValue()));
+        mc1.getLogicalConnection().close();
+
+        ManagedConnection<Connection, SQLException> mc2 =
+            pool.getManagedConnection();
+        assertThat(mc2, is(sameInstance(mc1)));
+        try {
+            pool.getManagedConnection();
+            fail();
+        } catch (TimeoutWaitingManagedConnectionException expected) {
+        }
+        mc2.getLogicalConnection().close();
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        Connection con1 = rm.getConnection();
+        ListenableFuture<Connection> future = rm.getConnectionAsync();
+        assertThat(future.isDone(), is(false));
+        con1.close();
+
+        Connection con2 = future.get(1, TimeUnit.SECONDS);
+        assertThat(con2, is(notNullValue()));
+        try {
+            rm.getConnectionAsync().get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertThat(
+                expected.getCause(),
+                is(instanceOf(TimeoutWaitingManagedConnectionException.class)));
+        }
+        con2.close();
+    }
+
+    @Test
+    public void testBackgroundValidation() throws Exception {
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setConcurrentBag(true)
+                .setBackgroundValidation(true)
+                .setMinTestOnBorrowIdleSeconds(2)
+                .setHousekeepingIntervalSeconds(1)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        rm.getConnection().close();
+        for (int i = 0; i < 50 && pool.getValidationTimeHistogram().getCount() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getValidationTimeHistogram().getCount(), is(1L));
+
+        Connection con = rm.getConnection();
+        assertThat(pool.getValidationTimeHistogram().getCount(), is(1L));
+        con.close();
+        rm.dispose();
+    }
+
+    @Test
+    public void testBackgroundValidationOfIdleConnections() throws Exception {
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setMaxIdleConnections(1)
+                .setBackgroundValidation(true)
+                .setMinTestOnBorrowIdleSeconds(2)
+                .setHousekeepingIntervalSeconds(1)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        ManagedConnection<Connection, SQLException> mc1 =
+            pool.getManagedConnection();
+        mc1.getLogicalConnection().close();
+        for (int i = 0; i < 50 && pool.getValidationTimeHistogram().getCount() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getValidationTimeHistogram().getCount(), is(1L));
+        assertThat(pool.getIdleConnections(), is(1));
+
+        ManagedConnection<Connection, SQLException> mc2 =
+            pool.getManagedConnection();
+        assertThat(mc2, is(sameInstance(mc1)));
+        assertThat(pool.getIdleConnections(), is(0));
+        mc2.getLogicalConnection().close();
+        rm.dispose();
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        JdbcDataSource ds = new JdbcDataSource() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public XAConnection getXAConnection() throws SQLException {
+                created.incrementAndGet();
+                return super.getXAConnection();
+            }
+
+        };
+        ds.setURL("jdbc:h2:mem:pool");
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setConcurrentBag(true)
+                .setMinIdleConnections(2)
+                .setReplenishConcurrency(2)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        assertThat(created.get(), is(2));
+
+        Connection con1 = rm.getConnection();
+        Connection con2 = rm.getConnection();
+        assertThat(created.get(), is(2));
+        con1.close();
+        con2.close();
+        rm.dispose();
+    }
+
+    @Test
+    public void testReplenishWithinMaxActiveConnections() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        JdbcDataSource ds = new JdbcDataSource() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public XAConnection getXAConnection() throws SQLException {
+                created.incrementAndGet();
+                return super.getXAConnection();
+            }
+
+        };
+        ds.setURL("jdbc:h2:mem:pool");
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setMaxActiveConnections(2)
+                .setMinIdleConnections(2)
+                .setReplenishConcurrency(2)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        assertThat(created.get(), is(2));
+        assertThat(pool.getIdleConnections(), is(2));
+
+        Connection con1 = rm.getConnection();
+        pool.warmUp();
+        assertThat(created.get(), is(2));
+        assertThat(pool.getIdleConnections(), is(1));
+
+        Connection con2 = rm.getConnection();
+        assertThat(created.get(), is(2));
+        con1.close();
+        con2.close();
+        rm.dispose();
+    }
+
+    @Test
+    public void testMaxLifetime() throws Exception {
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setConcurrentBag(true)
+                .setMaxLifetimeSeconds(1)
+                .setMaxLifetimeJitterSeconds(0)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        ManagedConnection<Connection, SQLException> mc1 =
+            pool.getManagedConnection();
+        mc1.getLogicalConnection().close();
+        ManagedConnection<Connection, SQLException> mc2 =
+            pool.getManagedConnection();
+        assertThat(mc2, is(sameInstance(mc1)));
+
+        Thread.sleep(1100);
+        mc2.getLogicalConnection().close();
+        assertThat(mc1.isDestroyed(), is(true));
+        ManagedConnection<Connection, SQLException> mc3 =
+            pool.getManagedConnection();
+        assertThat(mc3, is(not(sameInstance(mc1))));
+        mc3.getLogicalConnection().close();
+        rm.dispose();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final AtomicInteger exported = new AtomicInteger();
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setName("metrics")
+                .setJmxEnabled(true)
+                .addMetricsExporter(new ConnectionPoolMetricsExporter() {
+
+                    @Override
+                    public void export(String poolName,
+                            ConnectionPoolMetrics metrics) {
+                        assertThat(poolName, is("metrics"));
+                        exported.incrementAndGet();
+                    }
+
+                })
+                .setMetricsExportIntervalSeconds(1)
+                .setMaxActiveConnections(1)
+                .setMaxWaitMillis(100)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name =
+            new ObjectName("org.seasar.tramina:type=ConnectionPool,name=\"metrics\"");
+        assertThat(server.isRegistered(name), is(true));
+
+        Connection con = rm.getConnection();
+        assertThat(pool.getActiveConnections(), is(1));
+        assertThat(pool.getIdleConnections(), is(0));
+        assertThat(server.getAttribute(name, "ActiveConnections"), is((Object) 1));
+        try {
+            rm.getConnection();
+            fail();
+        } catch (TimeoutWaitingManagedConnectionException expected) {
+        }
+        assertThat(pool.getTimeouts(), is(1L));
+        assertThat(pool.getPendingRequests(), is(0));
+        con.close();
+        assertThat(pool.getActiveConnections(), is(0));
+        assertThat(pool.getIdleConnections(), is(1));
+        assertThat(pool.getCreatedConnections(), is(1L));
+        assertThat(pool.getCreationTimeHistogram().getCount(), is(1L));
+        assertThat(pool.getBorrowWaitHistogram().getCount(), is(1L));
+
+        for (int i = 0; i < 30 && exported.get() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(exported.get() > 0, is(true));
+        rm.dispose();
+        assertThat(server.isRegistered(name), is(false));
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setConcurrentBag(true)
+                .setMaxActiveConnections(1)
+                .setMaxWaitMillis(100)
+                .setLeakDetectionThresholdSeconds(1)
+                .setLeakReclaimThresholdSeconds(2)
+                .setLeakStackTraceSamplingInterval(1)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        ManagedConnection<Connection, SQLException> mc =
+            pool.getManagedConnection();
+        for (int i = 0; i < 50 && pool.getReclaimedLeaks() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getDetectedLeaks(), is(1L));
+        assertThat(pool.getReclaimedLeaks(), is(1L));
+        assertThat(mc.isDestroyed(), is(true));
+
+        ManagedConnection<Connection, SQLException> mc2 =
+            pool.getManagedConnection();
+        assertThat(mc2, is(not(sameInstance(mc))));
+        mc2.getLogicalConnection().close();
+        rm.dispose();
+    }
+
+    @Test
+    public void testCloseAfterReclaim() throws Exception {
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setMaxActiveConnections(1)
+                .setMaxWaitMillis(100)
+                .setLeakDetectionThresholdSeconds(1)
+                .setLeakReclaimThresholdSeconds(1)
+                .initialize();
+        ClosedCountingConnectionManager counter =
+            new ClosedCountingConnectionManager();
+        counter.initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .addConnectionManager(counter)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        ManagedConnection<Connection, SQLException> mc =
+            pool.getManagedConnection();
+        Connection con = mc.getLogicalConnection();
+        for (int i = 0; i < 50 && pool.getReclaimedLeaks() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getReclaimedLeaks(), is(1L));
+        assertThat(mc.isDestroyed(), is(true));
+
+        con.close();
+        pool.logicalConnectionClosed(mc);
+        assertThat(counter.closed.get(), is(0));
+        assertThat(pool.getActiveConnections(), is(0));
+        assertThat(pool.getIdleConnections(), is(0));
+
+        rm.getConnection().close();
+        assertThat(counter.closed.get(), is(0));
+        assertThat(pool.getIdleConnections(), is(1));
+        rm.dispose();
+    }
+
+    @Test
+    public void testLeakReclaimInTransaction() throws Exception {
+        TraminaTransactionManager tm =
+            new TraminaTransactionManagerImpl().initialize();
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setTransactionManager(tm)
+                .setMaxActiveConnections(1)
+                .setMaxWaitMillis(100)
+                .setLeakDetectionThresholdSeconds(1)
+                .setLeakReclaimThresholdSeconds(1)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        tm.begin();
+        ManagedConnection<Connection, SQLException> mc =
+            pool.getManagedConnection();
+        for (int i = 0; i < 50 && pool.getDetectedLeaks() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        Thread.sleep(1500);
+        assertThat(pool.getDetectedLeaks(), is(1L));
+        assertThat(pool.getReclaimedLeaks(), is(0L));
+        assertThat(mc.isDestroyed(), is(false));
+
+        tm.commit();
+        for (int i = 0; i < 50 && pool.getReclaimedLeaks() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getReclaimedLeaks(), is(1L));
+        assertThat(mc.isDestroyed(), is(true));
+        rm.dispose();
+    }
+
+    @Test
+    public void testTrimBag() throws Exception {
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setConcurrentBag(true)
+                .setMaxActiveConnections(3)
+                .setMaxIdleConnections(1)
+                .setHousekeepingIntervalSeconds(1)
+                .setMaxWaitMillis(100)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        Connection con1 = rm.getConnection();
+        Connection con2 = rm.getConnection();
+        Connection con3 = rm.getConnection();
+        con1.close();
+        con2.close();
+        con3.close();
+        assertThat(pool.getIdleConnections(), is(3));
+
+        for (int i = 0; i < 30 && pool.getIdleConnections() > 1; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getIdleConnections(), is(1));
+        rm.dispose();
+    }
+
+    @Test
+    public void testAdaptiveSizing() throws Exception {
+        JdbcPoolingConnectionManager pool =
+            new JdbcPoolingConnectionManager()
+                .setWorkManager(wm)
+                .setConcurrentBag(true)
+                .setMaxActiveConnections(2)
+                .setMinActiveConnections(1)
+                .setAdaptiveSizing(true)
+                .setHousekeepingIntervalSeconds(1)
+                .setMaxWaitMillis(100)
+                .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        assertThat(pool.getActiveConnectionLimit(), is(2));
+        for (int i = 0; i < 30 && pool.getActiveConnectionLimit() > 1; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getActiveConnectionLimit(), is(1));
+
+        Connection con1 = rm.getConnection();
+        try {
+            rm.getConnection();
+            fail();
+        } catch (TimeoutWaitingManagedConnectionException expected) {
+        }
+        for (int i = 0; i < 30 && pool.getActiveConnectionLimit() < 2; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getActiveConnectionLimit(), is(2));
+        Connection con2 = rm.getConnection();
+        con2.close();
+        con1.close();
+        assertThat(pool.getHoldTimeHistogram().getCount(), is(2L));
+        rm.dispose();
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        EvictionPool pool = new EvictionPool();
+        pool
+            .setWorkManager(wm)
+            .setMaxActiveConnections(3)
+            .setMaxIdleConnections(3)
+            .setMinIdleConnections(1)
+            .setMaxIdleSeconds(1)
+            .setMaxWaitMillis(100)
+            .initialize();
+        JdbcResourceManager rm =
+            new JdbcResourceManager()
+                .addConnectionManager(pool)
+                .setManagedConnectionFactory(
+                    new XADSManagedConnectionFactory()
+                        .setXADataSource(ds)
+                        .initialize())
+                .initialize();
+        assertThat(pool.getHousekeepingPeriodSeconds(), is(1L));
+
+        Connection con1 = rm.getConnection();
+        Connection con2 = rm.getConnection();
+        Connection con3 = rm.getConnection();
+        con1.close();
+        con2.close();
+        con3.close();
+        assertThat(pool.getIdleConnections(), is(3));
+
+        for (int i = 0; i < 50 && pool.getEvictions() < 2; ++i) {
+            Thread.sleep(100);
+        }
+        assertThat(pool.getEvictions(), is(2L));
+        assertThat(pool.getIdleConnections(), is(1));
+        assertThat(pool.getFreeIdleConnectionCount(), is(2));
+
+        rm.getConnection().close();
+        assertThat(pool.getIdleConnections(), is(1));
+        assertThat(pool.getFreeIdleConnectionCount(), is(2));
+        rm.dispose();
+    }
+
+    static class ClosedCountingConnectionManager extends
+            JdbcSettingsConnectionManager {
+
+        final AtomicInteger closed = new AtomicInteger();
+
+        @Override
+        public void logicalConnectionClosed(
+                ManagedConnection<Connection, SQLException> managedConnection)
+                throws SQLException {
+            closed.incrementAndGet();
+            super.logicalConnectionClosed(managedConnection);
+        }
+
+    }
+
+    static class EvictionPool extends JdbcPoolingConnectionManager {
+
+        @Override
+        protected long getHousekeepingPeriodSeconds() {
+            return super.getHousekeepingPeriodSeconds();
+        }
+
+        int getFreeIdleConnectionCount() {
+            poolLock.lock();
+            try {
+                return freeIdleConnections.size();
+            } finally {
+                poolLock.unlock();
+            }
+        }
+
+    }
+
+}
@@ -15,13 +15,42 @@
  */
 package org.seasar.tramina.transaction.impl;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.sql.XAConnection;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.junit.Before;
 import org.junit.Test;
+import org.seasar.tramina.recovery.TransacstionResultType;
+import org.seasar.tramina.recovery.impl.JdbcTransactionLogManager;
+import org.seasar.tramina.recovery.impl.RecoveryManagerImpl;
+import org.seasar.tramina.recovery.impl.dialect.H2Dialect;
+import org.seasar.tramina.resource.impl.ForwardingXAResource;
 import org.seasar.tramina.resource.jdbc.impl.LastXAResourceImpl;
+import org.seasar.tramina.resource.jdbc.impl.LoglessLastXAResourceImpl;
+import org.seasar.tramina.spi.ReadOnlyAwareSynchronization;
+import org.seasar.tramina.spi.TraminaTransaction;
+import org.seasar.tramina.spi.TransactionHandoff;
+import org.seasar.tramina.spi.TwoPhaseCommitEvent;
+import org.seasar.tramina.spi.TwoPhaseCommitEventListener;
+import org.seasar.tramina.transaction.exception.InvalidTransactionHandoffException;
+import org.seasar.tramina.transaction.exception.TransactionHandedOffException;
+import org.seasar.tramina.transaction.exception.TransactionTimedOutException;
+import org.seasar.tramina.work.impl.WorkManagerImpl;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -68,6 +97,161 @@ public class ToplevelTransactionImplTest {
         tx.commit();
     }
 
+    @Test
+    public void testConcurrentTransactionContext() throws Exception {
+        ConcurrentTransactionContext context =
+            new ConcurrentTransactionContext();
+        final TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setTransactionContext(context)
+                .initialize();
+        tm.begin();
+        assertThat(tm.getTransaction(), is(notNullValue()));
+        assertThat(context.size(), is(1));
+
+        final List<Boolean> other = new CopyOnWriteArrayList<Boolean>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other.add(tm.getTransaction() == null);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertThat(other.get(0), is(true));
+
+        tm.commit();
+        assertThat(tm.getTransaction(), is(nullValue()));
+        assertThat(context.size(), is(0));
+
+        final ConcurrentTransactionContext timeoutContext = context;
+        thread = new Thread() {
+            @Override
+            public void run() {
+                timeoutContext.setTransactionTimeout(10);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertThat(context.transactionTimeouts.size(), is(1));
+        thread = null;
+        for (int i = 0; i < 100 && !context.transactionTimeouts.isEmpty(); ++i) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertThat(context.transactionTimeouts.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testHandOff() throws Exception {
+        final TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl().initialize();
+        tm.begin();
+        final TraminaTransaction tx = tm.getTransaction();
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+        final TransactionHandoff handoff = tm.handOff();
+        assertThat(handoff.getTransaction(), is(sameInstance(tx)));
+        assertThat(tm.getTransaction(), is(nullValue()));
+        try {
+            tm.resume(tx);
+            fail();
+        } catch (TransactionHandedOffException expected) {
+        }
+
+        final List<Object> results = new CopyOnWriteArrayList<Object>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    results.add(tm.takeOver(handoff));
+                    results.add(tm.getTransaction());
+                    tm.commit();
+                    results.add(tx.getStatus());
+                } catch (Exception e) {
+                    results.add(e);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertThat(results.get(0), is((Object) tx));
+        assertThat(results.get(1), is((Object) tx));
+        assertThat(results.get(2), is((Object) Status.STATUS_COMMITTED));
+        assertThat(tm.pendingHandoffs.isEmpty(), is(true));
+
+        try {
+            tm.takeOver(handoff);
+            fail();
+        } catch (InvalidTransactionHandoffException expected) {
+        }
+        assertThat(tm.getTransaction(), is(nullValue()));
+    }
+
+    @Test
+    public void testAbandonedHandOff() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setWorkManager(wm)
+                .setDefaultTransactionTimeout(1)
+                .setRollbackOnTimeout(true)
+                .initialize();
+        tm.begin();
+        TraminaTransaction tx = tm.getTransaction();
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+        TransactionHandoff handoff = tm.handOff();
+        assertThat(tm.pendingHandoffs.size(), is(1));
+        for (int i = 0; i < 300 && !tm.pendingHandoffs.isEmpty(); ++i) {
+            Thread.sleep(10L);
+        }
+        assertThat(tm.pendingHandoffs.isEmpty(), is(true));
+        try {
+            tm.takeOver(handoff);
+            fail();
+        } catch (InvalidTransactionHandoffException expected) {
+        }
+
+        tm.setTransactionTimeout(0);
+        tm.begin();
+        tm.begin();
+        tx = tm.getTransaction();
+        handoff = tm.handOff();
+        tx.getParent().rollback();
+        assertThat(tm.pendingHandoffs.isEmpty(), is(true));
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testCommitAllocationLean() throws Exception {
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl().initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+        assertThat(tx.synchronizations, is(nullValue()));
+        assertThat(tx.interposedSynchronizations, is(nullValue()));
+        ParticipantResourcesImpl resources =
+            (ParticipantResourcesImpl) tx.participantResources;
+        assertThat(resources.resources, is(nullValue()));
+        TraminaXidImpl xid = (TraminaXidImpl) tx.xid;
+        assertThat(xid.globalTransactionIdBytes, is(nullValue()));
+        assertThat(xid.branchQualifierBytes, is(nullValue()));
+
+        tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+        resources = (ParticipantResourcesImpl) tx.participantResources;
+        assertThat(resources.resourcesByInstance, is(nullValue()));
+        assertThat(resources.resourcesByResourceManager, is(nullValue()));
+        assertThat(resources.readOnlyResources, is(nullValue()));
+        assertThat(tx.twoPhaseCommitEvent, is(nullValue()));
+        xid = (TraminaXidImpl) tx.xid;
+        assertThat(xid.globalTransactionIdBytes, is(nullValue()));
+    }
+
     @Test
     public void testCommit2pc() throws Exception {
         TraminaTransactionManagerImpl tm =
@@ -117,4 +301,625 @@ public class ToplevelTransactionImplTest {
         tx.commit();
     }
 
+    @Test
+    public void testLoglessLastResourceCommit() throws Exception {
+        XAConnection con1 = ds.getXAConnection();
+        final AtomicInteger logConnections = new AtomicInteger();
+        JdbcDataSource logDs = new JdbcDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                logConnections.incrementAndGet();
+                return super.getConnection();
+            }
+        };
+        logDs.setURL("jdbc:h2:mem:db1");
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setLoglessLastResourceCommit(true)
+                .initialize();
+        JdbcTransactionLogManager logm =
+            new JdbcTransactionLogManager()
+                .setWorkManager(wm)
+                .setDataSource(logDs)
+                .setDialect(new H2Dialect())
+                .initialize();
+        new RecoveryManagerImpl()
+            .setTransactionManager(tm)
+            .setTransactionLogManager(logm)
+            .initialize();
+        logConnections.set(0);
+
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+        tx.enlistResource(new LoglessLastXAResourceImpl(
+            con1.getConnection(),
+            new H2Dialect()));
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+        assertThat(
+            tx.participantResources.canLastResourceWriteCommitDecision(),
+            is(true));
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+        assertThat(logConnections.get(), is(0));
+
+        assertThat(
+            logm.getTransactionResult(new Xid[] { tx.getXid() })[0],
+            is(TransacstionResultType.COMMITTED));
+        wm.stop().dispose();
+        con1.close();
+    }
+
+    @Test
+    public void testCommit2pcParallelPrepare() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setWorkManager(wm)
+                .setParallelPrepare(true)
+                .initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        tx.enlistResource(new RecordingXAResource(ds
+            .getXAConnection()
+            .getXAResource(), prepared, false));
+        tx.enlistResource(new RecordingXAResource(ds
+            .getXAConnection()
+            .getXAResource(), prepared, false));
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+        assertThat(tx.participantResources.size(), is(3));
+
+        tx.commit();
+        assertThat(prepared.size(), is(2));
+        assertThat(prepared.get(0), is(not(prepared.get(1))));
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testParallelPrepareFailed() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setWorkManager(wm)
+                .setParallelPrepare(true)
+                .initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        RecordingXAResource xa2 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                true);
+        tx.enlistResource(xa1);
+        tx.enlistResource(xa2);
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+
+        try {
+            tx.commit();
+            fail();
+        } catch (RollbackException expected) {
+        }
+        assertThat(xa1.rolledback, is(true));
+        assertThat(xa2.rolledback, is(true));
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testCommit2pcParallelCommit() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setWorkManager(wm)
+                .setParallelCommit(true)
+                .initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        RecordingXAResource xa2 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        tx.enlistResource(xa1);
+        tx.enlistResource(xa2);
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+        assertThat(xa1.committedBy, is(notNullValue()));
+        assertThat(xa2.committedBy, is(notNullValue()));
+        assertThat(xa1.committedBy, is(not(xa2.committedBy)));
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testCommitRetry() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setWorkManager(wm)
+                .setCommitRetryIntervalSeconds(0L)
+                .initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        xa1.commitFailures = 2;
+        tx.enlistResource(xa1);
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+        for (int i = 0; i < 100 && tm.getPendingCommitRetryCount() > 0; ++i) {
+            Thread.sleep(10L);
+        }
+        assertThat(tm.getPendingCommitRetryCount(), is(0));
+        assertThat(xa1.commitFailures, is(0));
+        assertThat(xa1.committedBy, is(notNullValue()));
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testCommitRetryDefersAfterCompletion() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setWorkManager(wm)
+                .setCommitRetryIntervalSeconds(0L)
+                .initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        final RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        xa1.commitFailures = 2;
+        final CountDownLatch completed = new CountDownLatch(1);
+        final List<String> committedAtCompletion =
+            new CopyOnWriteArrayList<String>();
+        tx.registerSynchronization(new Synchronization() {
+            public void beforeCompletion() {
+            }
+
+            public void afterCompletion(int status) {
+                committedAtCompletion.add(String.valueOf(xa1.committedBy));
+                completed.countDown();
+            }
+        });
+        tx.enlistResource(xa1);
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+        assertThat(completed.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(committedAtCompletion.size(), is(1));
+        assertThat(committedAtCompletion.get(0), is(xa1.committedBy));
+        assertThat(xa1.commitFailures, is(0));
+        assertThat(tm.getPendingCommitRetryCount(), is(0));
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testCommitRetryDisabled() throws Exception {
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl().initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        xa1.commitFailures = 1;
+        tx.enlistResource(xa1);
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+
+        try {
+            tx.commit();
+            fail();
+        } catch (SystemException expected) {
+        }
+        assertThat(tx.getStatus(), is(Status.STATUS_UNKNOWN));
+    }
+
+    @Test
+    public void testAsyncCommit() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setWorkManager(wm)
+                .setAsyncCommit(true)
+                .initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        final CountDownLatch completed = new CountDownLatch(1);
+        final List<String> completedBy = new CopyOnWriteArrayList<String>();
+        tx.registerSynchronization(new Synchronization() {
+            public void beforeCompletion() {
+            }
+
+            public void afterCompletion(int status) {
+                completedBy.add(Thread.currentThread().getName());
+                completed.countDown();
+            }
+        });
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        tx.enlistResource(xa1);
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+        assertThat(tm.getTransaction(), is(nullValue()));
+
+        assertThat(completed.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(xa1.committedBy, is(notNullValue()));
+        assertThat(xa1.committedBy, is(not(Thread.currentThread().getName())));
+        assertThat(completedBy.get(0), is(xa1.committedBy));
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl().setWorkManager(wm).initialize();
+        tm.setTransactionTimeout(1);
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+        assertThat(tx.timeoutSeconds, is(1));
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        tx.enlistResource(xa1);
+        assertThat(xa1.transactionTimeout, is(1));
+
+        for (int i = 0; i < 300 && !tx.timedOut; ++i) {
+            Thread.sleep(10L);
+        }
+        assertThat(tx.timedOut, is(true));
+        assertThat(tx.getStatus(), is(Status.STATUS_MARKED_ROLLBACK));
+        assertThat(xa1.rolledback, is(false));
+        try {
+            tx.commit();
+            fail();
+        } catch (TransactionTimedOutException expected) {
+        }
+        assertThat(tx.getStatus(), is(Status.STATUS_ROLLEDBACK));
+        assertThat(xa1.rolledback, is(true));
+
+        tm.setTransactionTimeout(0);
+        ToplevelTransactionImpl tx2 = new ToplevelTransactionImpl(tm);
+        tx2.begin();
+        assertThat(tx2.timeoutSeconds, is(0));
+        tx2.commit();
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testTimeoutDoesNotWaitForLock() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl().setWorkManager(wm).initialize();
+        tm.setTransactionTimeout(1);
+        final ToplevelTransactionImpl busy = new ToplevelTransactionImpl(tm);
+        busy.begin();
+        ToplevelTransactionImpl other = new ToplevelTransactionImpl(tm);
+        other.begin();
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                busy.lock.lock();
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (InterruptedException ignore) {
+                } finally {
+                    busy.lock.unlock();
+                }
+            }
+        };
+        holder.start();
+        locked.await();
+        for (int i = 0; i < 300 && !other.timedOut; ++i) {
+            Thread.sleep(10L);
+        }
+        assertThat(other.timedOut, is(true));
+        assertThat(busy.timedOut, is(false));
+        release.countDown();
+        holder.join();
+
+        try {
+            busy.commit();
+            fail();
+        } catch (TransactionTimedOutException expected) {
+        }
+        assertThat(busy.timedOut, is(true));
+        other.rollback();
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testTimeoutWithoutWorkManager() throws Exception {
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setDefaultTransactionTimeout(1)
+                .initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+        Thread.sleep(1100L);
+        try {
+            tx.commit();
+            fail();
+        } catch (TransactionTimedOutException expected) {
+        }
+        assertThat(tx.getStatus(), is(Status.STATUS_ROLLEDBACK));
+    }
+
+    @Test
+    public void testRollbackOnTimeout() throws Exception {
+        WorkManagerImpl wm = new WorkManagerImpl().initialize().start();
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl()
+                .setWorkManager(wm)
+                .setDefaultTransactionTimeout(1)
+                .setRollbackOnTimeout(true)
+                .initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        tx.enlistResource(xa1);
+
+        for (int i = 0; i < 300 && !xa1.rolledback; ++i) {
+            Thread.sleep(10L);
+        }
+        assertThat(xa1.rolledback, is(true));
+        assertThat(tx.getStatus(), is(Status.STATUS_MARKED_ROLLBACK));
+        try {
+            tx.enlistResource(ds.getXAConnection().getXAResource());
+            fail();
+        } catch (TransactionTimedOutException expected) {
+        }
+        tx.rollback();
+        assertThat(tx.getStatus(), is(Status.STATUS_ROLLEDBACK));
+        wm.stop().dispose();
+    }
+
+    @Test
+    public void testReadOnly() throws Exception {
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl().initialize();
+        final List<Boolean> readOnlyEvents = new CopyOnWriteArrayList<Boolean>();
+        tm.addTwoPhaseCommitEventListener(new TwoPhaseCommitEventListener() {
+            public void beforeTwoPahseCommit(TwoPhaseCommitEvent event) {
+            }
+
+            public void beforeLastCommit(TwoPhaseCommitEvent event) {
+                readOnlyEvents.add(event.isReadOnly());
+            }
+
+            public void afterLastCommit(TwoPhaseCommitEvent event) {
+            }
+
+            public void afterTwoPhaseCommit(TwoPhaseCommitEvent event) {
+            }
+        });
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        final List<XAResource> released = new CopyOnWriteArrayList<XAResource>();
+        final List<Integer> completed = new CopyOnWriteArrayList<Integer>();
+        tx.registerSynchronization(new ReadOnlyAwareSynchronization() {
+            public void beforeCompletion() {
+            }
+
+            public void afterReadOnlyPrepared(XAResource xaResource) {
+                assertThat(completed.isEmpty(), is(true));
+                released.add(xaResource);
+            }
+
+            public void afterCompletion(int status) {
+                completed.add(status);
+            }
+        });
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        xa1.readOnly = true;
+        RecordingXAResource xa2 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        xa2.readOnly = true;
+        tx.enlistResource(xa1);
+        tx.enlistResource(xa2);
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+        assertThat(prepared.size(), is(2));
+        assertThat(released.size(), is(2));
+        assertThat(released.contains(xa1), is(true));
+        assertThat(released.contains(xa2), is(true));
+        assertThat(xa1.committedBy, is(nullValue()));
+        assertThat(xa2.committedBy, is(nullValue()));
+        assertThat(completed.size(), is(1));
+        assertThat(readOnlyEvents.size(), is(1));
+        assertThat(readOnlyEvents.get(0), is(true));
+
+        tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+        xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        xa1.readOnly = true;
+        xa2 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        tx.enlistResource(xa1);
+        tx.enlistResource(xa2);
+        tx.enlistResource(ds.getXAConnection().getXAResource());
+
+        tx.commit();
+        assertThat(xa1.committedBy, is(nullValue()));
+        assertThat(xa2.committedBy, is(notNullValue()));
+        assertThat(readOnlyEvents.size(), is(2));
+        assertThat(readOnlyEvents.get(1), is(false));
+    }
+
+    @Test
+    public void testEnlistKnownResource() throws Exception {
+        TraminaTransactionManagerImpl tm =
+            new TraminaTransactionManagerImpl().initialize();
+        ToplevelTransactionImpl tx = new ToplevelTransactionImpl(tm);
+        tx.begin();
+
+        List<String> prepared = new CopyOnWriteArrayList<String>();
+        RecordingXAResource xa1 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        RecordingXAResource xa2 =
+            new RecordingXAResource(
+                ds.getXAConnection().getXAResource(),
+                prepared,
+                false);
+        tx.enlistResource(xa1);
+        tx.enlistResource(xa2);
+        assertThat(tx.participantResources.size(), is(2));
+        assertThat(xa1.sameRMCalls, is(1));
+
+        tx.delistResource(xa1, XAResource.TMSUSPEND);
+        tx.delistResource(xa2, XAResource.TMSUSPEND);
+        tx.enlistResource(xa2);
+        tx.enlistResource(xa1);
+        assertThat(tx.participantResources.size(), is(2));
+        assertThat(xa1.sameRMCalls, is(1));
+        assertThat(xa2.sameRMCalls, is(0));
+
+        tx.commit();
+        assertThat(tx.getStatus(), is(Status.STATUS_COMMITTED));
+    }
+
+    static class RecordingXAResource extends ForwardingXAResource {
+
+        List<String> prepared;
+
+        boolean failOnPrepare;
+
+        volatile boolean rolledback;
+
+        volatile int commitFailures;
+
+        volatile String committedBy;
+
+        volatile int transactionTimeout;
+
+        boolean readOnly;
+
+        int sameRMCalls;
+
+        RecordingXAResource(XAResource delegate, List<String> prepared,
+                boolean failOnPrepare) {
+            super(delegate);
+            this.prepared = prepared;
+            this.failOnPrepare = failOnPrepare;
+        }
+
+        @Override
+        public int prepare(Xid xid) throws XAException {
+            prepared.add(Thread.currentThread().getName());
+            if (failOnPrepare) {
+                throw new XAException(XAException.XAER_RMERR);
+            }
+            if (readOnly) {
+                super.rollback(xid);
+                return XA_RDONLY;
+            }
+            return super.prepare(xid);
+        }
+
+        @Override
+        public boolean isSameRM(XAResource xares) throws XAException {
+            ++sameRMCalls;
+            return super.isSameRM(xares);
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) throws XAException {
+            transactionTimeout = seconds;
+            return super.setTransactionTimeout(seconds);
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) throws XAException {
+            if (commitFailures > 0) {
+                --commitFailures;
+                throw new XAException(XAException.XAER_RMFAIL);
+            }
+            super.commit(xid, onePhase);
+            committedBy = Thread.currentThread().getName();
+        }
+
+        @Override
+        public void rollback(Xid xid) throws XAException {
+            rolledback = true;
+            super.rollback(xid);
+        }
+
+    }
+
 }
@@ -15,7 +15,13 @@
  */
 package org.seasar.tramina.transaction.impl;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
+import org.seasar.tramina.recovery.impl.XidImpl;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
 
 /**
  * 
@@ -34,4 +40,49 @@ public class XidImplTest {
         System.out.println(new TraminaXidImpl(0L));
         System.out.println(new TraminaXidImpl(1L));
     }
+
+    @Test
+    public void testEncoding() throws Exception {
+        TraminaXidImpl xid = new TraminaXidImpl(3L);
+        assertThat(xid.globalTransactionIdBytes, is(nullValue()));
+        assertThat(xid.branchQualifierBytes, is(nullValue()));
+
+        TraminaXidImpl branch = xid.createNewBranch();
+        byte[] gtrid = branch.getGlobalTransactionId();
+        assertThat(xid.getGlobalTransactionId(), is(sameInstance(gtrid)));
+        assertThat(xid.createNewBranch().getGlobalTransactionId(), is(sameInstance(gtrid)));
+
+        ByteBuffer buf = ByteBuffer.wrap(gtrid);
+        assertThat(buf.getLong(), is(3L));
+        assertThat(buf.getLong(), is(TraminaXidImpl.uuid.getMostSignificantBits()));
+        assertThat(buf.getLong(), is(TraminaXidImpl.uuid.getLeastSignificantBits()));
+        assertThat(buf.getLong(gtrid.length - 8), is(xid.globalTransactionId));
+        assertThat(
+            ByteBuffer.wrap(branch.getBranchQualifier()).getLong(
+                branch.getBranchQualifier().length - 8),
+            is(1L));
+    }
+
+    @Test
+    public void testEquals() throws Exception {
+        TraminaXidImpl xid = new TraminaXidImpl(3L);
+        TraminaXidImpl branch = xid.createNewBranch();
+        TraminaXidImpl same =
+            new TraminaXidImpl(3L, xid.globalTransactionId, 1L);
+        assertThat(branch.equals(same), is(true));
+        assertThat(branch.hashCode(), is(same.hashCode()));
+        assertThat(same.globalTransactionIdBytes, is(nullValue()));
+        assertThat(branch.equals(xid), is(false));
+        assertThat(branch.equals(xid.createNewBranch()), is(false));
+
+        XidImpl recovered =
+            new XidImpl(
+                branch.getFormatId(),
+                branch.getGlobalTransactionId().clone(),
+                branch.getBranchQualifier().clone());
+        assertThat(branch.equals(recovered), is(true));
+        assertThat(recovered.equals(branch), is(true));
+        assertThat(TraminaXidImpl.getDomainId(recovered), is(3L));
+        assertThat(TraminaXidImpl.getDomainId(branch), is(3L));
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, 
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.tramina.work.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.seasar.tramina.work.Timeout;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * 
+ * 
+ * @author koichik
+ */
+public class TimerWheelTest {
+
+    List<String> buf = new CopyOnWriteArrayList<String>();
+
+    @Test
+    public void testExpire() throws Exception {
+        TimerWheel wheel = new TimerWheel(4, 1L, TimeUnit.SECONDS);
+        long start = wheel.startNanos;
+        wheel.schedule(new Task("a"), 1L, TimeUnit.SECONDS);
+        wheel.schedule(new Task("b"), 3L, TimeUnit.SECONDS);
+        wheel.schedule(new Task("c"), 6L, TimeUnit.SECONDS);
+        Timeout d = wheel.schedule(new Task("d"), 2L, TimeUnit.SECONDS);
+        assertThat(wheel.size(), is(4));
+
+        assertThat(d.cancel(), is(true));
+        assertThat(d.cancel(), is(false));
+        assertThat(wheel.size(), is(3));
+
+        assertThat(wheel.expire(start).size(), is(0));
+        List<TimerWheel.TimeoutImpl> expired =
+            wheel.expire(start + TimeUnit.SECONDS.toNanos(4L));
+        assertThat(expired.size(), is(2));
+        assertThat(expired.get(0).isExpired(), is(true));
+        assertThat(((Task) expired.get(0).task).name, is("a"));
+        assertThat(((Task) expired.get(1).task).name, is("b"));
+        assertThat(wheel.size(), is(1));
+
+        expired = wheel.expire(start + TimeUnit.SECONDS.toNanos(6L));
+        assertThat(expired.size(), is(0));
+        expired = wheel.expire(start + TimeUnit.SECONDS.toNanos(7L));
+        assertThat(expired.size(), is(1));
+        assertThat(((Task) expired.get(0).task).name, is("c"));
+        assertThat(wheel.size(), is(0));
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        TimerWheel wheel = new TimerWheel(8, 10L, TimeUnit.MILLISECONDS);
+        wheel.schedule(new Task("a"), 0L, TimeUnit.MILLISECONDS);
+        wheel.schedule(new Task("b"), 1L, TimeUnit.HOURS);
+        Thread.sleep(30L);
+        wheel.run();
+        assertThat(buf.size(), is(1));
+        assertThat(buf.get(0), is("a"));
+        assertThat(wheel.size(), is(1));
+    }
+
+    class Task implements Runnable {
+
+        String name;
+
+        Task(String name) {
+            this.name = name;
+        }
+
+        public void run() {
+            buf.add(name);
+        }
+
+    }
+
+}